@@ -33,19 +33,34 @@ public final class ChannelUtil {
       SeismicDataSource source) {
     final String formattedScnl = ch.getFormattedSCNL();
     if (!channels.contains(formattedScnl)) {
-      Metadata md = SwarmConfig.getInstance().getMetadata(formattedScnl, true);
-      md.updateLongitude(ch.getLongitude());
-      md.updateLatitude(ch.getLatitude());
-      md.updateHeight(ch.getHeight());
-      for (String g : ch.getGroups()) {
-        md.addGroup(g);
-      }
-      if (ch.getSiteName() != null && !ch.getSiteName().equals(ch.getStation())) {
-        md.updateAlias(ch.getSiteName());
-      }
-      md.source = source;
-      channels.add(formattedScnl);
+      addNewChannel(channels, ch, source);
+    }
+    return formattedScnl;
+  }
+
+  /**
+   * Add a channel the caller knows is not in the list yet, without searching the list.
+   * 
+   * @param channels the list of channels.
+   * @param ch the channel information.
+   * @param source the seismic data source.
+   * @return the formatted SCNL.
+   */
+  public static String addNewChannel(List<String> channels, AbstractChannelInfo ch,
+      SeismicDataSource source) {
+    final String formattedScnl = ch.getFormattedSCNL();
+    Metadata md = SwarmConfig.getInstance().getMetadata(formattedScnl, true);
+    md.updateLongitude(ch.getLongitude());
+    md.updateLatitude(ch.getLatitude());
+    md.updateHeight(ch.getHeight());
+    for (String g : ch.getGroups()) {
+      md.addGroup(g);
+    }
+    if (ch.getSiteName() != null && !ch.getSiteName().equals(ch.getStation())) {
+      md.updateAlias(ch.getSiteName());
     }
+    md.source = source;
+    channels.add(formattedScnl);
     return formattedScnl;
   }
 
@@ -11,6 +11,9 @@ import gov.usgs.volcanoes.core.ui.GlobalKeyManager;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.ChannelListCache;
+import gov.usgs.volcanoes.swarm.data.DiskCache;
+import gov.usgs.volcanoes.swarm.data.GulpSizer;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.event.EventFrame;
 import gov.usgs.volcanoes.swarm.heli.HelicorderViewerFrame;
@@ -36,6 +39,7 @@ import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
 import java.util.ArrayList;
 
 import javax.swing.AbstractAction;
@@ -104,6 +108,17 @@ public class Swarm extends JFrame implements InternalFrameListener {
     config.createConfig(args);
 
     cache = CachedDataSource.getInstance();
+    cache.setCompressWaves(config.compressWaveCache);
+    if (config.diskCachePath.length() > 0) {
+      cache.setDiskCache(
+          new DiskCache(new File(config.diskCachePath), config.diskCacheSize * 1024L * 1024L));
+    }
+    if (config.channelCachePath.length() > 0) {
+      ChannelListCache.setInstance(new ChannelListCache(new File(config.channelCachePath),
+          config.channelCacheTtl * 60L * 60L * 1000L));
+    }
+    GulpSizer.setBounds(config.adaptiveGulp, config.minGulpSize, config.maxGulpSize,
+        config.minGulpDelay, config.maxGulpDelay);
 
     SwarmInternalFrames.addInternalFrameListener(this);
     checkJavaVersion();
@@ -533,6 +548,8 @@ public class Swarm extends JFrame implements InternalFrameListener {
       configFile.writeToFile(config.configFilename);
     }
 
+    cache.persist();
+
     waveClipboard.removeWaves();
     try {
       for (final JInternalFrame frame : SwarmInternalFrames.getFrames()) {
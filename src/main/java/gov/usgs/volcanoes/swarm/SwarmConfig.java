@@ -2,6 +2,7 @@ package gov.usgs.volcanoes.swarm;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.swarm.data.ChannelIndex;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.map.NationalMapLayer;
@@ -44,6 +45,7 @@ public class SwarmConfig {
 
   private static String DEFAULT_CONFIG_FILE = "Swarm.config";
   private static String DEFAULT_DATA_SOURCES_FILE = "DataSources.config";
+  private static String DEFAULT_CHANNEL_CACHE_DIR = ".swarm" + File.separatorChar + "channelcache";
 
   public String configFilename;
   public int windowX;
@@ -124,6 +126,19 @@ public class SwarmConfig {
 
   public String fdsnDataselectURL;
   public String fdsnStationURL;
+
+  public String diskCachePath;
+  public int diskCacheSize;
+  public boolean compressWaveCache;
+
+  public String channelCachePath;
+  public int channelCacheTtl;
+
+  public boolean adaptiveGulp;
+  public int minGulpSize;
+  public int maxGulpSize;
+  public int minGulpDelay;
+  public int maxGulpDelay;
   
   public String user;
 
@@ -409,6 +424,21 @@ public class SwarmConfig {
     fdsnStationURL = StringUtils.stringToString(config.getString("fdsnStationURL"),
         "http://service.iris.edu/fdsnws/station/1/query");
 
+    diskCachePath = StringUtils.stringToString(config.getString("diskCachePath"), "");
+    diskCacheSize = StringUtils.stringToInt(config.getString("diskCacheSize"), 1024);
+    compressWaveCache =
+        StringUtils.stringToBoolean(config.getString("compressWaveCache"), false);
+
+    channelCachePath = StringUtils.stringToString(config.getString("channelCachePath"),
+        System.getProperty("user.home") + File.separatorChar + DEFAULT_CHANNEL_CACHE_DIR);
+    channelCacheTtl = StringUtils.stringToInt(config.getString("channelCacheTtl"), 24);
+
+    adaptiveGulp = StringUtils.stringToBoolean(config.getString("adaptiveGulp"), true);
+    minGulpSize = StringUtils.stringToInt(config.getString("minGulpSize"), 60);
+    maxGulpSize = StringUtils.stringToInt(config.getString("maxGulpSize"), 4 * 60 * 60);
+    minGulpDelay = StringUtils.stringToInt(config.getString("minGulpDelay"), 0);
+    maxGulpDelay = StringUtils.stringToInt(config.getString("maxGulpDelay"), 10 * 1000);
+
     layout =
         StringUtils.stringToString(config.getString("layout"), "");
 
@@ -474,12 +504,26 @@ public class SwarmConfig {
     return sources.containsKey(key);
   }
 
+  /**
+   * Add a data source, replacing any of the same name.
+   * @param source data source
+   */
   public void addSource(final SeismicDataSource source) {
-    sources.put(source.getName(), source);
+    final SeismicDataSource old = sources.put(source.getName(), source);
+    if (old != null && old != source) {
+      ChannelIndex.remove(old);
+    }
   }
 
+  /**
+   * Remove a data source.
+   * @param key source name
+   */
   public void removeSource(final String key) {
-    sources.remove(key);
+    final SeismicDataSource source = sources.remove(key);
+    if (source != null) {
+      ChannelIndex.remove(source);
+    }
   }
 
   public double getDurationMagnitude(final double t) {
@@ -583,6 +627,19 @@ public class SwarmConfig {
 
     config.put("fdsnDataselectURL", fdsnDataselectURL);
     config.put("fdsnStationURL", fdsnStationURL);
+
+    config.put("diskCachePath", diskCachePath);
+    config.put("diskCacheSize", Integer.toString(diskCacheSize));
+    config.put("compressWaveCache", Boolean.toString(compressWaveCache));
+
+    config.put("channelCachePath", channelCachePath);
+    config.put("channelCacheTtl", Integer.toString(channelCacheTtl));
+
+    config.put("adaptiveGulp", Boolean.toString(adaptiveGulp));
+    config.put("minGulpSize", Integer.toString(minGulpSize));
+    config.put("maxGulpSize", Integer.toString(maxGulpSize));
+    config.put("minGulpDelay", Integer.toString(minGulpDelay));
+    config.put("maxGulpDelay", Integer.toString(maxGulpDelay));
     
     config.put("layout", layout);
     config.put("loadLayout", Boolean.toString(loadLayout));
@@ -4,6 +4,7 @@ import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
+import gov.usgs.volcanoes.swarm.data.ChannelIndex;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.heli.HelicorderViewerFrame;
 import gov.usgs.volcanoes.swarm.internalFrame.SwarmInternalFrames;
@@ -232,8 +233,8 @@ public class SwarmLayout implements Comparable<SwarmLayout> {
 
     for (final String wave : waves) {
       final ConfigFile cf = config.getSubConfig(wave);
-      final SeismicDataSource sds = SwarmConfig.getInstance().getSource(cf.getString("source"));
       String channel = cf.getString("channel");
+      final SeismicDataSource sds = getSource(cf.getString("source"), channel);
       WaveViewSettings wvs = new WaveViewSettings();
       wvs.set(cf);
       WaveViewerFrame wvf = Swarm.openRealtimeWave(sds, channel, wvs);
@@ -270,13 +271,13 @@ public class SwarmLayout implements Comparable<SwarmLayout> {
       WaveViewSettings wvs = new WaveViewSettings();
       wvs.set(scf);
       WaveViewPanel wvp = new WaveViewPanel(wvs);
-      SeismicDataSource ds = SwarmConfig.getInstance().getSource(scf.getString("source"));
-      wvp.setDataSource(ds);
       String channel = scf.getString("channel");
+      SeismicDataSource ds = getSource(scf.getString("source"), channel);
+      wvp.setDataSource(ds);
       wvp.setChannel(channel);
       double st = scf.getDouble("startTime");
       double et = scf.getDouble("endTime");
-      Wave wave = ds.getWave(channel, st, et);
+      Wave wave = ds == null ? null : ds.getWave(channel, st, et);
       wvp.setWave(wave, st, et);
       wcf.addWave(wvp);
     }
@@ -290,8 +291,8 @@ public class SwarmLayout implements Comparable<SwarmLayout> {
     }
     for (final String rsam : rsams) {
       final ConfigFile cf = config.getSubConfig(rsam);
-      final SeismicDataSource sds = SwarmConfig.getInstance().getSource(cf.getString("source"));
       String channel = cf.getString("channel");
+      final SeismicDataSource sds = getSource(cf.getString("source"), channel);
       RsamViewSettings setting = new RsamViewSettings();
       setting.set(cf);
       RsamViewerFrame rf = Swarm.openRsam(sds, channel, setting);
@@ -299,6 +300,18 @@ public class SwarmLayout implements Comparable<SwarmLayout> {
     }
   }
 
+  /**
+   * Get the source a layout names or, if there is no longer one by that name, the first source
+   * known to serve the channel.
+   */
+  private static SeismicDataSource getSource(final String name, final String channel) {
+    final SeismicDataSource source = SwarmConfig.getInstance().getSource(name);
+    if (source != null || channel == null) {
+      return source;
+    }
+    return ChannelIndex.getSource(channel);
+  }
+
   public int compareTo(final SwarmLayout o) {
     return getName().compareToIgnoreCase(o.getName());
   }
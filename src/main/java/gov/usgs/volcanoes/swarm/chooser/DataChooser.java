@@ -81,6 +81,9 @@ import gov.usgs.volcanoes.swarm.chooser.node.MessageNode;
 import gov.usgs.volcanoes.swarm.chooser.node.ProgressNode;
 import gov.usgs.volcanoes.swarm.chooser.node.RootNode;
 import gov.usgs.volcanoes.swarm.chooser.node.ServerNode;
+import gov.usgs.volcanoes.swarm.data.ChannelIndex;
+import gov.usgs.volcanoes.swarm.data.ChannelListCache;
+import gov.usgs.volcanoes.swarm.data.DataListener;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.FileDataSource;
 import gov.usgs.volcanoes.swarm.data.RsamSource;
@@ -206,6 +209,11 @@ public class DataChooser extends JPanel {
      */
     public synchronized void channelsUpdated() {
       List<String> ch = filesNode.getSource().getChannels();
+      if (ch == null) {
+        ChannelIndex.remove(filesNode.getSource());
+      } else {
+        ChannelIndex.put(filesNode.getSource(), ch);
+      }
       if (ch == null && filesNodeInTree) {
         filesNode.removeAllChildren();
         removeServer(filesNode);
@@ -392,7 +400,7 @@ public class DataChooser extends JPanel {
             List<ServerNode> servers = getSelectedServers();
             if (servers != null) {
               for (ServerNode server : servers) {
-                dataSourceSelected(server, null);
+                dataSourceSelected(server, null, true);
               }
             }
           }
@@ -755,11 +763,25 @@ public class DataChooser extends JPanel {
     return openedSources.contains(src);
   }
 
-  private List<String> openSource(SeismicDataSource sds) {
+  private List<String> openSource(final ServerNode node, boolean reload) {
+    SeismicDataSource sds = node.getSource();
     List<String> channels = null;
     try {
       sds.establish();
-      channels = sds.getChannels();
+      if (reload) {
+        channels = ChannelListCache.reload(sds);
+      } else {
+        // a stale cached list is shown at once and replaced if the server has changed it
+        channels = ChannelListCache.getChannels(sds, new DataListener<List<String>>() {
+          public void dataReceived(List<String> refreshed) {
+            if (node.getParent() != null && openedSources.contains(node.getSource().getName())) {
+              populateServer(node, refreshed, false, false);
+              model.reload(node);
+              MapFrame.getInstance().reset(false);
+            }
+          }
+        });
+      }
       MapFrame.getInstance().reset(false);
       sds.close();
     } catch (Exception e) {
@@ -775,10 +797,14 @@ public class DataChooser extends JPanel {
     private List<String> channels;
     private ServerNode source;
     private ActionListener finishListener;
+    private boolean reload;
+    /** set on the event dispatch thread once the full list is shown. */
+    private boolean done;
 
-    public DataSourceOpener(ServerNode src, ActionListener fl) {
+    public DataSourceOpener(ServerNode src, ActionListener fl, boolean reload) {
       source = src;
       finishListener = fl;
+      this.reload = reload;
     }
 
     /**
@@ -810,7 +836,20 @@ public class DataChooser extends JPanel {
        * 
        * @see gov.usgs.volcanoes.swarm.data.SeismicDataSourceListener#channelsUpdated()
        */
-      public void channelsUpdated() {}
+      public void channelsUpdated() {
+        // show what has loaded so far, keeping the progress bar
+        final List<String> loading = source.getSource().getLoadingChannels();
+        if (loading == null) {
+          return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            if (!done) {
+              populateServer(source, loading, false, true);
+            }
+          }
+        });
+      }
 
       /*
        * (non-Javadoc)
@@ -829,7 +868,7 @@ public class DataChooser extends JPanel {
     public Object construct() {
       SeismicDataSource sds = source.getSource();
       sds.addListener(listener);
-      channels = openSource(sds);
+      channels = openSource(source, reload);
       return null;
     }
 
@@ -839,6 +878,7 @@ public class DataChooser extends JPanel {
      * @see gov.usgs.volcanoes.swarm.SwingWorker#finished()
      */
     public void finished() {
+      done = true;
       int id = OK;
       if (channels != null) {
         source.setBroken(false);
@@ -861,7 +901,18 @@ public class DataChooser extends JPanel {
   }
 
   private void dataSourceSelected(final ServerNode source, ActionListener listener) {
-    DataSourceOpener opener = new DataSourceOpener(source, listener);
+    dataSourceSelected(source, listener, false);
+  }
+
+  /**
+   * Open a data source.
+   * @param source server node
+   * @param listener told when the source is open, may be null
+   * @param reload true to ask the server for its channels even if they are cached
+   */
+  private void dataSourceSelected(final ServerNode source, ActionListener listener,
+      boolean reload) {
+    DataSourceOpener opener = new DataSourceOpener(source, listener, reload);
     opener.start();
   }
 
@@ -239,6 +239,9 @@ public class WebServicesPanel extends DataSourcePanel {
         JOptionPane.showMessageDialog(Swarm.getApplicationFrame(), msg.toString(), "Error",
             JOptionPane.ERROR_MESSAGE);
         return null;
+      } finally {
+        // hand the connection back
+        close();
       }
       return super.getNetworkList();
     }
@@ -11,9 +11,15 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JFrame;
 
@@ -22,6 +28,7 @@ import cern.colt.matrix.DoubleMatrix2D;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.Swarm;
 
 /**
@@ -30,6 +37,41 @@ import gov.usgs.volcanoes.swarm.Swarm;
  *
  * Mostly build with Dan's code pulled from CachedDataSource
  *
+ * <p>There is no cache-wide lock. Each channel's entries are guarded by the monitor of that
+ * channel's CacheIndex, so readers and writers of different channels never contend.
+ *
+ * <p>Cache size is counted as entries come and go. When a put pushes the size over the high
+ * watermark an eviction pass is handed to a background thread, which evicts the entries chosen by
+ * the {@link EvictionPolicy} until the size drops under the low watermark. Puts never purge
+ * inline. Waves, helicorders and RSAM share one policy so they compete for the same memory.
+ *
+ * <p>With wave compression on, the eviction pass first compresses waves which have not been used
+ * for a while (see {@link CompressedWave}) and only evicts if that does not free enough memory.
+ * Recent realtime data is left uncompressed so appending to it stays cheap.
+ *
+ * <p>All helicorder data put in the cache is also folded into a per-channel
+ * {@link HelicorderPyramid}, which serves long spans at coarse resolution after the one second
+ * data is gone. Pyramids are cache entries like any other: they count toward the size cap and
+ * the eviction policy may drop them.
+ *
+ * <p>If a {@link DiskCache} is set, evicted waves and helicorders spill to it and memory misses
+ * are filled from it before a request falls through to the network.
+ *
+ * <p>Requests which pass a fetcher or source are planned against the cache: the cached entries
+ * overlapping the request are used as they are and only the gaps between them are fetched, so a
+ * long view with one short hole costs one short request. The bytes served from the cache and
+ * fetched to fill gaps are counted; see {@link #getHitBytes()} and {@link #getMissBytes()}.
+ * Spans a source answered with no data are remembered for a minute in an {@link EmptySpanCache}
+ * and skipped, so a dead channel is not asked for the same empty span on every refresh. Sources
+ * report such spans with {@link #putEmpty(String, double, double)} only for a real no-data
+ * answer, never for a failed request, and the last few minutes before now are never remembered
+ * since data for them may still be on its way.
+ *
+ * <p>Realtime data, from SeedLink or from polling the tail of a wave server, is put with
+ * {@link #putRealtimeWave(String, Wave)} into a per-channel {@link RealtimeBuffer} rather than
+ * joined onto the cached wave packet by packet. Only completed chunks are spilled into the wave
+ * cache; reads take the recent part of a span from the buffer.
+ *
  * @author Tom Parker
  */
 public abstract class AbstractCachingDataSource extends SeismicDataSource implements RsamSource {
@@ -44,11 +86,60 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   /** microsecond conversion. */
   protected static final double FROM_USEC = 1E-6;
 
+  /** fraction of maxSize above which eviction is started. */
+  private static final double HIGH_WATERMARK = 1.0;
+
+  /** fraction of maxSize eviction works down to. */
+  private static final double LOW_WATERMARK = 0.8;
+
+  /** waves unused for this long may be compressed, in ms. */
+  private static final long COMPRESS_AGE = 60 * 1000;
+
+  /** realtime data later than this many seconds before now need not be in a pyramid. */
+  private static final double PYRAMID_LAG = 120;
+
+  /** empty responses are remembered this long, in ms. */
+  private static final long EMPTY_TTL = 60 * 1000;
+
+  /** empty responses for the last this many seconds are not remembered, data may be late. */
+  private static final double EMPTY_LATENCY = 10 * 60;
+
+  /** realtime buffers not appended to for this long are dropped, in ms. */
+  private static final long REALTIME_IDLE =
+      RealtimeBuffer.CHUNKS * RealtimeBuffer.CHUNK_SECONDS * 1000L;
+
+  /** one maintenance thread shared by all caching sources. */
+  private static final ExecutorService maintenanceExecutor =
+      Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "Cache maintenance");
+          thread.setDaemon(true);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          return thread;
+        }
+      });
+
   protected long maxSize;
-  protected Map<String, List<CachedHelicorder>> helicorderCache;
-  protected Map<String, List<CachedWave>> waveCache;
-  protected Map<String, List<CachedRsam>> rsamCache;
-  protected CachePurgeAction[] purgeActions;
+  protected ConcurrentMap<String, CacheIndex<CachedHelicorder>> helicorderCache;
+  protected ConcurrentMap<String, CacheIndex<CachedWave>> waveCache;
+  protected ConcurrentMap<String, CacheIndex<CachedRsam>> rsamCache;
+  protected ConcurrentMap<String, CacheIndex<CachedPyramid>> pyramidCache;
+  protected EvictionPolicy evictionPolicy;
+  protected DiskCache diskCache;
+  protected boolean compressWaves;
+  protected EmptySpanCache emptySpans;
+  protected ConcurrentMap<String, RealtimeBuffer> realtime;
+
+  private final AtomicLong waveBytes = new AtomicLong();
+  private final AtomicLong helicorderBytes = new AtomicLong();
+  private final AtomicLong rsamBytes = new AtomicLong();
+  private final AtomicLong pyramidBytes = new AtomicLong();
+  private final AtomicLong hitBytes = new AtomicLong();
+  private final AtomicLong missBytes = new AtomicLong();
+  private final AtomicLong lastRealtimeSweep = new AtomicLong();
+
+  /** set while an eviction pass is queued or running. */
+  private final AtomicBoolean evictionPending = new AtomicBoolean();
   protected static Logger logger;
   protected static final JFrame applicationFrame = Swarm.getApplicationFrame();
 
@@ -56,11 +147,14 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * Constructor.
    */
   public AbstractCachingDataSource() {
-    helicorderCache = new HashMap<String, List<CachedHelicorder>>();
-    waveCache = new HashMap<String, List<CachedWave>>();
-    rsamCache = new HashMap<String, List<CachedRsam>>();
+    helicorderCache = new ConcurrentHashMap<String, CacheIndex<CachedHelicorder>>();
+    waveCache = new ConcurrentHashMap<String, CacheIndex<CachedWave>>();
+    rsamCache = new ConcurrentHashMap<String, CacheIndex<CachedRsam>>();
+    pyramidCache = new ConcurrentHashMap<String, CacheIndex<CachedPyramid>>();
     maxSize = Runtime.getRuntime().maxMemory() / 6;
-    createPurgeActions();
+    evictionPolicy = createEvictionPolicy();
+    emptySpans = new EmptySpanCache(EMPTY_TTL);
+    realtime = new ConcurrentHashMap<String, RealtimeBuffer>();
   }
 
   @Override
@@ -72,6 +166,8 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * Flush.
    */
   public void flush() {
+    emptySpans.clear();
+    realtime.clear();
     flushWaves();
     flushHelicorders();
     System.gc();
@@ -86,23 +182,144 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * Get total size of cache.
    * @return
    */
-  public synchronized long getSize() {
-    long size = getSize(waveCache);
-    size += getSize(helicorderCache);
-    size += getSize(rsamCache);
-    return size;
+  public long getSize() {
+    return waveBytes.get() + helicorderBytes.get() + rsamBytes.get() + pyramidBytes.get();
   }
 
-  private synchronized <T extends CacheEntry> long getSize(final Map<String, List<T>> cache) {
-    long size = 0;
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
+  /**
+   * Get bytes served from the cache by planned requests.
+   *
+   * @return bytes
+   */
+  public long getHitBytes() {
+    return hitBytes.get();
+  }
+
+  /**
+   * Get bytes planned requests had to fetch.
+   *
+   * @return bytes
+   */
+  public long getMissBytes() {
+    return missBytes.get();
+  }
+
+  /**
+   * Check whether a span is known to have no data, so a source need not ask for it.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return true if a recent request for the span came back empty
+   */
+  public boolean isKnownEmpty(final String station, final double t1, final double t2) {
+    return emptySpans.contains(station, t1, t2);
+  }
+
+  /**
+   * Remember that a source had no data for a span. Forgotten after a minute or as soon as data for
+   * the span is put in the cache. Only the part of the span older than the last few minutes is
+   * remembered. Call this for a real no-data answer only, not for a failed request.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  public void putEmpty(final String station, final double t1, final double t2) {
+    emptySpans.put(station, t1, Math.min(t2, J2kSec.now() - EMPTY_LATENCY));
+  }
 
-      for (final T ce : cwl) {
-        size += ce.getMemorySize();
+  /**
+   * Put realtime data. The wave is appended to the channel's realtime buffer and only reaches
+   * the wave cache once its chunk is complete. Data too old for the buffer is put in the cache
+   * directly.
+   *
+   * @param station channel
+   * @param wave wave
+   */
+  public void putRealtimeWave(final String station, final Wave wave) {
+    final List<Wave> completed = new ArrayList<Wave>();
+    RealtimeBuffer buffer = realtime.get(station);
+    while (buffer == null || !buffer.accepts(wave)) {
+      final RealtimeBuffer newBuffer = new RealtimeBuffer(wave.getSamplingRate());
+      if (buffer == null) {
+        buffer = realtime.putIfAbsent(station, newBuffer);
+        if (buffer == null) {
+          buffer = newBuffer;
+        }
+      } else if (realtime.replace(station, buffer, newBuffer)) {
+        // the sampling rate changed, keep what the old buffer held
+        buffer.drain(completed);
+        buffer = newBuffer;
+      } else {
+        buffer = realtime.get(station);
       }
     }
-    return size;
+
+    emptySpans.invalidate(station, wave.getStartTime(), wave.getEndTime());
+    if (!buffer.append(wave, completed)) {
+      putWave(station, wave);
+    }
+    for (final Wave chunk : completed) {
+      putWave(station, chunk);
+    }
+    sweepRealtime();
+  }
+
+  /**
+   * Get the part of a span held in a channel's realtime buffer.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return wave or null if the buffer holds none of the span
+   */
+  public Wave getRealtimeWave(final String station, final double t1, final double t2) {
+    final RealtimeBuffer buffer = realtime.get(station);
+    return buffer == null ? null : buffer.getWave(t1, t2);
+  }
+
+  /**
+   * Now and then, spill and drop the buffers of channels no longer streamed.
+   */
+  private void sweepRealtime() {
+    final long now = System.currentTimeMillis();
+    final long last = lastRealtimeSweep.get();
+    if (now - last < REALTIME_IDLE / 10 || !lastRealtimeSweep.compareAndSet(last, now)) {
+      return;
+    }
+    for (final Map.Entry<String, RealtimeBuffer> entry : realtime.entrySet()) {
+      final RealtimeBuffer buffer = entry.getValue();
+      if (now - buffer.getLastAppend() > REALTIME_IDLE
+          && realtime.remove(entry.getKey(), buffer)) {
+        final List<Wave> completed = new ArrayList<Wave>();
+        buffer.drain(completed);
+        for (final Wave chunk : completed) {
+          putWave(entry.getKey(), chunk);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the index for a channel, creating it if needed.
+   *
+   * @param cache cache map
+   * @param station channel
+   * @return channel index
+   */
+  private <T extends CacheEntry> CacheIndex<T> getIndex(
+      final ConcurrentMap<String, CacheIndex<T>> cache, final String station,
+      final AtomicLong bytes) {
+    CacheIndex<T> index = cache.get(station);
+    if (index == null) {
+      final CacheIndex<T> newIndex = new CacheIndex<T>(bytes, evictionPolicy);
+      index = cache.putIfAbsent(station, newIndex);
+      if (index == null) {
+        index = newIndex;
+      }
+    }
+    return index;
   }
 
   /**
@@ -124,15 +341,17 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     }
 
     System.out.println("Total size: " + size + " bytes");
+    System.out.println("Hit bytes: " + hitBytes.get() + ", miss bytes: " + missBytes.get());
   }
 
-  private synchronized <T extends CacheEntry> List<CacheEntry> getEntriesByLastAccess(
-      final Map<String, List<T>> cache) {
+  private <T extends CacheEntry> List<CacheEntry> getEntriesByLastAccess(
+      final Map<String, CacheIndex<T>> cache) {
     final List<CacheEntry> cl = new ArrayList<CacheEntry>();
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
-      for (final T ce : cwl){
-        cl.add(ce);
+    for (final CacheIndex<T> cwl : cache.values()) {
+      synchronized (cwl) {
+        for (final T ce : cwl) {
+          cl.add(ce);
+        }
       }
     }
 
@@ -140,62 +359,237 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   }
 
   /**
-   * Create purge actions.
+   * Set the second level cache.
+   *
+   * @param diskCache disk cache or null for none
    */
-  public void createPurgeActions() {
-    purgeActions = new CachePurgeAction[] {
-        // purge anything that hasn't been hit in 5 minutes
-        new TimeLimitWavePurgeAction(waveCache, 5 * 60 * 1000),
-        new TimeLimitHelicorderPurgeAction(helicorderCache, 5 * 60 * 1000),
-        new TimeLimitRsamPurgeAction(rsamCache, 5 * 60 * 1000),
+  public void setDiskCache(final DiskCache diskCache) {
+    this.diskCache = diskCache;
+  }
+
+  /**
+   * Turn compressed storage of idle waves on or off.
+   *
+   * @param compressWaves true to compress
+   */
+  public void setCompressWaves(final boolean compressWaves) {
+    this.compressWaves = compressWaves;
+  }
 
-        // cut waves larger than 3 hours in half keeping latest half
-        new HalveLargeWavesPurgeAction(waveCache, 3 * 60 * 60),
+  /**
+   * Write everything not already on disk to the disk cache. Called when Swarm exits.
+   */
+  public void persist() {
+    if (diskCache == null) {
+      return;
+    }
 
-        // cut waves larger than 1 hour in half
-        new HalveLargeWavesPurgeAction(waveCache, 60 * 60),
+    for (final CacheIndex<CachedWave> waves : waveCache.values()) {
+      for (final CachedWave cw : getUnpersisted(waves)) {
+        diskCache.putWave(cw.station, cw.getWave());
+      }
+    }
+    for (final CacheIndex<CachedHelicorder> helis : helicorderCache.values()) {
+      for (final CachedHelicorder ch : getUnpersisted(helis)) {
+        diskCache.putHelicorder(ch.station, ch.helicorder);
+      }
+    }
+  }
 
-        // getting to the last resort, purge wave cache
-        new CompleteWavePurgeAction(waveCache),
+  private <T extends CacheEntry> List<T> getUnpersisted(final CacheIndex<T> index) {
+    final List<T> entries = new ArrayList<T>();
+    synchronized (index) {
+      for (final T ce : index) {
+        if (!ce.persisted) {
+          ce.persisted = true;
+          entries.add(ce);
+        }
+      }
+    }
+    return entries;
+  }
 
-        // should halve large helis
+  /**
+   * Write an evicted entry to the disk cache, which skips what it already holds, and allow it to
+   * be read back.
+   *
+   * @param ce evicted entry
+   */
+  private void spill(final CacheEntry ce) {
+    if (!ce.persisted) {
+      if (ce instanceof CachedWave) {
+        diskCache.putWave(ce.station, ((CachedWave) ce).getWave());
+      } else if (ce instanceof CachedHelicorder) {
+        diskCache.putHelicorder(ce.station, ((CachedHelicorder) ce).helicorder);
+      }
+    }
+    diskCache.forget(ce.station, ce.t1, ce.t2);
+  }
 
-        // nothing left to do, purge helicorder cache
-        new CompleteHelicorderPurgeAction(helicorderCache)};
+  /**
+   * Fill the memory cache with any waves on disk for the given span. The disk is only consulted
+   * when no cached wave already covers the span.
+   */
+  private void loadWavesFromDisk(final String station, final double t1, final double t2) {
+    if (diskCache != null && !isCovered(waveCache.get(station), t1, t2)) {
+      for (final Wave wave : diskCache.loadWaves(station, t1, t2)) {
+        putWave(station, wave, true);
+      }
+    }
   }
 
-  /** TODO: maybe this should be an observer? */
-  private synchronized void enforceSize() {
-    if (purgeActions == null) {
+  /**
+   * Fill the memory cache with any helicorder data on disk for the given span. The disk is only
+   * consulted when no cached helicorder already covers the span.
+   */
+  private void loadHelicordersFromDisk(final String station, final double t1, final double t2) {
+    if (diskCache != null && !isCovered(helicorderCache.get(station), t1, t2)) {
+      for (final HelicorderData hd : diskCache.loadHelicorders(station, t1, t2)) {
+        putHelicorder(station, hd, true);
+      }
+    }
+  }
+
+  private static boolean isCovered(final CacheIndex<? extends CacheEntry> index, final double t1,
+      final double t2) {
+    if (index == null) {
+      return false;
+    }
+    synchronized (index) {
+      return index.getContaining(t1, t2) != null;
+    }
+  }
+
+  /**
+   * Create the eviction policy. Subclasses may override to supply a different policy.
+   *
+   * @return eviction policy
+   */
+  protected EvictionPolicy createEvictionPolicy() {
+    return new SegmentedLruPolicy();
+  }
+
+  /**
+   * Note a cache hit.
+   *
+   * @param ce entry used to answer a request
+   */
+  private void touch(final CacheEntry ce) {
+    ce.lastAccess = System.currentTimeMillis();
+    if (evictionPolicy != null) {
+      evictionPolicy.onAccess(ce);
+    }
+  }
+
+  /**
+   * Queue an eviction pass if the cache has grown past the high watermark. Cheap enough to call
+   * after every put.
+   */
+  private void enforceSize() {
+    if (evictionPolicy == null || getSize() <= maxSize * HIGH_WATERMARK) {
       return;
     }
 
-    long target = getSize() - maxSize;
-    int i = 0;
-    while (target > 0 && i < purgeActions.length) {
-      final long chunk = purgeActions[i].purge();
-      LOGGER.debug("purged {} bytes from cache", chunk);
-      target -= chunk;
-      i++;
+    if (evictionPending.compareAndSet(false, true)) {
+      maintenanceExecutor.execute(new Runnable() {
+        public void run() {
+          try {
+            evict();
+          } catch (final RuntimeException e) {
+            LOGGER.warn("Cache eviction failed", e);
+          } finally {
+            evictionPending.set(false);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Evict entries chosen by the policy until the cache is under the low watermark.
+   */
+  private void evict() {
+    final long target = (long) (maxSize * LOW_WATERMARK);
+    if (compressWaves) {
+      compressIdleWaves(target);
+    }
+
+    long chunk = 0;
+    while (getSize() > target) {
+      final CacheEntry victim = evictionPolicy.nextVictim();
+      if (victim == null) {
+        break;
+      }
+      final CacheIndex<?> index = victim.index;
+      final boolean removed;
+      synchronized (index) {
+        removed = index.remove(victim);
+      }
+      if (removed) {
+        chunk += victim.accountedSize;
+        if (diskCache != null && !(victim instanceof CachedPyramid)) {
+          spill(victim);
+        }
+      }
+    }
+    LOGGER.debug("purged {} bytes from cache", chunk);
+  }
+
+  /**
+   * Compress idle waves, least recently used first, until the cache is under the target size.
+   *
+   * @param target size to stop at
+   */
+  private void compressIdleWaves(final long target) {
+    final long idle = System.currentTimeMillis() - COMPRESS_AGE;
+    final List<CacheEntry> candidates = new ArrayList<CacheEntry>();
+    for (final CacheEntry ce : getEntriesByLastAccess(waveCache)) {
+      if (ce.lastAccess < idle && !((CachedWave) ce).isCompressed()) {
+        candidates.add(ce);
+      }
+    }
+    Collections.sort(candidates);
+
+    long saved = 0;
+    for (final CacheEntry ce : candidates) {
+      if (getSize() <= target) {
+        break;
+      }
+      final CachedWave cw = (CachedWave) ce;
+      final CacheIndex<CachedWave> index = waveCache.get(cw.station);
+      synchronized (index) {
+        if (index.remove(cw)) {
+          final long before = cw.accountedSize;
+          cw.compress();
+          index.add(cw);
+          saved += before - cw.accountedSize;
+        }
+      }
     }
+    LOGGER.debug("compressing idle waves saved {} bytes", saved);
   }
 
-  private synchronized void putWaveInCache(final String channel, final Wave wave,
-      final List<CachedWave> waves) {
+  /**
+   * Add a wave to a channel index, splitting it if it is too large. Caller must hold the lock on
+   * waves.
+   */
+  private void putWaveInCache(final String channel, final Wave wave,
+      final CacheIndex<CachedWave> waves, final int frequency, final boolean persisted) {
     if (wave.getMemorySize() > MAX_WAVE_SIZE) {
       final Wave[] splitWaves = wave.split();
-      putWaveInCache(channel, splitWaves[0], waves);
-      putWaveInCache(channel, splitWaves[1], waves);
+      putWaveInCache(channel, splitWaves[0], waves, frequency, persisted);
+      putWaveInCache(channel, splitWaves[1], waves, frequency, persisted);
       return;
     }
     final CachedWave cw = new CachedWave();
     cw.station = channel;
     cw.t1 = wave.getStartTime();
     cw.t2 = wave.getEndTime();
-    cw.wave = wave;
+    cw.setWave(wave);
     cw.lastAccess = System.currentTimeMillis();
+    cw.frequency = frequency;
+    cw.persisted = persisted;
     waves.add(cw);
-    enforceSize();
   }
 
   /**
@@ -207,44 +601,30 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     if (rsamData == null || rsamData.getData() == null) {
       return;
     }
+    emptySpans.invalidate(station, rsamData.getStartTime(), rsamData.getEndTime());
     
-    List<CachedRsam> rsams = rsamCache.get(station);
-    if (rsams == null) {
-      rsams = new ArrayList<CachedRsam>();
+    final CacheIndex<CachedRsam> rsams = getIndex(rsamCache, station, rsamBytes);
+    synchronized (rsams) {
+      int frequency = 0;
+      for (final CachedRsam cr : rsams.getOverlapping(rsamData.getStartTime(),
+          rsamData.getEndTime())) {
+        if (cr.rsamData.overlaps(rsamData) && rsamData != cr.rsamData) {
+          rsams.remove(cr);
+          rsamData = cr.rsamData.combine(rsamData);
+          frequency = Math.max(frequency, cr.frequency);
+        }
+      }
+
       final CachedRsam cr = new CachedRsam();
       cr.station = station;
       cr.t1 = rsamData.getStartTime();
       cr.t2 = rsamData.getEndTime();
       cr.rsamData = rsamData;
       cr.lastAccess = System.currentTimeMillis();
+      cr.frequency = frequency;
       rsams.add(cr);
-      rsamCache.put(station, rsams);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < rsams.size(); i++) {
-        final CachedRsam ch = rsams.get(i);
-        if (ch.rsamData.overlaps(rsamData) && rsamData != ch.rsamData) {
-          rsams.remove(ch);
-          final RSAMData newRsam = ch.rsamData.combine(rsamData);
-          putRsam(station, newRsam);
-          rsamData = newRsam;
-          i = 0;
-          add = false;
-        }
-      }
-
-      if (add) {
-        final CachedRsam ch = new CachedRsam();
-        ch.station = station;
-        ch.t1 = rsamData.getStartTime();
-        ch.t2 = rsamData.getEndTime();
-        ch.rsamData = rsamData;
-        ch.lastAccess = System.currentTimeMillis();
-        rsams.add(ch);
-        enforceSize();
-      }
     }
+    enforceSize();
   }
 
   /**
@@ -252,49 +632,54 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param station channel
    * @param helicorder helicorder data
    */
-  public synchronized void putHelicorder(final String station, HelicorderData helicorder) {
-    List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
-      helis = new ArrayList<CachedHelicorder>();
+  public void putHelicorder(final String station, final HelicorderData helicorder) {
+    putHelicorder(station, helicorder, false);
+  }
+
+  private void putHelicorder(final String station, HelicorderData helicorder,
+      boolean persisted) {
+    emptySpans.invalidate(station, helicorder.getStartTime(), helicorder.getEndTime());
+    final CacheIndex<CachedPyramid> pyramids = getIndex(pyramidCache, station, pyramidBytes);
+    synchronized (pyramids) {
+      CachedPyramid cp = pyramids.isEmpty() ? null : pyramids.values().iterator().next();
+      if (cp == null) {
+        cp = new CachedPyramid();
+        cp.station = station;
+        cp.lastAccess = System.currentTimeMillis();
+        pyramids.add(cp);
+      }
+      cp.pyramid.add(helicorder);
+      if (cp.getMemorySize() != cp.accountedSize) {
+        // charge the growth to the cache
+        pyramids.remove(cp);
+        pyramids.add(cp);
+      }
+    }
+
+    final CacheIndex<CachedHelicorder> helis = getIndex(helicorderCache, station, helicorderBytes);
+    synchronized (helis) {
+      int frequency = 0;
+      for (final CachedHelicorder ch : helis.getOverlapping(helicorder.getStartTime(),
+          helicorder.getEndTime())) {
+        if (ch.helicorder.overlaps(helicorder)) {
+          helis.remove(ch);
+          helicorder = ch.helicorder.combine(helicorder);
+          frequency = Math.max(frequency, ch.frequency);
+          persisted &= ch.persisted;
+        }
+      }
+
       final CachedHelicorder ch = new CachedHelicorder();
       ch.station = station;
       ch.t1 = helicorder.getStartTime();
       ch.t2 = helicorder.getEndTime();
       ch.helicorder = helicorder;
       ch.lastAccess = System.currentTimeMillis();
+      ch.frequency = frequency;
+      ch.persisted = persisted;
       helis.add(ch);
-      helicorderCache.put(station, helis);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < helis.size(); i++) {
-        final CachedHelicorder ch = helis.get(i);
-
-        if (ch.helicorder.overlaps(helicorder)) {
-          final HelicorderData newHeli = ch.helicorder.combine(helicorder);
-          ch.t1 = newHeli.getStartTime();
-          ch.t2 = newHeli.getEndTime();
-          ch.helicorder = newHeli;
-          ch.lastAccess = System.currentTimeMillis();
-
-          helicorder = newHeli;
-          i = 0;
-          add = false;
-          break;
-        }
-      }
-
-      if (add) {
-        final CachedHelicorder ch = new CachedHelicorder();
-        ch.station = station;
-        ch.t1 = helicorder.getStartTime();
-        ch.t2 = helicorder.getEndTime();
-        ch.helicorder = helicorder;
-        ch.lastAccess = System.currentTimeMillis();
-        helis.add(ch);
-        enforceSize();
-      }
     }
+    enforceSize();
   }
 
   /**
@@ -302,7 +687,7 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param station channel
    * @param wave wave data
    */
-  public synchronized void cacheWaveAsHelicorder(final String station, final Wave wave) {
+  public void cacheWaveAsHelicorder(final String station, final Wave wave) {
     if (inHelicorderCache(station, wave.getStartTime(), wave.getEndTime())) {
       return;
     }
@@ -346,7 +731,7 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   }
 
   public boolean isEmpty() {
-    return helicorderCache.size() + waveCache.size() == 0;
+    return helicorderBytes.get() + waveBytes.get() == 0;
   }
 
   /**
@@ -356,19 +741,34 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param t2 end time
    * @return
    */
-  public synchronized boolean inHelicorderCache(final String station, final double t1,
-      final double t2) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+  public boolean inHelicorderCache(final String station, final double t1, final double t2) {
+    loadHelicordersFromDisk(station, t1, t2);
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null) {
       return false;
     }
-    for (final CachedHelicorder ch : helis) {
-      if (t1 >= ch.t1 && t2 <= ch.t2) {
-        return true;
-      }
+    synchronized (helis) {
+      return helis.getContaining(t1, t2) != null;
     }
+  }
 
-    return false;
+  /**
+   * Check whether a wave span can be served from the cache without asking a source.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return true if one cached wave covers the span
+   */
+  public boolean inWaveCache(final String station, final double t1, final double t2) {
+    loadWavesFromDisk(station, t1, t2);
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
+    if (waves == null) {
+      return false;
+    }
+    synchronized (waves) {
+      return waves.getContaining(t1, t2) != null;
+    }
   }
 
   /**
@@ -377,54 +777,208 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    */
   public RSAMData getRsam(final String channel, final double t1, final double t2,
       final int period) {
-    final List<CachedRsam> rsam = rsamCache.get(channel);
+    final CacheIndex<CachedRsam> rsam = rsamCache.get(channel);
     if (rsam == null) {
       return null;
-    } else {
+    }
 
-      for (final CachedRsam cr : rsam) {
-        if (cr.rsamData.getPeriod() != period) {
-          continue;
-        }
-        if (t1 >= cr.t1 && t2 <= cr.t2) {
-          return cr.slice(t1, t2);
-        }
+    synchronized (rsam) {
+      final CachedRsam cr = rsam.getContaining(t1, t2);
+      if (cr == null || cr.rsamData.getPeriod() != period) {
+        return null;
       }
+      touch(cr);
+      return cr.slice(t1, t2);
     }
-    return null;
   }
 
   @Override
-  public synchronized Wave getWave(final String station, final double t1, final double t2) {
+  public Wave getWave(final String station, final double t1, final double t2) {
+    final Wave recent = getRealtimeWave(station, t1, t2);
+    if (recent != null && recent.getStartTime() - t1 < recent.getSamplingPeriod()
+        && t2 - recent.getEndTime() < recent.getSamplingPeriod()) {
+      return recent;
+    }
 
-    final List<CachedWave> waves = waveCache.get(station);
+    loadWavesFromDisk(station, t1, t2);
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
     if (waves == null) {
       return null;
-    } else {
-      for (final CachedWave cw : waves) {
-        if (t1 >= cw.t1 && t2 <= cw.t2) {
-          // TODO: fix this. It's a sloppy.
-          try {
-            final int[] newbuf = new int[(int) ((t2 - t1) * cw.wave.getSamplingRate())];
-            final int i = (int) ((t1 - cw.wave.getStartTime()) * cw.wave.getSamplingRate());
-            System.arraycopy(cw.wave.buffer, i, newbuf, 0, newbuf.length);
-            final Wave sw = new Wave(newbuf, t1, cw.wave.getSamplingRate());
-            cw.lastAccess = System.currentTimeMillis();
-            return sw;
-          } catch (final ArrayIndexOutOfBoundsException e) {
-            return null;
+    }
+
+    final CachedWave cw;
+    synchronized (waves) {
+      cw = waves.getContaining(t1, t2);
+      if (cw == null) {
+        return null;
+      }
+      touch(cw);
+    }
+
+    // TODO: fix this. It's a sloppy.
+    try {
+      final int[] newbuf = new int[(int) ((t2 - t1) * cw.getSamplingRate())];
+      final int i = (int) ((t1 - cw.t1) * cw.getSamplingRate());
+      cw.copySamples(i, newbuf, newbuf.length);
+      return new Wave(newbuf, t1, cw.getSamplingRate());
+    } catch (final ArrayIndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Get a wave, serving what the cache holds and fetching only the gaps.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param fetcher fetcher for the gaps
+   * @return wave or null if none
+   */
+  public Wave getWave(final String station, final double t1, final double t2,
+      final CoalescingWaveFetcher fetcher) {
+    loadWavesFromDisk(station, t1, t2);
+    final Wave recent = getRealtimeWave(station, t1, t2);
+    final List<CachedWave> hits = new ArrayList<CachedWave>();
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
+    if (waves != null) {
+      synchronized (waves) {
+        for (final CachedWave cw : waves.getOverlapping(t1, t2)) {
+          if (cw.t1 < t2 && cw.t2 > t1 && !isHeld(cw, recent)) {
+            hits.add(cw);
+            touch(cw);
           }
         }
       }
     }
-    return null;
+
+    double slop = 0;
+    if (!hits.isEmpty()) {
+      slop = 1 / hits.get(0).getSamplingRate();
+    } else if (recent != null) {
+      slop = recent.getSamplingPeriod();
+    }
+    List<double[]> gaps = findGaps(hits, t1, t2, slop);
+    if (recent != null) {
+      gaps = subtract(gaps, recent.getStartTime(), recent.getEndTime(), slop);
+    }
+    gaps = emptySpans.subtract(station, gaps, slop);
+
+    // nothing cached or known empty, return exactly what the source gives us
+    if (hits.isEmpty() && recent == null && gaps.size() == 1 && gaps.get(0)[0] == t1
+        && gaps.get(0)[1] == t2) {
+      final Wave wave = fetcher.getWave(station, t1, t2);
+      if (wave != null) {
+        missBytes.addAndGet(wave.getMemorySize());
+      }
+      return wave;
+    }
+
+    final List<Wave> fetched = gaps.isEmpty() ? Collections.<Wave>emptyList()
+        : fetcher.getWaves(station, gaps);
+    final List<Wave> parts = new ArrayList<Wave>();
+    for (final CachedWave cw : hits) {
+      final Wave part = cw.getWave(t1, t2);
+      hitBytes.addAndGet(part.getMemorySize());
+      parts.add(part);
+    }
+    if (recent != null) {
+      hitBytes.addAndGet(recent.getMemorySize());
+      parts.add(recent);
+    }
+    for (int i = 0; i < fetched.size(); i++) {
+      final Wave part = fetched.get(i);
+      if (part != null) {
+        missBytes.addAndGet(part.getMemorySize());
+        parts.add(part);
+      }
+    }
+    return parts.isEmpty() ? null : join(parts, t1, t2);
+  }
+
+  /**
+   * Join waves and trim to a span.
+   */
+  private static Wave join(final List<Wave> parts, final double t1, final double t2) {
+    double minT = 1E300;
+    double maxT = -1E300;
+    for (final Wave part : parts) {
+      minT = Math.min(minT, part.getStartTime());
+      maxT = Math.max(maxT, part.getEndTime());
+    }
+    final Wave wave = parts.size() == 1 ? parts.get(0) : Wave.join(parts, minT, maxT);
+    if (wave == null) {
+      return null;
+    }
+    return wave.subset(Math.max(t1, minT), Math.min(t2, maxT));
+  }
+
+  /**
+   * Check whether a cached wave lies inside the part of a span held in a realtime buffer.
+   */
+  private static boolean isHeld(final CachedWave cw, final Wave recent) {
+    return recent != null && cw.t1 >= recent.getStartTime() && cw.t2 <= recent.getEndTime();
+  }
+
+  /**
+   * Remove a span from a list of spans.
+   *
+   * @param spans start and end time pairs, in time order
+   * @param t1 start of the span to remove
+   * @param t2 end of the span to remove
+   * @param slop remaining pieces this short or shorter are dropped
+   * @return start and end time pairs, in time order
+   */
+  private static List<double[]> subtract(final List<double[]> spans, final double t1,
+      final double t2, final double slop) {
+    final List<double[]> remaining = new ArrayList<double[]>();
+    for (final double[] span : spans) {
+      if (t1 - span[0] > slop) {
+        remaining.add(new double[] {span[0], Math.min(span[1], t1)});
+      }
+      if (span[1] - t2 > slop) {
+        remaining.add(new double[] {Math.max(span[0], t2), span[1]});
+      }
+    }
+    return remaining;
+  }
+
+  /**
+   * Find the parts of a span not covered by any of the given entries.
+   *
+   * @param entries entries in time order
+   * @param t1 start time
+   * @param t2 end time
+   * @param slop gaps this short or shorter are ignored
+   * @return start and end time pairs of the gaps, in time order
+   */
+  private static List<double[]> findGaps(final List<? extends CacheEntry> entries,
+      final double t1, final double t2, final double slop) {
+    final List<double[]> gaps = new ArrayList<double[]>();
+    double covered = t1;
+    for (final CacheEntry ce : entries) {
+      if (ce.t1 - covered > slop) {
+        gaps.add(new double[] {covered, ce.t1});
+      }
+      covered = Math.max(covered, ce.t2);
+    }
+    if (t2 - covered > slop) {
+      gaps.add(new double[] {covered, t2});
+    }
+    return gaps;
   }
 
   @Override
   public List<String> getChannels() {
     final List<String> st = new ArrayList<String>();
-    for (final String key : helicorderCache.keySet()) {
-      st.add(key.replace('$', ' '));
+    for (final Map.Entry<String, CacheIndex<CachedHelicorder>> entry
+        : helicorderCache.entrySet()) {
+      final CacheIndex<CachedHelicorder> helis = entry.getValue();
+      synchronized (helis) {
+        if (!helis.isEmpty()) {
+          st.add(entry.getKey().replace('$', ' '));
+        }
+      }
     }
 
     Collections.sort(st);
@@ -443,23 +997,48 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param t2 end time
    * @return
    */
-  public synchronized Wave getBestWave(final String station, final double t1, final double t2) {
+  public Wave getBestWave(final String station, final double t1, final double t2) {
+    // the realtime buffer holds everything after its start
+    final Wave recent = getRealtimeWave(station, t1, t2);
+    if (recent != null && recent.getStartTime() - t1 < recent.getSamplingPeriod()) {
+      return recent;
+    }
+
+    loadWavesFromDisk(station, t1, t2);
     Wave wave;
-    final List<CachedWave> waves = waveCache.get(station);
+    final CacheIndex<CachedWave> waves = waveCache.get(station);
     if (waves == null) {
-      return null;
+      return recent;
     } else {
+      final List<CachedWave> hits = new ArrayList<CachedWave>();
+      synchronized (waves) {
+        for (final CachedWave cw : waves.getOverlapping(t1, t2)) {
+          if (cw.t1 <= t2 && cw.t2 >= t1 && !isHeld(cw, recent)) {
+            hits.add(cw);
+            touch(cw);
+          }
+        }
+      }
+
+      // compressed waves only decode the part which is needed
       final List<Wave> parts = new ArrayList<Wave>();
       double minT = 1E300;
       double maxT = -1E300;
-      for (final CachedWave cw : waves) {
-        if (cw.wave.overlaps(t1, t2)) {
-          parts.add(cw.wave);
-          minT = Math.min(minT, cw.t1);
-          maxT = Math.max(maxT, cw.t2);
-        }
+      for (final CachedWave cw : hits) {
+        final Wave part = cw.getWave(t1, t2);
+        parts.add(part);
+        minT = Math.min(minT, part.getStartTime());
+        maxT = Math.max(maxT, part.getEndTime());
+      }
+      if (recent != null) {
+        parts.add(recent);
+        minT = Math.min(minT, recent.getStartTime());
+        maxT = Math.max(maxT, recent.getEndTime());
       }
 
+      if (parts.isEmpty()) {
+        return null;
+      }
       if (parts.size() == 1) {
         return parts.get(0);
       }
@@ -477,36 +1056,50 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param station channel
    * @param wave wave
    */
-  public synchronized void putWave(final String station, final Wave wave) {
-    List<CachedWave> waves = waveCache.get(station);
-    if (waves == null) {
-      waves = new ArrayList<CachedWave>();
-      waveCache.put(station, waves);
-      putWaveInCache(station, wave, waves);
-    } else {
-      for (final CachedWave cw : waves) {
-        boolean join = false;
-        if (cw.wave.adjacent(wave)) {
-          if (cw.wave.getMemorySize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
+  public void putWave(final String station, final Wave wave) {
+    putWave(station, wave, false);
+  }
+
+  private void putWave(final String station, Wave wave, boolean persisted) {
+    emptySpans.invalidate(station, wave.getStartTime(), wave.getEndTime());
+    final CacheIndex<CachedWave> waves = getIndex(waveCache, station, waveBytes);
+    synchronized (waves) {
+      int frequency = 0;
+      // keep joining until the new wave has no overlapping or adjacent neighbors left
+      boolean joined = true;
+      while (joined) {
+        joined = false;
+        final double slop = Math.max(1, 2 * wave.getSamplingPeriod());
+        for (final CachedWave cw : waves.getNear(wave.getStartTime(), wave.getEndTime(), slop)) {
+          final Wave cached = cw.getWave();
+          boolean join = false;
+          if (cached.adjacent(wave)) {
+            if (cached.getMemorySize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
+              join = true;
+            }
+          }
+          if (cached.overlaps(wave)) {
             join = true;
           }
-        }
-        if (cw.wave.overlaps(wave)) {
-          join = true;
-        }
 
-        if (join) {
-          final Wave newWave = cw.wave.combine(wave);
-          if (newWave != null) {
+          if (join) {
+            final Wave newWave = cached.combine(wave);
+            if (newWave == null) {
+              return;
+            }
             waves.remove(cw);
-            putWave(station, newWave);
+            wave = newWave;
+            frequency = Math.max(frequency, cw.frequency);
+            persisted &= cw.persisted;
+            joined = true;
+            break;
           }
-          return;
         }
       }
 
-      putWaveInCache(station, wave, waves);
+      putWaveInCache(station, wave, waves, frequency, persisted);
     }
+    enforceSize();
   }
 
   // this version, the one that implements SeismicDataSource, will only
@@ -515,20 +1108,22 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   // side use
   // the version below
   @Override
-  public synchronized HelicorderData getHelicorder(String station, final double startTime,
+  public HelicorderData getHelicorder(String station, final double startTime,
       final double endTime, final GulperListener gl) {
     station = station.replace(' ', '$');
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+    loadHelicordersFromDisk(station, startTime, endTime);
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null) {
       return null;
-    } else {
+    }
+    synchronized (helis) {
       HelicorderData hd = new HelicorderData();
       HelicorderData hd2 = null;
-      for (final CachedHelicorder ch : helis) {
+      for (final CachedHelicorder ch : helis.getOverlapping(startTime, endTime)) {
         // found the whole thing, just return the needed subset
         if (startTime >= ch.t1 && endTime <= ch.t2) {
           hd2 = ch.helicorder.subset(startTime, endTime);
-          ch.lastAccess = System.currentTimeMillis();
+          touch(ch);
           return hd2;
         }
 
@@ -546,7 +1141,7 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
         // if cached data found
         if (hd2 != null) {
           hd.concatenate(hd2);
-          ch.lastAccess = System.currentTimeMillis();
+          touch(ch);
           hd2 = null;
         }
       }
@@ -560,257 +1155,271 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   }
 
   /**
-   * Get helicorder data.
+   * Get helicorder data summarized to a coarser resolution from the channel's pyramid. Only spans
+   * the pyramid has seen data for are served, apart from the last couple of minutes before now,
+   * which realtime data may not have reached yet.
+   *
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param resolution seconds per row the caller can use
+   * @return helicorder data or null if the resolution is too fine or the span is not covered
+   */
+  public HelicorderData getHelicorder(final String station, final double t1, final double t2,
+      final double resolution) {
+    final int level = HelicorderPyramid.getLevel(resolution);
+    if (level < 0) {
+      return null;
+    }
+
+    loadHelicordersFromDisk(station, t1, t2);
+    final CacheIndex<CachedPyramid> pyramids = pyramidCache.get(station);
+    if (pyramids == null) {
+      return null;
+    }
+    final CachedPyramid cp;
+    synchronized (pyramids) {
+      cp = pyramids.isEmpty() ? null : pyramids.values().iterator().next();
+      if (cp == null
+          || !cp.pyramid.covers(t1, Math.min(t2, J2kSec.now() - PYRAMID_LAG))) {
+        return null;
+      }
+      touch(cp);
+    }
+    return cp.pyramid.getHelicorder(level, t1, t2);
+  }
+
+  /**
+   * Get helicorder data, serving what the cache holds and fetching only the gaps from the given
+   * source. The source is queried without holding any cache lock, one gap at a time, since sources
+   * call this from their own synchronized getHelicorder. Gaps known to be empty are skipped.
    * @param station channel
    * @param t1 start time 
    * @param t2 end time
    * @param source data source
-   * @return
+   * @return helicorder data or null if nothing overlapping is cached
    */
-  public synchronized HelicorderData getHelicorder(final String station, final double t1,
+  public HelicorderData getHelicorder(final String station, final double t1,
       final double t2, final SeismicDataSource source) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+    loadHelicordersFromDisk(station, t1, t2);
+    final CacheIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null) {
       return null;
-    } else {
-      HelicorderData hd;
-      for (final CachedHelicorder ch : helis) {
+    }
+
+    final List<CachedHelicorder> hits = new ArrayList<CachedHelicorder>();
+    synchronized (helis) {
+      for (final CachedHelicorder ch : helis.getOverlapping(t1, t2)) {
         // asked for area completely within one cache entry
         if (t1 >= ch.t1 && t2 <= ch.t2) {
-          // System.out.println("totally cached");
-          hd = ch.helicorder.subset(t1, t2);
-          ch.lastAccess = System.currentTimeMillis();
+          touch(ch);
+          final HelicorderData hd = ch.helicorder.subset(t1, t2);
+          hitBytes.addAndGet(hd.getMemorySize());
           return hd;
         }
-
-        // one entry completely within asked for area
-        if (t1 < ch.t1 && t2 > ch.t2) {
-          // System.out.println("cache is centered chunk");
-          HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-          } else {
-            hd = ch.helicorder;
-          }
-          nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = hd.combine(nhd);
-          }
-          ch.lastAccess = System.currentTimeMillis();
-          return hd;
+        if (ch.t1 < t2 && ch.t2 > t1) {
+          hits.add(ch);
+          touch(ch);
         }
+      }
+    }
 
-        // asked for area is to left but overlaps
-        if (t1 < ch.t1 && t2 > ch.t1 && t2 <= ch.t2) {
-          // System.out.println("cache overlaps on right side");
-          final HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
+    // leave a complete miss to the source so it is fetched in one piece
+    if (hits.isEmpty()) {
+      return null;
+    }
 
-        }
+    HelicorderData hd = null;
+    for (final CachedHelicorder ch : hits) {
+      final HelicorderData part = ch.helicorder.subset(Math.max(t1, ch.t1), Math.min(t2, ch.t2));
+      if (part != null && part.getData() != null) {
+        hitBytes.addAndGet(part.getMemorySize());
+        hd = hd == null ? part : hd.combine(part);
+      }
+    }
+    for (final double[] gap : emptySpans.subtract(station, findGaps(hits, t1, t2, 1), 1)) {
+      final HelicorderData part = source.getHelicorder(station, gap[0], gap[1], null);
+      if (part != null && part.getData() != null) {
+        missBytes.addAndGet(part.getMemorySize());
+        hd = hd == null ? part : hd.combine(part);
+      }
+    }
+    return hd;
+  }
 
-        // asked for area is to right but overlaps
-        if (t1 > ch.t1 && t1 < ch.t2 && t2 > ch.t2) {
-          // System.out.println("cache overlaps on left side");
-          final HelicorderData nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
-        }
+  /**
+   * Remove every entry from a cache one channel at a time.
+   *
+   * @param cache cache map
+   * @return bytes removed
+   */
+  private <T extends CacheEntry> long clearCache(final Map<String, CacheIndex<T>> cache) {
+    long size = 0;
+    for (final CacheIndex<T> cwl : cache.values()) {
+      synchronized (cwl) {
+        size += cwl.clear();
       }
     }
-    return null;
+    return size;
   }
 
   private void flushHelicorders() {
-    helicorderCache.clear();// = new HashMap();
+    clearCache(helicorderCache);
+    clearCache(pyramidCache);
     System.out.println("Helicorder Cache Flushed");
   }
 
   private void flushWaves() {
-    waveCache.clear();// = new HashMap();
+    clearCache(waveCache);
     System.out.println("Wave Cache Flushed");
   }
 
   private <T extends CacheEntry> long outputCache(final String type,
-      final Map<String, List<T>> cache) {
+      final Map<String, CacheIndex<T>> cache) {
     long size = 0;
     System.out.println(type + " cache");
-    for (final String key : cache.keySet()) {
-      System.out.println("\t" + key);
-      final List<T> cwl = cache.get(key);
-
-      for (final T ce : cwl) {
-        size += ce.getMemorySize();
-        System.out.println("\t\t" + ce.getInfoString());
+    for (final Map.Entry<String, CacheIndex<T>> entry : cache.entrySet()) {
+      System.out.println("\t" + entry.getKey());
+      final CacheIndex<T> cwl = entry.getValue();
+
+      synchronized (cwl) {
+        for (final T ce : cwl) {
+          size += ce.getMemorySize();
+          System.out.println("\t\t" + ce.getInfoString());
+        }
       }
     }
     System.out.println(type + " size: " + size + " bytes");
     return size;
   }
 
-  private synchronized <T extends CacheEntry> void removeEntryFromCache(final CacheEntry ce,
-      final Map<String, List<T>> cache) {
-    final List<T> cl = cache.get(ce.station);
-    cl.remove(ce);
-    System.out.println("Removed: " + ce.getInfoString());
-  }
+  protected abstract class CacheEntry implements Comparable<CacheEntry> {
+    public String station;
+    public double t1;
+    public double t2;
+    public long lastAccess;
 
-  private class HalveLargeWavesPurgeAction extends CachePurgeAction {
-    private final int maxTime;
-    private final Map<String, List<CachedWave>> cache;
+    /** bytes charged to the cache when this entry was indexed. */
+    long accountedSize;
 
-    public HalveLargeWavesPurgeAction(final Map<String, List<CachedWave>> c, final int m) {
-      cache = c;
-      maxTime = m;
-    }
+    /** recent hit count, maintained by the eviction policy. */
+    int frequency;
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
-
-      long chunk = 0;
-
-      for (final CacheEntry ce : items) {
-        final CachedWave cw = (CachedWave) ce;
-        if (cw.wave.getEndTime() - cw.wave.getStartTime() > maxTime) {
-          final long before = cw.getMemorySize();
-          final double nst =
-              cw.wave.getEndTime() - (cw.wave.getEndTime() - cw.wave.getStartTime()) / 2;
-          cw.wave = cw.wave.subset(nst, cw.wave.getEndTime());
-          cw.t1 = cw.wave.getStartTime();
-          cw.t2 = cw.wave.getEndTime();
-          chunk += cw.getMemorySize() - before;
-        }
-      }
-      return chunk;
-    }
-  }
+    /** index holding this entry. */
+    CacheIndex<?> index;
 
-  private class TimeLimitWavePurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedWave>> cache;
+    /** true if this entry's data is already in the disk cache. */
+    boolean persisted;
 
-    public TimeLimitWavePurgeAction(final Map<String, List<CachedWave>> c, final long i) {
-      cache = c;
-      interval = i;
+    public int compareTo(final CacheEntry oce) {
+      return (int) (lastAccess - oce.lastAccess);
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
-
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    public abstract String getInfoString();
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
-      }
-      return chunk;
-    }
+    public abstract int getMemorySize();
   }
 
-  private class TimeLimitHelicorderPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedHelicorder>> cache;
+  /**
+   * A cached wave, held either as a plain Wave or compressed. Once compressed an entry stays
+   * compressed; both forms are immutable so they may be read without holding the index lock.
+   */
+  public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
+    // compressed is set before wave is cleared, so a reader that finds wave null sees compressed
+    private volatile Wave wave;
+    private volatile CompressedWave compressed;
 
-    public TimeLimitHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c,
-        final long i) {
-      cache = c;
-      interval = i;
+    /**
+     * Set the wave held by a new entry.
+     *
+     * @param wave wave
+     */
+    public void setWave(final Wave wave) {
+      this.wave = wave;
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
-
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
-
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
-      }
-      return chunk;
+    /**
+     * Get the whole wave, decoding it if needed.
+     *
+     * @return wave
+     */
+    public Wave getWave() {
+      final Wave w = wave;
+      return w != null ? w : compressed.decode();
     }
-  }
 
-  private class TimeLimitRsamPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedRsam>> cache;
+    /**
+     * Get a wave covering at least the part of this entry between two times. An uncompressed entry
+     * returns its whole wave; a compressed one decodes only the samples needed.
+     *
+     * @param t1 start time
+     * @param t2 end time
+     * @return wave
+     */
+    public Wave getWave(final double t1, final double t2) {
+      final Wave w = wave;
+      if (w != null) {
+        return w;
+      }
 
-    public TimeLimitRsamPurgeAction(final Map<String, List<CachedRsam>> c, final long i) {
-      cache = c;
-      interval = i;
+      final CompressedWave c = compressed;
+      final double sr = c.getSamplingRate();
+      final int first = Math.max(0, (int) Math.floor((t1 - c.getStartTime()) * sr));
+      final int last = Math.min(c.numSamples(), (int) Math.ceil((t2 - c.getStartTime()) * sr));
+      final int[] buffer = new int[Math.max(0, last - first)];
+      c.decode(first, buffer, 0, buffer.length);
+      return new Wave(buffer, c.getStartTime() + first / sr, sr);
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
-
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
-
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
+    /**
+     * Copy samples into a buffer.
+     *
+     * @param first index of first sample
+     * @param buffer destination
+     * @param count number of samples
+     * @throws ArrayIndexOutOfBoundsException if the samples are outside the wave
+     */
+    public void copySamples(final int first, final int[] buffer, final int count) {
+      final Wave w = wave;
+      if (w != null) {
+        System.arraycopy(w.buffer, first, buffer, 0, count);
+      } else {
+        compressed.decode(first, buffer, 0, count);
       }
-      return chunk;
     }
-  }
 
-  protected abstract class CachePurgeAction {
-    public CachePurgeAction() {}
-
-    public abstract long purge();
-  }
-
-  private abstract class CacheEntry implements Comparable<CacheEntry> {
-    public String station;
-    public double t1;
-    public double t2;
-    public long lastAccess;
-
-    public int compareTo(final CacheEntry oce) {
-      return (int) (lastAccess - oce.lastAccess);
+    public double getSamplingRate() {
+      final Wave w = wave;
+      return w != null ? w.getSamplingRate() : compressed.getSamplingRate();
     }
 
-    public abstract String getInfoString();
-
-    public abstract int getMemorySize();
-  }
+    public boolean isCompressed() {
+      return wave == null;
+    }
 
-  public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
-    public Wave wave;
+    /**
+     * Replace the wave with its compressed form. Caller must hold the index lock and re-index the
+     * entry so its new size is counted.
+     */
+    void compress() {
+      final Wave w = wave;
+      if (w != null) {
+        compressed = CompressedWave.compress(w);
+        wave = null;
+      }
+    }
 
     @Override
     public String getInfoString() {
       final long ms = System.currentTimeMillis() - lastAccess;
-      return "[" + ms + "ms] " + (t2 - t1) + "s, " + wave.getMemorySize() + " bytes, " + t1 + " => "
-          + t2;
+      return "[" + ms + "ms] " + (t2 - t1) + "s, " + getMemorySize() + " bytes"
+          + (isCompressed() ? " compressed, " : ", ") + t1 + " => " + t2;
     }
 
     @Override
     public int getMemorySize() {
-      return wave.getMemorySize();
+      final Wave w = wave;
+      return w != null ? w.getMemorySize() : compressed.getMemorySize();
     }
   }
 
@@ -835,6 +1444,29 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     }
   }
 
+  /**
+   * A channel's helicorder pyramid. A channel has at most one, spanning no particular time.
+   */
+  public class CachedPyramid extends CacheEntry {
+    public final HelicorderPyramid pyramid = new HelicorderPyramid();
+
+    @Override
+    public String toString() {
+      return station + " pyramid";
+    }
+
+    @Override
+    public String getInfoString() {
+      final long ms = System.currentTimeMillis() - lastAccess;
+      return "[" + ms + "ms] pyramid, " + pyramid.getMemorySize() + " bytes";
+    }
+
+    @Override
+    public int getMemorySize() {
+      return pyramid.getMemorySize();
+    }
+  }
+
   public class CachedRsam extends CacheEntry {
     public RSAMData rsamData;
 
@@ -895,34 +1527,4 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
       return rsamData.getMemorySize();
     }
   }
-
-  private class CompleteWavePurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedWave>> cache;
-
-    public CompleteWavePurgeAction(final Map<String, List<CachedWave>> c) {
-      cache = c;
-    }
-
-    @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
-    }
-  }
-
-  private class CompleteHelicorderPurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedHelicorder>> cache;
-
-    public CompleteHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c) {
-      cache = c;
-    }
-
-    @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
-    }
-  }
 }
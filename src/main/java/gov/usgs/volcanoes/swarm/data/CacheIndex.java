@@ -0,0 +1,287 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource.CacheEntry;
+
+/**
+ * Per-channel index of cache entries ordered by start time.
+ *
+ * <p>Entries held by a single index are expected not to overlap; the caching data source merges
+ * overlapping data before it is added. With that invariant, containment, overlap and adjacency
+ * queries need only a floor lookup followed by a walk over the matching entries, so lookups cost
+ * O(log n) rather than a scan of every fragment cached for the channel.
+ *
+ * <p>An entry's t1 is its key. Callers that change the time span of an entry must remove it before
+ * the change and add it again afterwards.
+ *
+ * <p>The index keeps a running count of the bytes held by its entries in a counter which may be
+ * shared by several indexes, so the size of a whole cache is known without walking it. An entry's
+ * size is recorded when it is added and that same amount is released when it is removed. Adds and
+ * removals are also reported to the cache's eviction policy, if it has one.
+ *
+ * <p>An index is not thread safe. Callers synchronize on the index itself, which serves as the
+ * per-channel lock of the caching data source.
+ *
+ * @param <T> type of cache entry
+ */
+public class CacheIndex<T extends CacheEntry> implements Iterable<T> {
+
+  private final NavigableMap<Double, T> entries;
+  private final AtomicLong bytes;
+  private final EvictionPolicy policy;
+
+  /**
+   * Constructor.
+   */
+  public CacheIndex() {
+    this(new AtomicLong(), null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param bytes byte counter to update as entries come and go
+   * @param policy eviction policy to notify, may be null
+   */
+  public CacheIndex(final AtomicLong bytes, final EvictionPolicy policy) {
+    entries = new TreeMap<Double, T>();
+    this.bytes = bytes;
+    this.policy = policy;
+  }
+
+  /**
+   * Add an entry to the index.
+   *
+   * @param entry cache entry
+   */
+  public void add(final T entry) {
+    entry.accountedSize = entry.getMemorySize();
+    entry.index = this;
+    final T old = entries.put(entry.t1, entry);
+    if (old != null) {
+      released(old);
+    }
+    bytes.addAndGet(entry.accountedSize);
+    if (policy != null) {
+      policy.onAdd(entry);
+    }
+  }
+
+  /**
+   * Remove an entry from the index.
+   *
+   * @param entry cache entry
+   * @return true if the entry was found
+   */
+  public boolean remove(final CacheEntry entry) {
+    boolean removed;
+    if (entries.get(entry.t1) == entry) {
+      entries.remove(entry.t1);
+      removed = true;
+    } else {
+      // entry was modified without being re-keyed, fall back to a scan
+      removed = entries.values().remove(entry);
+    }
+
+    if (removed) {
+      released(entry);
+    }
+    return removed;
+  }
+
+  private void released(final CacheEntry entry) {
+    bytes.addAndGet(-entry.accountedSize);
+    if (policy != null) {
+      policy.onRemove(entry);
+    }
+  }
+
+  /**
+   * Find the entry that completely covers the given time span.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return covering entry or null if none
+   */
+  public T getContaining(final double t1, final double t2) {
+    final Map.Entry<Double, T> floor = entries.floorEntry(t1);
+    if (floor != null && floor.getValue().t2 >= t2) {
+      return floor.getValue();
+    }
+    return null;
+  }
+
+  /**
+   * Find all entries which share some time with the given span, in time order.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return overlapping entries, possibly empty
+   */
+  public List<T> getOverlapping(final double t1, final double t2) {
+    if (t2 < t1 || entries.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    Double from = entries.floorKey(t1);
+    if (from == null) {
+      from = entries.firstKey();
+    }
+
+    final List<T> overlapping = new ArrayList<T>();
+    for (final T entry : entries.subMap(from, true, t2, true).values()) {
+      if (entry.t2 >= t1) {
+        overlapping.add(entry);
+      }
+    }
+    return overlapping;
+  }
+
+  /**
+   * Find all entries which overlap or fall within slop seconds of the given span. Used to find
+   * candidates for joining with newly arrived data.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @param slop allowed gap in seconds
+   * @return nearby entries, possibly empty
+   */
+  public List<T> getNear(final double t1, final double t2, final double slop) {
+    return getOverlapping(t1 - slop, t2 + slop);
+  }
+
+  /**
+   * Get all entries in time order.
+   *
+   * @return read-only view of all entries
+   */
+  public Collection<T> values() {
+    return Collections.unmodifiableCollection(entries.values());
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Remove all entries.
+   *
+   * @return bytes released
+   */
+  public long clear() {
+    long size = 0;
+    for (final T entry : entries.values()) {
+      size += entry.accountedSize;
+      released(entry);
+    }
+    entries.clear();
+    return size;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return values().iterator();
+  }
+
+  /**
+   * Compare lookups in an index against a scan of a list, the way the cache searched a channel
+   * before it was indexed, for a channel cached as many short fragments.
+   *
+   * @param args entries and lookups, both optional
+   */
+  public static void main(final String[] args) {
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    final int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+    final AbstractCachingDataSource source = new AbstractCachingDataSource() {
+      public String toConfigString() {
+        return "benchmark:";
+      }
+    };
+    final CacheIndex<CacheEntry> index = new CacheIndex<CacheEntry>();
+    final List<CacheEntry> list = new ArrayList<CacheEntry>(count);
+    for (int i = 0; i < count; i++) {
+      final CacheEntry entry = source.new CacheEntry() {
+        public String getInfoString() {
+          return t1 + " => " + t2;
+        }
+
+        public int getMemorySize() {
+          return 1024;
+        }
+      };
+      entry.station = "BENCH";
+      entry.t1 = i * 60.0;
+      entry.t2 = entry.t1 + 50;
+      index.add(entry);
+      list.add(entry);
+    }
+
+    final Random random = new Random(42);
+    final double[] times = new double[lookups];
+    for (int i = 0; i < lookups; i++) {
+      times[i] = random.nextDouble() * count * 60;
+    }
+
+    long indexNanos = 0;
+    long scanNanos = 0;
+    int indexFound = 0;
+    int scanFound = 0;
+    // the first round warms up the JIT and is not reported
+    for (int round = 0; round < 2; round++) {
+      indexFound = 0;
+      long start = System.nanoTime();
+      for (final double t : times) {
+        if (index.getContaining(t, t + 5) != null) {
+          indexFound++;
+        }
+        indexFound += index.getOverlapping(t, t + 120).size();
+      }
+      indexNanos = System.nanoTime() - start;
+
+      scanFound = 0;
+      start = System.nanoTime();
+      for (final double t : times) {
+        for (final CacheEntry entry : list) {
+          if (entry.t1 <= t && entry.t2 >= t + 5) {
+            scanFound++;
+            break;
+          }
+        }
+        for (final CacheEntry entry : list) {
+          if (entry.t1 <= t + 120 && entry.t2 >= t) {
+            scanFound++;
+          }
+        }
+      }
+      scanNanos = System.nanoTime() - start;
+    }
+
+    System.out.println(count + " entries, " + lookups + " lookups, " + indexFound + " index hits, "
+        + scanFound + " scan hits");
+    System.out.println("index: " + indexNanos / 1000000 + " ms, " + indexNanos / lookups
+        + " ns per lookup");
+    System.out.println("scan:  " + scanNanos / 1000000 + " ms, " + scanNanos / lookups
+        + " ns per lookup");
+  }
+}
@@ -0,0 +1,242 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Index from channel to the data sources which serve it, so a channel can be matched to a source
+ * without asking every source for its channel list.
+ *
+ * <p>Channels are keyed by a normalized name: station, channel, network and location separated by
+ * single spaces, whatever separators the source used, and without an empty "--" location. A source
+ * is indexed when its channel list is loaded, see {@link ChannelListCache}, and while it loads
+ * incrementally its index entries follow {@link SeismicDataSource#getLoadingChannels()} on each
+ * channels update. Sources are returned in the order they were indexed.
+ *
+ * @author Tom Parker
+ */
+public final class ChannelIndex {
+
+  /** normalized channel to the sources serving it and their name for it. */
+  private static final Map<String, Map<SeismicDataSource, String>> index =
+      new HashMap<String, Map<SeismicDataSource, String>>();
+
+  /** normalized channels of each source. */
+  private static final Map<SeismicDataSource, List<String>> sourceChannels =
+      new HashMap<SeismicDataSource, List<String>>();
+
+  /** listeners keeping incrementally loading sources up to date. */
+  private static final Map<SeismicDataSource, SeismicDataSourceListener> listeners =
+      new HashMap<SeismicDataSource, SeismicDataSourceListener>();
+
+  /** sources dropped from the index because they were removed, until they are indexed again. */
+  private static final Set<SeismicDataSource> removed =
+      Collections.newSetFromMap(new WeakHashMap<SeismicDataSource, Boolean>());
+
+  private ChannelIndex() {}
+
+  /**
+   * Set the channels of a source, replacing any indexed before.
+   *
+   * @param source data source
+   * @param channels channels as the source names them
+   */
+  public static synchronized void put(final SeismicDataSource source,
+      final Collection<String> channels) {
+    removeChannels(source);
+    add(source, channels);
+  }
+
+  /**
+   * Add channels to those indexed for a source.
+   *
+   * @param source data source
+   * @param channels channels as the source names them
+   */
+  public static synchronized void add(final SeismicDataSource source,
+      final Collection<String> channels) {
+    removed.remove(source);
+    List<String> keys = sourceChannels.get(source);
+    if (keys == null) {
+      keys = new ArrayList<String>(channels.size());
+      sourceChannels.put(source, keys);
+      watch(source);
+    }
+    for (final String channel : channels) {
+      final String key = normalize(channel);
+      Map<SeismicDataSource, String> sources = index.get(key);
+      if (sources == null) {
+        sources = new LinkedHashMap<SeismicDataSource, String>(2);
+        index.put(key, sources);
+      }
+      if (sources.put(source, channel) == null) {
+        keys.add(key);
+      }
+    }
+  }
+
+  /**
+   * Drop a source from the index, typically because it was removed.
+   *
+   * @param source data source
+   */
+  public static synchronized void remove(final SeismicDataSource source) {
+    removeChannels(source);
+    sourceChannels.remove(source);
+    removed.add(source);
+    final SeismicDataSourceListener listener = listeners.remove(source);
+    if (listener != null) {
+      source.removeListener(listener);
+    }
+  }
+
+  /**
+   * Check whether the channels of a source are indexed.
+   *
+   * @param source data source
+   * @return true if the source's channel list has been loaded
+   */
+  public static synchronized boolean isIndexed(final SeismicDataSource source) {
+    return sourceChannels.containsKey(source);
+  }
+
+  /**
+   * Get the sources serving a channel.
+   *
+   * @param channel channel in any of the usual forms
+   * @return sources in the order they were indexed, possibly empty
+   */
+  public static synchronized List<SeismicDataSource> getSources(final String channel) {
+    final Map<SeismicDataSource, String> sources = index.get(normalize(channel));
+    if (sources == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<SeismicDataSource>(sources.keySet());
+  }
+
+  /**
+   * Get the first source indexed for a channel.
+   *
+   * @param channel channel in any of the usual forms
+   * @return the source or null if no indexed source serves the channel
+   */
+  public static synchronized SeismicDataSource getSource(final String channel) {
+    final Map<SeismicDataSource, String> sources = index.get(normalize(channel));
+    if (sources == null || sources.isEmpty()) {
+      return null;
+    }
+    return sources.keySet().iterator().next();
+  }
+
+  /**
+   * Get a source for a channel, keeping to a preferred one if it serves the channel. A preferred
+   * source which has been removed, see {@link #remove(SeismicDataSource)}, is never returned.
+   *
+   * @param channel channel in any of the usual forms
+   * @param preferred source to use if it is indexed for the channel, may be null
+   * @return the preferred source, the first source indexed for the channel, or the preferred
+   *     source if none is and it has not been removed, otherwise null
+   */
+  public static synchronized SeismicDataSource getSource(final String channel,
+      SeismicDataSource preferred) {
+    if (removed.contains(preferred)) {
+      preferred = null;
+    }
+    final Map<SeismicDataSource, String> sources = index.get(normalize(channel));
+    if (sources == null || sources.isEmpty() || sources.containsKey(preferred)) {
+      return preferred;
+    }
+    return sources.keySet().iterator().next();
+  }
+
+  /**
+   * Get a source's own name for a channel.
+   *
+   * @param source data source
+   * @param channel channel in any of the usual forms
+   * @return the name the source uses or null if the source does not serve the channel
+   */
+  public static synchronized String getChannel(final SeismicDataSource source,
+      final String channel) {
+    final Map<SeismicDataSource, String> sources = index.get(normalize(channel));
+    return sources == null ? null : sources.get(source);
+  }
+
+  /**
+   * Normalize a channel name.
+   *
+   * @param channel channel separated by spaces, '$' or '_'
+   * @return station, channel, network and location separated by spaces, without a "--" location
+   */
+  public static String normalize(final String channel) {
+    final String[] parts = channel.trim().split("[\\s$_]+");
+    int n = parts.length;
+    if (n == 4 && "--".equals(parts[3])) {
+      n = 3;
+    }
+    final StringBuilder sb = new StringBuilder(channel.length());
+    for (int i = 0; i < n; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(parts[i]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Remove the index entries of a source but remember it as indexed. Caller must hold the lock.
+   */
+  private static void removeChannels(final SeismicDataSource source) {
+    final List<String> keys = sourceChannels.get(source);
+    if (keys == null) {
+      return;
+    }
+    for (final String key : keys) {
+      final Map<SeismicDataSource, String> sources = index.get(key);
+      if (sources != null) {
+        sources.remove(source);
+        if (sources.isEmpty()) {
+          index.remove(key);
+        }
+      }
+    }
+    keys.clear();
+  }
+
+  /**
+   * Follow a source's channels updates. Caller must hold the lock.
+   */
+  private static void watch(final SeismicDataSource source) {
+    if (listeners.containsKey(source)) {
+      return;
+    }
+    final SeismicDataSourceListener listener = new SeismicDataSourceListener() {
+      public void channelsUpdated() {
+        final List<String> loading = source.getLoadingChannels();
+        if (loading != null) {
+          add(source, loading);
+        }
+      }
+
+      public void channelsProgress(final String id, final double progress) {}
+
+      public void helicorderProgress(final String channel, final double progress) {}
+    };
+    listeners.put(source, listener);
+    source.addListener(listener);
+  }
+}
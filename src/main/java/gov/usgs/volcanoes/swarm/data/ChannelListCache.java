@@ -0,0 +1,350 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gov.usgs.volcanoes.swarm.Metadata;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+
+/**
+ * Keeps the channel list of each network data source on disk between Swarm sessions, together
+ * with the channel metadata the source supplied, so a source which has been opened before opens
+ * without waiting on its server.
+ *
+ * <p>Each source has one text file named for its server and channel filters,
+ * {@link SeismicDataSource#getChannelListKey()}, so changing a timeout or pool size keeps the
+ * list. The first lines hold that key and the time the list was fetched, then each channel has a
+ * tab separated line of SCNL, longitude, latitude, height, start and end time, alias, unit and
+ * groups. A list younger than the time to live is used as is. An older list is used too, but the
+ * source is asked again in the background and the listener hears of the new list if it differs.
+ * Only active sources, see {@link SeismicDataSource#isActiveSource()}, are cached. Every list
+ * handed out, cached or not, is recorded in the {@link ChannelIndex}.
+ *
+ * @author Tom Parker
+ */
+public class ChannelListCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChannelListCache.class);
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String HEADER = "# Swarm channel list";
+  private static final String SUFFIX = ".channels";
+  private static final int FIELDS = 9;
+
+  private static volatile ChannelListCache instance;
+
+  private final File directory;
+  private final long timeToLive;
+  private final Set<String> refreshing;
+
+  /**
+   * Constructor.
+   *
+   * @param directory cache directory, created if needed
+   * @param timeToLive age after which a list is fetched again, in ms
+   */
+  public ChannelListCache(final File directory, final long timeToLive) {
+    this.directory = directory;
+    this.timeToLive = timeToLive;
+    refreshing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      LOGGER.error("Cannot create channel list cache directory {}", directory);
+    }
+  }
+
+  /**
+   * Set the cache used by {@link #getChannels(SeismicDataSource, DataListener)}.
+   *
+   * @param cache the cache or null for none
+   */
+  public static void setInstance(final ChannelListCache cache) {
+    instance = cache;
+  }
+
+  /**
+   * Get the cache.
+   *
+   * @return the cache or null if there is none
+   */
+  public static ChannelListCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Get the channels of a source, from the cache if it holds them.
+   *
+   * @param source data source
+   * @param listener told on the event dispatch thread if a background refresh finds the list has
+   *     changed, may be null
+   * @return the channels or null if the source has none
+   */
+  public static List<String> getChannels(final SeismicDataSource source,
+      final DataListener<List<String>> listener) {
+    final ChannelListCache cache = instance;
+    if (cache == null || !source.isActiveSource()) {
+      return index(source, source.getChannels());
+    }
+    return cache.get(source, listener);
+  }
+
+  /**
+   * Get the channels of a source from the source itself and cache them.
+   *
+   * @param source data source
+   * @return the channels or null if the source has none
+   */
+  public static List<String> reload(final SeismicDataSource source) {
+    final ChannelListCache cache = instance;
+    if (cache == null || !source.isActiveSource()) {
+      return index(source, source.getChannels());
+    }
+    return cache.load(source);
+  }
+
+  private List<String> get(final SeismicDataSource source,
+      final DataListener<List<String>> listener) {
+    final File file = getFile(source);
+    final List<String> lines = read(file, getKey(source));
+    if (lines == null) {
+      return load(source);
+    }
+
+    final long age = System.currentTimeMillis() - Long.parseLong(lines.get(0));
+    final List<String> channels = restore(lines.subList(1, lines.size()), source);
+    LOGGER.debug("{} channels of {} from cache, {} s old", channels.size(), source.getName(),
+        age / 1000);
+    if (age > timeToLive && refreshing.add(file.getPath())) {
+      refresh(source, channels, listener);
+    }
+    return index(source, channels);
+  }
+
+  /**
+   * Ask the source again in the background.
+   */
+  private void refresh(final SeismicDataSource source, final List<String> cached,
+      final DataListener<List<String>> listener) {
+    DataExecutor.submit(new Callable<List<String>>() {
+      public List<String> call() {
+        try {
+          source.establish();
+          final List<String> channels = load(source);
+          if (channels == null || channels.equals(cached)) {
+            return null;
+          }
+          return channels;
+        } finally {
+          refreshing.remove(getFile(source).getPath());
+        }
+      }
+    }, listener == null ? null : new DataListener<List<String>>() {
+      public void dataReceived(final List<String> channels) {
+        if (channels != null) {
+          listener.dataReceived(channels);
+        }
+      }
+    });
+  }
+
+  private List<String> load(final SeismicDataSource source) {
+    final List<String> channels = source.getChannels();
+    if (channels != null && !channels.isEmpty()) {
+      write(getFile(source), getKey(source), channels);
+    }
+    return index(source, channels);
+  }
+
+  /**
+   * Record the channels of a source in the {@link ChannelIndex}.
+   */
+  private static List<String> index(final SeismicDataSource source, final List<String> channels) {
+    if (channels != null) {
+      ChannelIndex.put(source, channels);
+    }
+    return channels;
+  }
+
+  /**
+   * Put cached metadata back and point the channels at the source.
+   */
+  private static List<String> restore(final List<String> lines, final SeismicDataSource source) {
+    final SwarmConfig swarmConfig = SwarmConfig.getInstance();
+    final List<String> channels = new ArrayList<String>(lines.size());
+    for (final String line : lines) {
+      final String[] fields = line.split("\t", -1);
+      if (fields.length < FIELDS) {
+        continue;
+      }
+      final Metadata md = swarmConfig.getMetadata(fields[0], true);
+      md.updateLongitude(parseDouble(fields[1]));
+      md.updateLatitude(parseDouble(fields[2]));
+      md.updateHeight(parseDouble(fields[3]));
+      if (Double.isNaN(md.getMinTime())) {
+        md.updateMinTime(parseDouble(fields[4]));
+      }
+      if (Double.isNaN(md.getMaxTime())) {
+        md.updateMaxTime(parseDouble(fields[5]));
+      }
+      if (fields[6].length() > 0) {
+        md.updateAlias(fields[6]);
+      }
+      if (fields[7].length() > 0) {
+        md.updateUnits(fields[7]);
+      }
+      if (fields[8].length() > 0) {
+        for (final String group : fields[8].split("\\|")) {
+          md.addGroup(group);
+        }
+      }
+      md.source = source;
+      channels.add(fields[0]);
+    }
+    return channels;
+  }
+
+  /**
+   * Read a cache file.
+   *
+   * @return the fetch time followed by the channel lines, or null if there is no usable file
+   */
+  private static List<String> read(final File file, final String key) {
+    if (!file.canRead()) {
+      return null;
+    }
+    try (BufferedReader in =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+      if (!HEADER.equals(in.readLine()) || !key.equals(in.readLine())) {
+        return null;
+      }
+      final String time = in.readLine();
+      if (time == null) {
+        return null;
+      }
+      Long.parseLong(time);
+      final List<String> lines = new ArrayList<String>();
+      lines.add(time);
+      String line;
+      while ((line = in.readLine()) != null) {
+        lines.add(line);
+      }
+      return lines;
+    } catch (final IOException e) {
+      LOGGER.error("Cannot read channel list cache file {}: {}", file, e.getMessage());
+    } catch (final NumberFormatException e) {
+      LOGGER.warn("Ignoring damaged channel list cache file {}", file);
+    }
+    return null;
+  }
+
+  /**
+   * Write a cache file through a temporary file, so a crash never leaves half a list.
+   */
+  private synchronized void write(final File file, final String key,
+      final List<String> channels) {
+    final SwarmConfig swarmConfig = SwarmConfig.getInstance();
+    final File temp = new File(file.getPath() + ".tmp");
+    try (BufferedWriter out =
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8))) {
+      out.write(HEADER);
+      out.newLine();
+      out.write(key);
+      out.newLine();
+      out.write(Long.toString(System.currentTimeMillis()));
+      out.newLine();
+      for (final String channel : channels) {
+        final Metadata md = swarmConfig.getMetadata(channel);
+        out.write(channel);
+        if (md == null) {
+          out.write("\tNaN\tNaN\tNaN\tNaN\tNaN\t\t\t");
+        } else {
+          out.write('\t' + Double.toString(md.getLongitude()));
+          out.write('\t' + Double.toString(md.getLatitude()));
+          out.write('\t' + Double.toString(md.getHeight()));
+          out.write('\t' + Double.toString(md.getMinTime()));
+          out.write('\t' + Double.toString(md.getMaxTime()));
+          out.write('\t' + clean(md.getAlias()));
+          out.write('\t' + clean(md.getUnit()));
+          out.write('\t');
+          if (md.getGroups() != null) {
+            boolean first = true;
+            for (final String group : md.getGroups()) {
+              if (!first) {
+                out.write('|');
+              }
+              out.write(clean(group));
+              first = false;
+            }
+          }
+        }
+        out.newLine();
+      }
+    } catch (final IOException e) {
+      LOGGER.error("Cannot write channel list cache file {}: {}", temp, e.getMessage());
+      temp.delete();
+      return;
+    }
+
+    try {
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (final IOException e) {
+      LOGGER.error("Cannot replace channel list cache file {}: {}", file, e.getMessage());
+      temp.delete();
+    }
+  }
+
+  /**
+   * Get what decides the channels of a source.
+   */
+  private static String getKey(final SeismicDataSource source) {
+    return source.getChannelListKey();
+  }
+
+  private File getFile(final SeismicDataSource source) {
+    final String key = getKey(source);
+    final String prefix = key.replaceAll("[^\\w.-]", "_");
+    final String name = (prefix.length() > 40 ? prefix.substring(0, 40) : prefix) + "_"
+        + Integer.toHexString(key.hashCode()) + SUFFIX;
+    return new File(directory, name);
+  }
+
+  private static String clean(final String s) {
+    return s == null ? "" : s.replace('\t', ' ').replace('\n', ' ').replace('|', ' ');
+  }
+
+  private static double parseDouble(final String s) {
+    try {
+      return Double.parseDouble(s);
+    } catch (final NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Coalesces concurrent wave fetches for the same channel.
+ *
+ * <p>A request which overlaps fetches already in flight waits for them and shares their results;
+ * only the parts of its span nobody is fetching are requested from the data source. A request
+ * which overlaps nothing is passed straight through and gets exactly what the source returns.
+ *
+ * <p>Subclasses implement {@link #fetch(String, double, double)}, which does the actual network
+ * request and should also cache what it gets. By default several spans requested together through
+ * {@link #getWaves(String, List)} are fetched one after another; sources which can serve
+ * concurrent requests may raise the limit with {@link #setParallelism(int)}.
+ *
+ * @author Tom Parker
+ */
+public abstract class CoalescingWaveFetcher {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingWaveFetcher.class);
+
+  /** uncovered pieces shorter than this many seconds are not worth a request. */
+  private static final double MIN_GAP = 0.01;
+
+  private final Map<String, List<Flight>> flights;
+  private volatile int parallelism;
+
+  /**
+   * Constructor.
+   */
+  public CoalescingWaveFetcher() {
+    flights = new HashMap<String, List<Flight>>();
+    parallelism = 1;
+  }
+
+  /**
+   * Set how many spans {@link #getWaves(String, List)} may fetch at once.
+   *
+   * @param parallelism concurrent fetches, at least 1
+   */
+  public void setParallelism(final int parallelism) {
+    this.parallelism = Math.max(1, parallelism);
+  }
+
+  /**
+   * Fetch a wave from the data source.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return wave or null if none
+   */
+  protected abstract Wave fetch(String channel, double t1, double t2);
+
+  /**
+   * Get a wave, sharing any fetches of the same channel already in flight.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return wave or null if none
+   */
+  public Wave getWave(final String channel, final double t1, final double t2) {
+    final List<Flight> shared = new ArrayList<Flight>();
+    final List<Flight> mine = new ArrayList<Flight>();
+    synchronized (flights) {
+      List<Flight> inFlight = flights.get(channel);
+      if (inFlight == null) {
+        inFlight = new ArrayList<Flight>();
+        flights.put(channel, inFlight);
+      }
+      for (final Flight flight : inFlight) {
+        if (flight.t1 < t2 && flight.t2 > t1) {
+          shared.add(flight);
+        }
+      }
+      Collections.sort(shared, new Comparator<Flight>() {
+        public int compare(final Flight f1, final Flight f2) {
+          return Double.compare(f1.t1, f2.t1);
+        }
+      });
+
+      if (shared.isEmpty()) {
+        mine.add(new Flight(t1, t2));
+      } else {
+        double covered = t1;
+        for (final Flight flight : shared) {
+          if (flight.t1 - covered > MIN_GAP) {
+            mine.add(new Flight(covered, flight.t1));
+          }
+          covered = Math.max(covered, flight.t2);
+        }
+        if (t2 - covered > MIN_GAP) {
+          mine.add(new Flight(covered, t2));
+        }
+      }
+      inFlight.addAll(mine);
+    }
+
+    if (!shared.isEmpty()) {
+      LOGGER.debug("{} request {} - {} shares {} fetches in flight", channel, t1, t2,
+          shared.size());
+    }
+
+    int landed = 0;
+    try {
+      while (landed < mine.size()) {
+        final Flight flight = mine.get(landed);
+        flight.result = fetch(channel, flight.t1, flight.t2);
+        land(channel, flight);
+        landed++;
+      }
+    } finally {
+      // never leave anyone waiting on a fetch that failed
+      for (int i = landed; i < mine.size(); i++) {
+        land(channel, mine.get(i));
+      }
+    }
+
+    // nothing to share, return exactly what the source gave us
+    if (shared.isEmpty()) {
+      return mine.get(0).result;
+    }
+
+    final List<Wave> parts = new ArrayList<Wave>();
+    for (final Flight flight : shared) {
+      try {
+        flight.done.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+      if (flight.result != null) {
+        parts.add(flight.result);
+      }
+    }
+    for (final Flight flight : mine) {
+      if (flight.result != null) {
+        parts.add(flight.result);
+      }
+    }
+    return splice(parts, t1, t2);
+  }
+
+  /**
+   * Get waves for several spans of one channel, fetching up to the parallelism limit at once
+   * through {@link DataExecutor#invokeAll(List, int)}.
+   *
+   * @param channel channel
+   * @param spans start and end time pairs
+   * @return waves in the order of spans, null where there was none
+   */
+  public List<Wave> getWaves(final String channel, final List<double[]> spans) {
+    final Wave[] waves = new Wave[spans.size()];
+    final List<Runnable> tasks = new ArrayList<Runnable>(waves.length);
+    for (int i = 0; i < waves.length; i++) {
+      final int index = i;
+      tasks.add(new Runnable() {
+        public void run() {
+          final double[] span = spans.get(index);
+          waves[index] = getWave(channel, span[0], span[1]);
+        }
+      });
+    }
+    DataExecutor.invokeAll(tasks, parallelism);
+
+    final List<Wave> result = new ArrayList<Wave>(waves.length);
+    Collections.addAll(result, waves);
+    return result;
+  }
+
+  private void land(final String channel, final Flight flight) {
+    synchronized (flights) {
+      final List<Flight> inFlight = flights.get(channel);
+      inFlight.remove(flight);
+      if (inFlight.isEmpty()) {
+        flights.remove(channel);
+      }
+    }
+    flight.done.countDown();
+  }
+
+  /**
+   * Join the waves and trim to the requested span.
+   */
+  private static Wave splice(final List<Wave> parts, final double t1, final double t2) {
+    if (parts.isEmpty()) {
+      return null;
+    }
+
+    double minT = 1E300;
+    double maxT = -1E300;
+    for (final Wave part : parts) {
+      minT = Math.min(minT, part.getStartTime());
+      maxT = Math.max(maxT, part.getEndTime());
+    }
+    final double start = Math.max(t1, minT);
+    final double end = Math.min(t2, maxT);
+    if (end <= start) {
+      return null;
+    }
+
+    final Wave wave = parts.size() == 1 ? parts.get(0) : Wave.join(parts, minT, maxT);
+    return wave == null ? null : wave.subset(start, end);
+  }
+
+  private static class Flight {
+    private final double t1;
+    private final double t2;
+    private final CountDownLatch done;
+    private volatile Wave result;
+
+    private Flight(final double t1, final double t2) {
+      this.t1 = t1;
+      this.t2 = t2;
+      done = new CountDownLatch(1);
+    }
+  }
+}
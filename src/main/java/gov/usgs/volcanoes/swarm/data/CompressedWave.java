@@ -0,0 +1,212 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * A wave held in compressed form.
+ *
+ * <p>Samples are split into blocks of {@value #BLOCK_SIZE}. Each block stores its first sample and
+ * then the difference between successive samples, zigzag encoded into variable length bytes, much
+ * like Steim compression. Seismic counts usually change little from one sample to the next, so most
+ * differences fit in one or two bytes. Blocks are indexed so a slice is decoded starting from the
+ * block holding its first sample, straight into the caller's buffer.
+ *
+ * @author Tom Parker
+ */
+public class CompressedWave {
+
+  /** samples per independently decodable block. */
+  public static final int BLOCK_SIZE = 1024;
+
+  private final double startTime;
+  private final double samplingRate;
+  private final int numSamples;
+  private final byte[] data;
+  private final int[] blockOffsets;
+
+  private CompressedWave(final double startTime, final double samplingRate, final int numSamples,
+      final byte[] data, final int[] blockOffsets) {
+    this.startTime = startTime;
+    this.samplingRate = samplingRate;
+    this.numSamples = numSamples;
+    this.data = data;
+    this.blockOffsets = blockOffsets;
+  }
+
+  /**
+   * Compress a wave.
+   *
+   * @param wave wave to compress
+   * @return compressed wave
+   */
+  public static CompressedWave compress(final Wave wave) {
+    final int n = wave.numSamples();
+    final int[] blockOffsets = new int[(n + BLOCK_SIZE - 1) / BLOCK_SIZE];
+    // worst case is ten bytes per sample, grow as needed starting from an optimistic guess
+    byte[] out = new byte[Math.max(16, n * 2)];
+    int pos = 0;
+    long last = 0;
+    for (int i = 0; i < n; i++) {
+      if (out.length - pos < 10) {
+        out = Arrays.copyOf(out, out.length * 2);
+      }
+      final long sample = wave.buffer[i];
+      if (i % BLOCK_SIZE == 0) {
+        blockOffsets[i / BLOCK_SIZE] = pos;
+        pos = writeVarLong(out, pos, zigzag(sample));
+      } else {
+        pos = writeVarLong(out, pos, zigzag(sample - last));
+      }
+      last = sample;
+    }
+    return new CompressedWave(wave.getStartTime(), wave.getSamplingRate(), n,
+        Arrays.copyOf(out, pos), blockOffsets);
+  }
+
+  /**
+   * Decode the whole wave.
+   *
+   * @return wave
+   */
+  public Wave decode() {
+    final int[] buffer = new int[numSamples];
+    decode(0, buffer, 0, numSamples);
+    return new Wave(buffer, startTime, samplingRate);
+  }
+
+  /**
+   * Decode a run of samples into a buffer.
+   *
+   * @param first index of first sample
+   * @param buffer destination
+   * @param offset position in buffer for the first sample
+   * @param count number of samples
+   * @throws ArrayIndexOutOfBoundsException if the run is outside the wave
+   */
+  public void decode(final int first, final int[] buffer, final int offset, final int count) {
+    if (first < 0 || count < 0 || first + count > numSamples) {
+      throw new ArrayIndexOutOfBoundsException(first + count);
+    }
+    if (count == 0) {
+      return;
+    }
+
+    final int block = first / BLOCK_SIZE;
+    int i = block * BLOCK_SIZE;
+    int pos = blockOffsets[block];
+    long sample = 0;
+    final int end = first + count;
+    while (i < end) {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[pos++];
+        value |= (long) (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+
+      final long decoded = (value >>> 1) ^ -(value & 1);
+      if (i % BLOCK_SIZE == 0) {
+        sample = decoded;
+      } else {
+        sample += decoded;
+      }
+      if (i >= first) {
+        buffer[offset + i - first] = (int) sample;
+      }
+      i++;
+    }
+  }
+
+  public double getStartTime() {
+    return startTime;
+  }
+
+  public double getEndTime() {
+    return startTime + numSamples / samplingRate;
+  }
+
+  public double getSamplingRate() {
+    return samplingRate;
+  }
+
+  public int numSamples() {
+    return numSamples;
+  }
+
+  /**
+   * Get approximate memory used.
+   *
+   * @return size in bytes
+   */
+  public int getMemorySize() {
+    return data.length + blockOffsets.length * 4;
+  }
+
+  private static long zigzag(final long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static int writeVarLong(final byte[] out, int pos, long value) {
+    while ((value & ~0x7fL) != 0) {
+      out[pos++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out[pos++] = (byte) value;
+    return pos;
+  }
+
+  /**
+   * Report compression ratio and decode cost for a synthetic trace.
+   *
+   * @param args sample count, optional
+   */
+  public static void main(final String[] args) {
+    final int n = args.length > 0 ? Integer.parseInt(args[0]) : 100 * 60 * 60;
+    final Random random = new Random(42);
+    final int[] buffer = new int[n];
+    double v = 0;
+    for (int i = 0; i < n; i++) {
+      v = 0.95 * v + random.nextGaussian() * 200;
+      buffer[i] = (int) (v + 500 * Math.sin(i / 50.0));
+    }
+    final Wave wave = new Wave(buffer, 0, 100);
+
+    long start = System.nanoTime();
+    final CompressedWave cw = compress(wave);
+    final long compressNanos = System.nanoTime() - start;
+
+    final int[] out = new int[n];
+    start = System.nanoTime();
+    final int rounds = 20;
+    for (int r = 0; r < rounds; r++) {
+      cw.decode(0, out, 0, n);
+    }
+    final long decodeNanos = (System.nanoTime() - start) / rounds;
+
+    final int slice = Math.min(n, 100 * 60);
+    start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      cw.decode(n - slice, out, 0, slice);
+    }
+    final long sliceNanos = (System.nanoTime() - start) / rounds;
+
+    System.out.println("samples: " + n);
+    System.out.println("raw bytes: " + n * 4 + ", compressed bytes: " + cw.getMemorySize()
+        + String.format(" (%.2fx)", n * 4.0 / cw.getMemorySize()));
+    System.out.println("compress: " + compressNanos / 1000 + "us, full decode: "
+        + decodeNanos / 1000 + "us, " + slice + " sample slice: " + sliceNanos / 1000 + "us");
+    cw.decode(0, out, 0, n);
+    System.out.println("round trip ok: " + Arrays.equals(buffer, out));
+  }
+}
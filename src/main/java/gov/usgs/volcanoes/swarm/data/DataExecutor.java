@@ -0,0 +1,221 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The I/O executor behind the asynchronous data API. Requests run on a fixed set of daemon threads
+ * and their results are handed to a {@link DataListener} on the event dispatch thread.
+ *
+ * <p>Cancelling a request before it starts drops it. A request already running is left to finish,
+ * since interrupting a half read network response would leave the connection unusable, but its
+ * result is not delivered.
+ *
+ * <p>Work a request spreads over several connections, such as the channels of a bulk request, the
+ * gaps of a coalesced fetch or the chunks of a long web service request, goes through
+ * {@link #invokeAll(List, int)}. The calling thread takes part and borrows only helper threads
+ * which are free at that moment, from a bounded pool, so the calls may nest without ever waiting
+ * on a busy pool. Periodic upkeep and delayed wakeups share one timer thread, see
+ * {@link #scheduleWithFixedDelay(Runnable, long, long)} and {@link #schedule(Runnable, long)}.
+ *
+ * @author Tom Parker
+ */
+public final class DataExecutor {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DataExecutor.class);
+
+  /** requests run at once. */
+  private static final int THREADS = 8;
+
+  /** helper threads shared by all requests. */
+  private static final int HELPERS = 16;
+
+  /** idle threads are let go after this many seconds. */
+  private static final long KEEP_ALIVE = 60;
+
+  private static final ExecutorService executor;
+
+  private static final ThreadPoolExecutor helpers = new ThreadPoolExecutor(0, HELPERS, KEEP_ALIVE,
+      TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "Data fetch " + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private static final ScheduledExecutorService timer;
+
+  static {
+    final ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Data I/O " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    pool.allowCoreThreadTimeOut(true);
+    executor = pool;
+
+    final ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+          public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Data timer");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    scheduler.setRemoveOnCancelPolicy(true);
+    timer = scheduler;
+  }
+
+  private DataExecutor() {}
+
+  /**
+   * Run a request.
+   *
+   * @param request request
+   * @param listener receives the result, may be null
+   * @return future for the result
+   */
+  public static <T> Future<T> submit(final Callable<T> request, final DataListener<T> listener) {
+    final FutureTask<T> task = new FutureTask<T>(request) {
+      @Override
+      protected void done() {
+        if (listener == null || isCancelled()) {
+          return;
+        }
+        T result = null;
+        try {
+          result = get();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+          LOGGER.error("Data request failed", e.getCause());
+        }
+        final T data = result;
+        final FutureTask<T> self = this;
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            if (!self.isCancelled()) {
+              listener.dataReceived(data);
+            }
+          }
+        });
+      }
+    };
+    executor.execute(task);
+    return task;
+  }
+
+  /**
+   * Run a task which does its own delivery.
+   *
+   * @param task task
+   * @return future which completes when the task does
+   */
+  public static Future<?> submit(final Runnable task) {
+    return executor.submit(task);
+  }
+
+  /**
+   * Run tasks on the calling thread and up to parallelism - 1 free helper threads, and return once
+   * all have finished. A task which throws is logged and the rest still run.
+   *
+   * @param tasks tasks, each run once
+   * @param parallelism most tasks run at once
+   */
+  public static void invokeAll(final List<? extends Runnable> tasks, final int parallelism) {
+    final AtomicInteger next = new AtomicInteger();
+    final Runnable worker = new Runnable() {
+      public void run() {
+        int i;
+        while ((i = next.getAndIncrement()) < tasks.size()) {
+          try {
+            tasks.get(i).run();
+          } catch (final RuntimeException e) {
+            LOGGER.error("Data task failed", e);
+          }
+        }
+      }
+    };
+
+    final int workers = Math.min(parallelism, tasks.size());
+    final List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int i = 1; i < workers; i++) {
+      try {
+        futures.add(helpers.submit(worker));
+      } catch (final RejectedExecutionException e) {
+        // every helper is busy, the caller does the rest
+        break;
+      }
+    }
+    try {
+      worker.run();
+    } finally {
+      for (final Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+          LOGGER.error("Data task failed", e.getCause());
+        }
+      }
+    }
+  }
+
+  /**
+   * Run a short task on the timer thread after a delay.
+   *
+   * @param task task, which must not block
+   * @param delay delay in ms
+   * @return future to cancel the task with
+   */
+  public static ScheduledFuture<?> schedule(final Runnable task, final long delay) {
+    return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Run a short task on the timer thread again and again.
+   *
+   * @param task task, which must not block
+   * @param initialDelay delay before the first run in ms
+   * @param delay delay between the end of one run and the start of the next in ms
+   * @return future to cancel the task with
+   */
+  public static ScheduledFuture<?> scheduleWithFixedDelay(final Runnable task,
+      final long initialDelay, final long delay) {
+    return timer.scheduleWithFixedDelay(task, initialDelay, delay, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,23 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * Receives the result of an asynchronous data request. Called on the event dispatch thread, and
+ * not at all if the request was cancelled.
+ *
+ * @author Tom Parker
+ */
+public interface DataListener<T> {
+
+  /**
+   * Deliver the result of a request.
+   *
+   * @param data result, null if the source had no data or the request failed
+   */
+  public void dataReceived(T data);
+}
@@ -1,5 +1,8 @@
 package gov.usgs.volcanoes.swarm.data;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,6 +24,8 @@ import gov.usgs.volcanoes.winston.db.WinstonDatabase;
  * @author Dan Cervelli
  */
 public class DirectWWSSource extends SeismicDataSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectWWSSource.class);
+
   private String dbDriver;
   private String dbURL;
   private String dbPrefix;
@@ -29,6 +34,12 @@ public class DirectWWSSource extends SeismicDataSource {
   private Data data;
   private Channels stations;
 
+  private final CoalescingWaveFetcher waveFetcher = new CoalescingWaveFetcher() {
+    protected Wave fetch(String station, double t1, double t2) {
+      return fetchWave(station, t1, t2);
+    }
+  };
+
   // explicit default constructor required for reflection
   public DirectWWSSource() {}
 
@@ -47,20 +58,26 @@ public class DirectWWSSource extends SeismicDataSource {
     winston.close();
   }
 
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(String station, double t1, double t2) {
     CachedDataSource cache = CachedDataSource.getInstance();
+    return cache.getWave(station, t1, t2, waveFetcher);
+  }
 
-    Wave sw = cache.getWave(station, t1, t2);
-    if (sw == null) {
-      try {
-        sw = data.getWave(station, t1, t2, 0);
-      } catch (UtilException e) {
-      }
-      if (sw != null && !sw.isData())
-        sw = null;
-      if (sw != null && sw.buffer != null && sw.buffer.length > 0)
-        cache.putWave(station, sw);
+  /**
+   * Read a wave from the database and cache it. Concurrent requests are coalesced by waveFetcher
+   * before they get here.
+   */
+  private synchronized Wave fetchWave(String station, double t1, double t2) {
+    Wave sw = null;
+    try {
+      sw = data.getWave(station, t1, t2, 0);
+    } catch (UtilException e) {
+      LOGGER.warn("Cannot get wave for {}: {}", station, e.getMessage());
     }
+    if (sw != null && !sw.isData())
+      sw = null;
+    if (sw != null && sw.buffer != null && sw.buffer.length > 0)
+      CachedDataSource.getInstance().putWave(station, sw);
     return sw;
   }
 
@@ -76,15 +93,22 @@ public class DirectWWSSource extends SeismicDataSource {
       GulperListener gl) {
     CachedDataSource cache = CachedDataSource.getInstance();
     HelicorderData hd = cache.getHelicorder(station, t1, t2, this);
-    if (hd == null) {
+    if (hd == null && !cache.isKnownEmpty(station, t1, t2)) {
       try {
         hd = data.getHelicorderData(Scnl.parse(station), t1, t2, 0);
       } catch (UtilException e) {
+        LOGGER.warn("Cannot get helicorder for {}: {}", station, e.getMessage());
       }
-      if (hd != null && hd.rows() != 0)
+      if (hd == null) {
+        // an error, not an answer, so nothing is remembered and the next request tries again
+        return null;
+      }
+      if (hd.rows() != 0) {
         cache.putHelicorder(station, hd);
-      else
+      } else {
         hd = null;
+        cache.putEmpty(station, t1, t2);
+      }
     }
     return hd;
   }
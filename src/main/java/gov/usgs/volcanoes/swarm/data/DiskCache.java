@@ -0,0 +1,555 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+/**
+ * Second level cache which keeps waves and helicorders on disk between Swarm sessions.
+ *
+ * <p>Data is stored in one append-only file per channel, UTC day and data type, e.g.
+ * <code>AV.SPCP.--.EHZ/20170214.heli</code>. Each record is framed with a magic number and length
+ * and followed by a CRC32 of its payload. A record torn by a crash fails its checksum and the file
+ * is truncated back to the last good record the first time it is read, so a crash costs at most
+ * the record being written. Files are read with plain positioned reads and never held open, so
+ * they can be truncated and deleted on every platform.
+ *
+ * <p>The first read of a file indexes the span of each of its records. Writes skip any part of a
+ * span already on disk, so data spilled again after being read back is not stored twice. Reads
+ * hand out only the records overlapping the request, each only once;
+ * {@link #forget(String, double, double)} makes records loadable again after the memory copy is
+ * evicted. When the files outgrow the size cap the least recently written are deleted.
+ *
+ * <p>Each file has its own lock, held while it is indexed, read or written. The cache-wide lock
+ * only guards the map of files, so no file I/O happens while it is held and work on one channel
+ * never waits for another.
+ *
+ * @author Tom Parker
+ */
+public class DiskCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskCache.class);
+
+  private static final int MAGIC = 0x53574331;
+  private static final int HEADER_SIZE = 8;
+  private static final int TRAILER_SIZE = 8;
+  private static final double DAY = 24 * 60 * 60;
+
+  /** J2K seconds are counted from noon. */
+  private static final double MIDNIGHT_OFFSET = DAY / 2;
+
+  private static final String WAVE_SUFFIX = ".wave";
+  private static final String HELICORDER_SUFFIX = ".heli";
+
+  /** helicorder rows are one second apart. */
+  private static final double HELICORDER_PERIOD = 1;
+
+  /** trim to this fraction of the cap once it is exceeded. */
+  private static final double TRIM_FRACTION = 0.9;
+
+  private final File directory;
+  private final long maxSize;
+
+  // guarded by this
+  private final Map<String, FileIndex> indexes;
+
+  private final AtomicLong size;
+  private final AtomicBoolean trimming;
+
+  /**
+   * Constructor.
+   *
+   * @param directory cache directory, created if needed
+   * @param maxSize size cap in bytes
+   */
+  public DiskCache(final File directory, final long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+    indexes = new HashMap<String, FileIndex>();
+    size = new AtomicLong();
+    trimming = new AtomicBoolean();
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      LOGGER.error("Cannot create disk cache directory {}", directory);
+    }
+    for (final File file : listFiles()) {
+      size.addAndGet(file.length());
+    }
+    LOGGER.info("Disk cache at {} holds {} bytes", directory, size);
+  }
+
+  /**
+   * Write a wave. Parts already on disk are skipped.
+   *
+   * @param channel channel
+   * @param wave wave
+   */
+  public void putWave(final String channel, final Wave wave) {
+    final double slop = wave.getSamplingPeriod();
+    double t1 = wave.getStartTime();
+    while (t1 < wave.getEndTime()) {
+      final double t2 = Math.min(dayStart(t1) + DAY, wave.getEndTime());
+      final FileIndex fi = getIndex(getFile(channel, t1, WAVE_SUFFIX));
+      synchronized (fi) {
+        for (final double[] span : getMissing(fi, t1, t2, slop)) {
+          final Wave w = (span[0] == wave.getStartTime() && span[1] == wave.getEndTime()) ? wave
+              : wave.subset(span[0], span[1]);
+          if (w != null && w.numSamples() > 0) {
+            final ByteBuffer payload = ByteBuffer.allocate(20 + 4 * w.numSamples());
+            payload.putDouble(w.getStartTime());
+            payload.putDouble(w.getSamplingRate());
+            payload.putInt(w.numSamples());
+            payload.asIntBuffer().put(w.buffer, 0, w.numSamples());
+            append(fi, payload.array(), w.getStartTime(), w.getEndTime());
+          }
+        }
+      }
+      t1 = t2;
+    }
+    trimIfFull();
+  }
+
+  /**
+   * Write helicorder data. Parts already on disk are skipped.
+   *
+   * @param channel channel
+   * @param hd helicorder data
+   */
+  public void putHelicorder(final String channel, final HelicorderData hd) {
+    if (hd.getData() == null) {
+      return;
+    }
+
+    double t1 = hd.getStartTime();
+    while (t1 <= hd.getEndTime()) {
+      final double next = dayStart(t1) + DAY;
+      final FileIndex fi = getIndex(getFile(channel, t1, HELICORDER_SUFFIX));
+      synchronized (fi) {
+        for (final double[] span : getMissing(fi, t1, Math.min(next, hd.getEndTime()),
+            HELICORDER_PERIOD)) {
+          final HelicorderData part = hd.subset(span[0], span[1]);
+          final DoubleMatrix2D data = part == null ? null : part.getData();
+          if (data != null && data.rows() > 0) {
+            final ByteBuffer payload = ByteBuffer.allocate(4 + 24 * data.rows());
+            payload.putInt(data.rows());
+            for (int i = 0; i < data.rows(); i++) {
+              payload.putDouble(data.getQuick(i, 0));
+              payload.putDouble(data.getQuick(i, 1));
+              payload.putDouble(data.getQuick(i, 2));
+            }
+            append(fi, payload.array(), data.getQuick(0, 0),
+                data.getQuick(data.rows() - 1, 0));
+          }
+        }
+      }
+      t1 = next;
+    }
+    trimIfFull();
+  }
+
+  /**
+   * Read waves overlapping the given span which have not been handed out yet.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return waves, possibly empty
+   */
+  public List<Wave> loadWaves(final String channel, final double t1, final double t2) {
+    final List<Wave> waves = new ArrayList<Wave>();
+    for (final ByteBuffer payload : load(channel, t1, t2, WAVE_SUFFIX)) {
+      final double start = payload.getDouble();
+      final double samplingRate = payload.getDouble();
+      final int[] buffer = new int[payload.getInt()];
+      payload.asIntBuffer().get(buffer);
+      waves.add(new Wave(buffer, start, samplingRate));
+    }
+    return waves;
+  }
+
+  /**
+   * Read helicorder data overlapping the given span which has not been handed out yet.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return helicorder data, possibly empty
+   */
+  public List<HelicorderData> loadHelicorders(final String channel, final double t1,
+      final double t2) {
+    final List<HelicorderData> helis = new ArrayList<HelicorderData>();
+    for (final ByteBuffer payload : load(channel, t1, t2, HELICORDER_SUFFIX)) {
+      final int rows = payload.getInt();
+      final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 3);
+      for (int i = 0; i < rows; i++) {
+        data.setQuick(i, 0, payload.getDouble());
+        data.setQuick(i, 1, payload.getDouble());
+        data.setQuick(i, 2, payload.getDouble());
+      }
+      final HelicorderData hd = new HelicorderData();
+      hd.setData(data);
+      helis.add(hd);
+    }
+    return helis;
+  }
+
+  /**
+   * Allow the records overlapping a span to be loaded again, typically because their in-memory
+   * copy was evicted.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  public void forget(final String channel, final double t1, final double t2) {
+    for (double day = dayStart(t1); day <= t2; day += DAY) {
+      forget(getFile(channel, day, WAVE_SUFFIX), t1, t2);
+      forget(getFile(channel, day, HELICORDER_SUFFIX), t1, t2);
+    }
+  }
+
+  private void forget(final File file, final double t1, final double t2) {
+    final FileIndex fi;
+    synchronized (this) {
+      fi = indexes.get(file.getPath());
+    }
+    if (fi == null) {
+      return;
+    }
+    synchronized (fi) {
+      if (fi.records != null) {
+        for (final Record record : fi.records) {
+          if (record.t1 <= t2 && record.t2 >= t1) {
+            record.loaded = false;
+          }
+        }
+      }
+    }
+  }
+
+  private List<ByteBuffer> load(final String channel, final double t1, final double t2,
+      final String suffix) {
+    final List<ByteBuffer> payloads = new ArrayList<ByteBuffer>();
+    for (double day = dayStart(t1); day <= t2; day += DAY) {
+      final FileIndex fi = getIndex(getFile(channel, day, suffix));
+      synchronized (fi) {
+        final List<Record> wanted = new ArrayList<Record>();
+        for (final Record record : getRecords(fi)) {
+          if (!record.loaded && record.t1 <= t2 && record.t2 >= t1) {
+            wanted.add(record);
+          }
+        }
+        if (wanted.isEmpty()) {
+          continue;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(fi.file, "r")) {
+          final FileChannel fc = raf.getChannel();
+          for (final Record record : wanted) {
+            final ByteBuffer payload = ByteBuffer.allocate(record.length);
+            readFully(fc, payload, record.offset);
+            payload.flip();
+            payloads.add(payload);
+            record.loaded = true;
+          }
+        } catch (final IOException e) {
+          LOGGER.error("Cannot read disk cache file {}: {}", fi.file, e.getMessage());
+        }
+      }
+    }
+    return payloads;
+  }
+
+  /**
+   * Get the parts of a span not covered by records already in a file. Caller must hold the file
+   * lock.
+   */
+  private List<double[]> getMissing(final FileIndex fi, final double t1, final double t2,
+      final double slop) {
+    final List<Record> records = new ArrayList<Record>(getRecords(fi));
+    Collections.sort(records, new Comparator<Record>() {
+      public int compare(final Record r1, final Record r2) {
+        return Double.compare(r1.t1, r2.t1);
+      }
+    });
+
+    final List<double[]> missing = new ArrayList<double[]>();
+    double start = t1;
+    boolean covered = false;
+    for (final Record record : records) {
+      if (record.t2 < start || record.t1 > t2) {
+        continue;
+      }
+      if (record.t1 - start > slop) {
+        missing.add(new double[] {start, record.t1});
+      }
+      start = Math.max(start, record.t2);
+      covered = true;
+    }
+    if (!covered || t2 - start > slop) {
+      missing.add(new double[] {start, t2});
+    }
+    return missing;
+  }
+
+  /**
+   * Get the lock and index holder of a file. Only the map lookup happens under the cache lock.
+   */
+  private synchronized FileIndex getIndex(final File file) {
+    FileIndex fi = indexes.get(file.getPath());
+    if (fi == null) {
+      fi = new FileIndex(file);
+      indexes.put(file.getPath(), fi);
+    }
+    return fi;
+  }
+
+  /**
+   * Get the records of a file, indexing it on first use. Caller must hold the file lock.
+   */
+  private List<Record> getRecords(final FileIndex fi) {
+    if (fi.records == null) {
+      fi.records = fi.file.exists() ? index(fi.file) : new ArrayList<Record>();
+    }
+    return fi.records;
+  }
+
+  /**
+   * Append a record to a file. Caller must hold the file lock.
+   */
+  private void append(final FileIndex fi, final byte[] payload, final double t1,
+      final double t2) {
+    final File file = fi.file;
+    final CRC32 crc = new CRC32();
+    crc.update(payload);
+
+    final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length + TRAILER_SIZE);
+    record.putInt(MAGIC);
+    record.putInt(payload.length);
+    record.put(payload);
+    record.putLong(crc.getValue());
+    record.flip();
+
+    final File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      LOGGER.error("Cannot create disk cache directory {}", parent);
+      return;
+    }
+
+    final List<Record> records = getRecords(fi);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      final FileChannel channel = raf.getChannel();
+      final long offset = channel.size();
+      channel.position(offset);
+      while (record.hasRemaining()) {
+        channel.write(record);
+      }
+      channel.force(false);
+      size.addAndGet(record.limit());
+      records.add(new Record(offset + HEADER_SIZE, payload.length, t1, t2));
+    } catch (final IOException e) {
+      LOGGER.error("Cannot write to disk cache file {}: {}", file, e.getMessage());
+    }
+  }
+
+  /**
+   * Index all good records of a file, truncating any damaged tail. Caller must hold the file
+   * lock.
+   */
+  private List<Record> index(final File file) {
+    final boolean wave = file.getName().endsWith(WAVE_SUFFIX);
+    final List<Record> records = new ArrayList<Record>();
+    long good = 0;
+    long length = 0;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      final FileChannel channel = raf.getChannel();
+      length = channel.size();
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      final CRC32 crc = new CRC32();
+      while (length - good >= HEADER_SIZE) {
+        header.clear();
+        readFully(channel, header, good);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+          break;
+        }
+        final int payloadLength = header.getInt();
+        if (payloadLength < 0 || length - good - HEADER_SIZE < payloadLength + TRAILER_SIZE) {
+          break;
+        }
+        final ByteBuffer body = ByteBuffer.allocate(payloadLength + TRAILER_SIZE);
+        readFully(channel, body, good + HEADER_SIZE);
+        crc.reset();
+        crc.update(body.array(), 0, payloadLength);
+        if (body.getLong(payloadLength) != crc.getValue()) {
+          break;
+        }
+        final double t1;
+        final double t2;
+        if (wave) {
+          t1 = body.getDouble(0);
+          t2 = t1 + body.getInt(16) / body.getDouble(8);
+        } else {
+          final int rows = body.getInt(0);
+          t1 = rows > 0 ? body.getDouble(4) : Double.NaN;
+          t2 = rows > 0 ? body.getDouble(4 + 24 * (rows - 1)) : Double.NaN;
+        }
+        records.add(new Record(good + HEADER_SIZE, payloadLength, t1, t2));
+        good += HEADER_SIZE + payloadLength + TRAILER_SIZE;
+      }
+    } catch (final IOException e) {
+      LOGGER.error("Cannot read disk cache file {}: {}", file, e.getMessage());
+      return records;
+    }
+
+    if (good < length) {
+      LOGGER.warn("Truncating damaged disk cache file {} at {} of {} bytes", file, good, length);
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.getChannel().truncate(good);
+        size.addAndGet(good - length);
+      } catch (final IOException e) {
+        LOGGER.error("Cannot truncate disk cache file {}: {}", file, e.getMessage());
+      }
+    }
+    return records;
+  }
+
+  private static void readFully(final FileChannel channel, final ByteBuffer buffer,
+      final long position) throws IOException {
+    long pos = position;
+    while (buffer.hasRemaining()) {
+      final int n = channel.read(buffer, pos);
+      if (n < 0) {
+        throw new EOFException("Unexpected end of " + channel);
+      }
+      pos += n;
+    }
+  }
+
+  /**
+   * Trim the cache if it is over its cap and no other thread is trimming it already. Must be
+   * called without any file lock held.
+   */
+  private void trimIfFull() {
+    if (size.get() > maxSize && trimming.compareAndSet(false, true)) {
+      try {
+        trim();
+      } finally {
+        trimming.set(false);
+      }
+    }
+  }
+
+  /**
+   * Delete least recently written files until the cache is back under its cap.
+   */
+  private void trim() {
+    final List<File> files = listFiles();
+    Collections.sort(files, new Comparator<File>() {
+      public int compare(final File f1, final File f2) {
+        return Long.compare(f1.lastModified(), f2.lastModified());
+      }
+    });
+
+    final long target = (long) (maxSize * TRIM_FRACTION);
+    for (final File file : files) {
+      if (size.get() <= target) {
+        break;
+      }
+      final FileIndex fi = getIndex(file);
+      synchronized (fi) {
+        final long length = file.length();
+        if (file.delete()) {
+          size.addAndGet(-length);
+          fi.records = null;
+        }
+      }
+    }
+  }
+
+  private List<File> listFiles() {
+    final List<File> files = new ArrayList<File>();
+    final File[] channels = directory.listFiles();
+    if (channels == null) {
+      return files;
+    }
+    for (final File channel : channels) {
+      final File[] days = channel.listFiles();
+      if (days != null) {
+        files.addAll(Arrays.asList(days));
+      }
+    }
+    return files;
+  }
+
+  private File getFile(final String channel, final double time, final String suffix) {
+    final String dir = channel.replace('$', '.').replace(' ', '.').replaceAll("[^\\w.-]", "_");
+    final String name = J2kSec.format("yyyyMMdd", dayStart(time) + 1) + suffix;
+    return new File(new File(directory, dir), name);
+  }
+
+  /**
+   * Get the start of the UTC day containing a time.
+   */
+  private static double dayStart(final double time) {
+    return Math.floor((time + MIDNIGHT_OFFSET) / DAY) * DAY - MIDNIGHT_OFFSET;
+  }
+
+  /**
+   * Lock and lazily built index of one file.
+   */
+  private static class FileIndex {
+    final File file;
+
+    // guarded by this; null until the file is first indexed
+    List<Record> records;
+
+    FileIndex(final File file) {
+      this.file = file;
+    }
+  }
+
+  /**
+   * Location and span of one record in a file. Guarded by the lock of its file.
+   */
+  private static class Record {
+    final long offset;
+    final int length;
+    final double t1;
+    final double t2;
+    boolean loaded;
+
+    Record(final long offset, final int length, final double t1, final double t2) {
+      this.offset = offset;
+      this.length = length;
+      this.t1 = t1;
+      this.t2 = t2;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers spans a data source answered with no data, so a dead channel is not asked for the
+ * same empty span on every refresh.
+ *
+ * <p>Spans expire after a short time to let late data through, and are cut back as soon as data
+ * for them arrives by any other route.
+ *
+ * @author Tom Parker
+ */
+public class EmptySpanCache {
+
+  private final long ttl;
+
+  // per channel, start to span, non-overlapping
+  private final ConcurrentMap<String, TreeMap<Double, Span>> spans;
+
+  /**
+   * Constructor.
+   *
+   * @param ttl time to remember a span in milliseconds
+   */
+  public EmptySpanCache(final long ttl) {
+    this.ttl = ttl;
+    spans = new ConcurrentHashMap<String, TreeMap<Double, Span>>();
+  }
+
+  /**
+   * Remember that a span has no data.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  public void put(final String channel, final double t1, final double t2) {
+    if (t2 <= t1) {
+      return;
+    }
+
+    TreeMap<Double, Span> channelSpans = spans.get(channel);
+    if (channelSpans == null) {
+      final TreeMap<Double, Span> newSpans = new TreeMap<Double, Span>();
+      channelSpans = spans.putIfAbsent(channel, newSpans);
+      if (channelSpans == null) {
+        channelSpans = newSpans;
+      }
+    }
+    synchronized (channelSpans) {
+      cut(channelSpans, t1, t2);
+      channelSpans.put(t1, new Span(t2, System.currentTimeMillis() + ttl));
+    }
+  }
+
+  /**
+   * Forget any empty spans overlapping a span, typically because data for it has arrived.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   */
+  public void invalidate(final String channel, final double t1, final double t2) {
+    final TreeMap<Double, Span> channelSpans = spans.get(channel);
+    if (channelSpans == null) {
+      return;
+    }
+    synchronized (channelSpans) {
+      cut(channelSpans, t1, t2);
+    }
+  }
+
+  /**
+   * Check whether a whole span is known to have no data.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return true if the span is known empty
+   */
+  public boolean contains(final String channel, final double t1, final double t2) {
+    final List<double[]> span = new ArrayList<double[]>();
+    span.add(new double[] {t1, t2});
+    return subtract(channel, span, 0).isEmpty();
+  }
+
+  /**
+   * Remove the known empty parts from a list of spans.
+   *
+   * @param channel channel
+   * @param wanted start and end time pairs, in time order
+   * @param slop remaining pieces this short or shorter are dropped
+   * @return start and end time pairs not known to be empty, in time order
+   */
+  public List<double[]> subtract(final String channel, final List<double[]> wanted,
+      final double slop) {
+    final TreeMap<Double, Span> channelSpans = spans.get(channel);
+    if (channelSpans == null) {
+      return wanted;
+    }
+
+    final List<double[]> remaining = new ArrayList<double[]>();
+    synchronized (channelSpans) {
+      final long now = System.currentTimeMillis();
+      for (final double[] span : wanted) {
+        double start = span[0];
+        Double from = channelSpans.floorKey(start);
+        if (from == null) {
+          from = start;
+        }
+        final Iterator<Map.Entry<Double, Span>> it =
+            channelSpans.subMap(from, true, span[1], false).entrySet().iterator();
+        while (it.hasNext()) {
+          final Map.Entry<Double, Span> entry = it.next();
+          final Span empty = entry.getValue();
+          if (empty.expires < now) {
+            it.remove();
+            continue;
+          }
+          if (empty.t2 <= start) {
+            continue;
+          }
+          if (entry.getKey() - start > slop) {
+            remaining.add(new double[] {start, entry.getKey()});
+          }
+          start = Math.max(start, empty.t2);
+        }
+        if (span[1] - start > slop) {
+          remaining.add(new double[] {start, span[1]});
+        }
+      }
+      if (channelSpans.isEmpty()) {
+        spans.remove(channel, channelSpans);
+      }
+    }
+    return remaining;
+  }
+
+  /**
+   * Forget everything.
+   */
+  public void clear() {
+    spans.clear();
+  }
+
+  /**
+   * Remove a span from the spans held. Caller must hold the lock on channelSpans.
+   */
+  private static void cut(final TreeMap<Double, Span> channelSpans, final double t1,
+      final double t2) {
+    final Map.Entry<Double, Span> before = channelSpans.lowerEntry(t1);
+    if (before != null && before.getValue().t2 > t1) {
+      final Span span = before.getValue();
+      channelSpans.put(before.getKey(), new Span(t1, span.expires));
+      if (span.t2 > t2) {
+        channelSpans.put(t2, new Span(span.t2, span.expires));
+      }
+    }
+
+    final Iterator<Map.Entry<Double, Span>> it =
+        channelSpans.subMap(t1, true, t2, false).entrySet().iterator();
+    while (it.hasNext()) {
+      final Map.Entry<Double, Span> entry = it.next();
+      it.remove();
+      final Span span = entry.getValue();
+      if (span.t2 > t2) {
+        channelSpans.put(t2, new Span(span.t2, span.expires));
+        break;
+      }
+    }
+  }
+
+  private static class Span {
+    private final double t2;
+    private final long expires;
+
+    private Span(final double t2, final long expires) {
+      this.t2 = t2;
+      this.expires = expires;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource.CacheEntry;
+
+/**
+ * Decides which cache entry to give up when a caching data source is over its size limit.
+ *
+ * <p>The cache tells the policy about every entry it indexes, hits and drops. Implementations must
+ * be thread safe. They are called while the caller holds a channel lock and so must never call
+ * back into the cache.
+ *
+ * @author Tom Parker
+ */
+public interface EvictionPolicy {
+
+  /**
+   * Called when an entry is added to the cache.
+   *
+   * @param entry new entry
+   */
+  public void onAdd(CacheEntry entry);
+
+  /**
+   * Called when a cached entry is used to answer a request.
+   *
+   * @param entry entry hit
+   */
+  public void onAccess(CacheEntry entry);
+
+  /**
+   * Called when an entry leaves the cache for any reason.
+   *
+   * @param entry removed entry
+   */
+  public void onRemove(CacheEntry entry);
+
+  /**
+   * Choose the next entry to evict and stop tracking it.
+   *
+   * @return entry to evict or null if there is nothing left
+   */
+  public CacheEntry nextVictim();
+
+  /**
+   * Forget all entries.
+   */
+  public void clear();
+}
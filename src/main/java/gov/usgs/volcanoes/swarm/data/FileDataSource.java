@@ -239,18 +239,20 @@ public class FileDataSource extends AbstractCachingDataSource {
   @Override
   public Wave getWave(final String station, final double t1, final double t2) {
     Wave wave;
-    final List<CachedWave> waves = waveCache.get(station.replace(' ', '$'));
+    final CacheIndex<CachedWave> waves = waveCache.get(station.replace(' ', '$'));
     if (waves == null) {
       return null;
     } else {
       final List<Wave> parts = new ArrayList<Wave>();
       double minT = 1E300;
       double maxT = -1E300;
-      for (final CachedWave cw : waves) {
-        if (cw.wave.overlaps(t1, t2)) {
-          parts.add(cw.wave);
-          minT = Math.min(minT, cw.t1);
-          maxT = Math.max(maxT, cw.t2);
+      synchronized (waves) {
+        for (final CachedWave cw : waves.getOverlapping(t1, t2)) {
+          if (cw.t1 <= t2 && cw.t2 >= t1) {
+            parts.add(cw.getWave());
+            minT = Math.min(minT, cw.t1);
+            maxT = Math.max(maxT, cw.t2);
+          }
         }
       }
 
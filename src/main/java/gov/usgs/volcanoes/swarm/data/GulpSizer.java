@@ -0,0 +1,213 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Adapts gulp chunk size and delay to how fast a data source answers.
+ *
+ * <p>Chunks grow or shrink so a request takes about {@link #TARGET_LATENCY} ms, at most doubling
+ * or halving each time, and the delay between chunks is kept to a fraction of the request time, so
+ * a fast server is backfilled quickly and a slow one is not swamped. The bytes each second of data
+ * takes are tracked as well, and chunk and delay are held down so one gulper pulls no more than
+ * {@link #TARGET_BYTES_PER_SECOND} from its source however quickly the source answers. A failed
+ * request halves the chunk and doubles the delay. Only requests which reached the source should
+ * be recorded; cache hits say nothing about it. All gulpers of one source share a sizer, starting
+ * from the size and delay in the source's configuration.
+ *
+ * <p>Sizes and delays stay within the bounds set by
+ * {@link #setBounds(boolean, int, int, int, int)}. When adaptive gulping is turned off no sizer
+ * is handed out and gulpers use their configured values.
+ *
+ * @author Tom Parker
+ */
+public class GulpSizer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GulpSizer.class);
+
+  /** aim for requests this long, in ms. */
+  public static final long TARGET_LATENCY = 2000;
+
+  /** most bytes a gulper should pull from its source each second. */
+  public static final double TARGET_BYTES_PER_SECOND = 512 * 1024;
+
+  /** delay between chunks as a fraction of request time. */
+  private static final double DELAY_RATIO = 0.5;
+
+  /** weight of the newest observation. */
+  private static final double ALPHA = 0.3;
+
+  private static volatile boolean adaptive = true;
+  private static volatile int minSize = 60;
+  private static volatile int maxSize = 4 * 60 * 60;
+  private static volatile int minDelay = 0;
+  private static volatile int maxDelay = 10 * 1000;
+
+  private static final ConcurrentMap<String, GulpSizer> sizers =
+      new ConcurrentHashMap<String, GulpSizer>();
+
+  private final String name;
+  private int size;
+  private int delay;
+  private double latency = -1;
+  private double bytesPerSecond = -1;
+  private double bytesPerDataSecond = -1;
+
+  private GulpSizer(final String name, final int size, final int delay) {
+    this.name = name;
+    this.size = clamp(size, minSize, maxSize);
+    this.delay = clamp(delay, minDelay, maxDelay);
+  }
+
+  /**
+   * Set the bounds for all sizers and turn adaptive gulping on or off. Sizers already handed out
+   * keep their current values until their next observation.
+   *
+   * @param adapt false to gulp with the configured size and delay
+   * @param minGulpSize smallest chunk in seconds
+   * @param maxGulpSize largest chunk in seconds
+   * @param minGulpDelay shortest delay in ms
+   * @param maxGulpDelay longest delay in ms
+   */
+  public static void setBounds(final boolean adapt, final int minGulpSize, final int maxGulpSize,
+      final int minGulpDelay, final int maxGulpDelay) {
+    // chunks overlap by 10 s, so anything shorter would never make progress
+    minSize = Math.max(20, minGulpSize);
+    maxSize = Math.max(minSize, maxGulpSize);
+    minDelay = Math.max(0, minGulpDelay);
+    maxDelay = Math.max(minDelay, maxGulpDelay);
+    adaptive = adapt;
+  }
+
+  /**
+   * Get the sizer shared by gulpers of a data source.
+   *
+   * @param source data source
+   * @param size configured chunk size in seconds
+   * @param delay configured delay in ms
+   * @return sizer or null if adaptive gulping is off
+   */
+  public static GulpSizer getSizer(final SeismicDataSource source, final int size,
+      final int delay) {
+    if (!adaptive) {
+      return null;
+    }
+
+    // wave server gulpers work on copies of their source, so go by name
+    final String key = source.getClass().getName() + ":" + source.getName();
+    GulpSizer sizer = sizers.get(key);
+    if (sizer == null) {
+      final GulpSizer newSizer = new GulpSizer(source.getName(), size, delay);
+      sizer = sizers.putIfAbsent(key, newSizer);
+      if (sizer == null) {
+        sizer = newSizer;
+      }
+    }
+    return sizer;
+  }
+
+  /**
+   * Get the chunk size to use next.
+   *
+   * @return size in seconds
+   */
+  public synchronized int getSize() {
+    return size;
+  }
+
+  /**
+   * Get the delay to use before the next chunk.
+   *
+   * @return delay in ms
+   */
+  public synchronized int getDelay() {
+    return delay;
+  }
+
+  /**
+   * Get the smoothed request time.
+   *
+   * @return ms or -1 if nothing has been observed
+   */
+  public synchronized double getLatency() {
+    return latency;
+  }
+
+  /**
+   * Get the smoothed transfer rate.
+   *
+   * @return bytes per second or -1 if nothing has been observed
+   */
+  public synchronized double getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  /**
+   * Get the smoothed size of one second of data.
+   *
+   * @return bytes or -1 if nothing has been observed
+   */
+  public synchronized double getBytesPerDataSecond() {
+    return bytesPerDataSecond;
+  }
+
+  /**
+   * Record a request which went to the source and adjust size and delay.
+   *
+   * @param span requested span in seconds
+   * @param millis time the request took
+   * @param wave wave returned or null if none
+   */
+  public synchronized void record(final double span, final long millis, final Wave wave) {
+    final long elapsed = Math.max(1, millis);
+    latency = latency < 0 ? elapsed : latency + ALPHA * (elapsed - latency);
+    if (wave != null && wave.numSamples() > 0) {
+      final double rate = wave.getMemorySize() * 1000.0 / elapsed;
+      bytesPerSecond =
+          bytesPerSecond < 0 ? rate : bytesPerSecond + ALPHA * (rate - bytesPerSecond);
+      final double density = wave.getMemorySize() / Math.max(1, span);
+      bytesPerDataSecond = bytesPerDataSecond < 0 ? density
+          : bytesPerDataSecond + ALPHA * (density - bytesPerDataSecond);
+    }
+
+    // scale the chunk actually requested, which may predate the last change
+    double scaled = span * TARGET_LATENCY / latency;
+    scaled = Math.max(size / 2.0, Math.min(size * 2.0, scaled));
+    double wait = latency * DELAY_RATIO;
+    if (bytesPerDataSecond > 0) {
+      // no more data per chunk than the byte rate allows over the target request time
+      scaled = Math.min(scaled,
+          TARGET_BYTES_PER_SECOND * TARGET_LATENCY / 1000 / bytesPerDataSecond);
+      // and wait long enough that chunk after chunk stays under the byte rate
+      final double chunkMillis = scaled * bytesPerDataSecond * 1000 / TARGET_BYTES_PER_SECOND;
+      wait = Math.max(wait, chunkMillis - latency);
+    }
+    size = clamp((int) scaled, minSize, maxSize);
+    delay = clamp((int) wait, minDelay, maxDelay);
+    LOGGER.debug("{}: {} ms, {} B/s, {} B per data s, gulping {} s every {} ms", name,
+        (long) latency, (long) bytesPerSecond, (long) bytesPerDataSecond, size, delay);
+  }
+
+  /**
+   * Record a failed request and back off.
+   */
+  public synchronized void recordFailure() {
+    size = clamp(size / 2, minSize, maxSize);
+    delay = clamp(Math.max(delay * 2, 1000), minDelay, maxDelay);
+    LOGGER.debug("{}: request failed, gulping {} s every {} ms", name, size, delay);
+  }
+
+  private static int clamp(final int value, final int min, final int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+}
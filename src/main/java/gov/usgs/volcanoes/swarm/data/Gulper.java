@@ -3,17 +3,21 @@ package gov.usgs.volcanoes.swarm.data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 
 /**
+ * Backfills one channel a chunk at a time, working back from the end of the requested span.
+ *
+ * <p>Gulpers do not own threads. Once started, a gulper is stepped by the shared
+ * {@link GulperScheduler}, one chunk per step, until {@link #gulp()} reports it is done.
  *
  * @author Dan Cervelli
  */
-public class Gulper implements Runnable {
+public class Gulper {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Gulper.class);
 
@@ -22,12 +26,14 @@ public class Gulper implements Runnable {
   private final String channel;
   private double lastTime;
   private double goalTime;
-  private Thread thread;
+  private volatile boolean running;
+  private boolean started;
   private final String key;
   private final Set<GulperListener> listeners;
 
   private final int gulpSize;
   private final int gulpDelay;
+  private final GulpSizer sizer;
 
   /**
    * Create the gulper. This does not call methods to support subclassing.
@@ -44,10 +50,11 @@ public class Gulper implements Runnable {
       final String ch, final double t1, final double t2, final int size, final int delay) {
     gulpSize = size;
     gulpDelay = delay;
+    sizer = GulpSizer.getSizer(source, size, delay);
     gulperList = gl;
     gulpSource = source;
     key = k;
-    listeners = new HashSet<GulperListener>();
+    listeners = new CopyOnWriteArraySet<GulperListener>();
     channel = ch;
     lastTime = t2;
 
@@ -90,6 +97,24 @@ public class Gulper implements Runnable {
     listeners.remove(gl);
   }
 
+  /**
+   * Get the priority of the most urgent listener. This takes no lock, as the scheduler asks while
+   * holding its own.
+   *
+   * @return priority, {@link GulperPriority#PREFETCH} if nobody is listening
+   */
+  public GulperPriority getPriority() {
+    GulperPriority priority = GulperPriority.PREFETCH;
+    for (final GulperListener listener : listeners) {
+      if (listener instanceof PrioritizedGulperListener) {
+        priority = priority.max(((PrioritizedGulperListener) listener).getGulperPriority());
+      } else {
+        priority = priority.max(GulperPriority.VISIBLE);
+      }
+    }
+    return priority;
+  }
+
   public String getChannel() {
     return channel;
   }
@@ -98,16 +123,36 @@ public class Gulper implements Runnable {
     return key;
   }
 
+  public SeismicDataSource getSource() {
+    return gulpSource;
+  }
+
+  /**
+   * Get the chunk size, adapted to the source if adaptive gulping is on.
+   *
+   * @return size in seconds
+   */
+  public int getGulpSize() {
+    return sizer == null ? gulpSize : sizer.getSize();
+  }
+
+  /**
+   * Get the delay between chunks, adapted to the source if adaptive gulping is on.
+   *
+   * @return delay in ms
+   */
+  public int getGulpDelay() {
+    return sizer == null ? gulpDelay : sizer.getDelay();
+  }
+
   /**
-   * Kill this gulper.
+   * Kill this gulper. The scheduler finishes it at its next step, which is brought forward if the
+   * gulper is waiting out its delay.
    */
   protected void kill() {
-    // use local copy to ensure it isn't changed elsewhere,
-    // no need to lock since OK to have multiple calls to Thread.interrupt
-    final Thread t = thread;
-    if (t != null) {
-      thread = null;
-      t.interrupt();
+    if (running) {
+      running = false;
+      GulperScheduler.INSTANCE.wake(this);
     }
   }
 
@@ -117,7 +162,7 @@ public class Gulper implements Runnable {
    * @return true if the gulper has been killed or was never started.
    */
   public boolean isKilled() {
-    return thread == null;
+    return !running;
   }
 
   public void kill(final GulperListener gl) {
@@ -127,9 +172,12 @@ public class Gulper implements Runnable {
     }
   }
 
+  /**
+   * Hand this gulper to the scheduler.
+   */
   public void start() {
-    thread = new Thread(this);
-    thread.start();
+    running = true;
+    GulperScheduler.INSTANCE.add(this);
     LOGGER.debug("gulper started for {}", channel);
   }
 
@@ -139,9 +187,10 @@ public class Gulper implements Runnable {
       lastTime = t2;
     goalTime = t1;
 
-    while (cache.inHelicorderCache(channel, lastTime - gulpSize, lastTime) && lastTime > goalTime
+    final int size = getGulpSize();
+    while (cache.inHelicorderCache(channel, lastTime - size, lastTime) && lastTime > goalTime
         && !isKilled()) {
-      lastTime -= gulpSize;
+      lastTime -= size;
       lastTime += 10;
     }
   }
@@ -166,43 +215,69 @@ public class Gulper implements Runnable {
       listener.gulperStopped(killed);
   }
 
-  public void run() {
-    fireStarted();
-    runLoop();
-    gulpSource.close();
+  /**
+   * Take one step. Called by the scheduler.
+   *
+   * @return ms until the next step, negative when done
+   */
+  long step() {
+    if (!started) {
+      started = true;
+      fireStarted();
+    }
     if (isKilled())
-      LOGGER.debug("gulper killed");
-    else
-      LOGGER.debug("gulper finished");
+      return -1;
+    final long delay = gulp();
+    return isKilled() ? -1 : delay;
+  }
+
+  /**
+   * Clean up once the scheduler is done with this gulper.
+   */
+  void finish() {
+    gulpSource.close();
+    LOGGER.debug("gulper {} for {}", isKilled() ? "killed" : "finished", channel);
     gulperList.removeGulper(this);
     fireStopped();
   }
 
   /**
-   * This is the run loop which a subclass may override.
+   * Gulp one chunk. A subclass may override this.
+   *
+   * @return ms to wait before the next chunk, negative if there is nothing left to gulp
    */
-  protected void runLoop() {
-    while (lastTime > goalTime && !isKilled()) {
-      try {
-        final double t1 = lastTime - gulpSize;
-        final double t2 = lastTime;
-        final Wave w = gulpSource.getWave(channel, t1, t2);
-        fireGulped(t1, t2, w);
-        update(goalTime, lastTime - gulpSize + 10);
-      } catch (final Throwable e) {
-        System.err.println("Exception during gulp:");
-        e.printStackTrace();
-      }
-      delay();
-    }
-  }
+  protected long gulp() {
+    if (lastTime <= goalTime)
+      return -1;
 
-  protected void delay() {
-    if (!isKilled())
-      try {
-        Thread.sleep(gulpDelay);
-      } catch (final InterruptedException ignore) {
+    final int size = getGulpSize();
+    try {
+      final double t1 = lastTime - size;
+      final double t2 = lastTime;
+      // a chunk which recently came back empty is skipped without waiting
+      if (CachedDataSource.getInstance().isKnownEmpty(channel, t1, t2)) {
+        fireGulped(t1, t2, false);
+        update(goalTime, lastTime - size + 10);
+        return 0;
+      }
+      // only requests which reach the source tell the sizer anything about it
+      final boolean cached =
+          sizer != null && CachedDataSource.getInstance().inWaveCache(channel, t1, t2);
+      final long start = System.currentTimeMillis();
+      final Wave w = gulpSource.getWave(channel, t1, t2);
+      if (sizer != null && !cached) {
+        sizer.record(t2 - t1, System.currentTimeMillis() - start, w);
       }
+      fireGulped(t1, t2, w);
+      update(goalTime, lastTime - size + 10);
+    } catch (final Throwable e) {
+      if (sizer != null) {
+        sizer.recordFailure();
+      }
+      System.err.println("Exception during gulp:");
+      e.printStackTrace();
+    }
+    return lastTime > goalTime ? getGulpDelay() : -1;
   }
 
   @Override
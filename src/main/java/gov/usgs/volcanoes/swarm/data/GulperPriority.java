@@ -0,0 +1,36 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * How urgently a gulper's data is wanted, most urgent first.
+ *
+ * @author Tom Parker
+ */
+public enum GulperPriority {
+  /** the frame the user is working in. */
+  FOCUSED,
+
+  /** a frame on screen. */
+  VISIBLE,
+
+  /** a frame which is iconified or showing data from well in the past. */
+  HIDDEN,
+
+  /** data nobody is looking at yet. */
+  PREFETCH;
+
+  /**
+   * Get the more urgent of two priorities.
+   *
+   * @param other other priority
+   * @return the more urgent priority
+   */
+  public GulperPriority max(final GulperPriority other) {
+    return other.ordinal() < ordinal() ? other : this;
+  }
+}
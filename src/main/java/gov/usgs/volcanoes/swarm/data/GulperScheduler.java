@@ -0,0 +1,333 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+/**
+ * Runs every {@link Gulper} on a small shared pool of threads.
+ *
+ * <p>A gulper is stepped one chunk at a time. After each chunk it waits out its gulp delay on the
+ * {@link DataExecutor} timer, not on a thread, and then joins the back of the ready queue, so
+ * gulpers take turns round-robin. At most {@link #WORKERS} chunks are fetched at once across all
+ * sources, and no more from one source than its connection limit,
+ * {@link SeismicDataSource#getMaxConnections()}, allows: one for a wave server, the pool size for
+ * a Winston wave server.
+ *
+ * <p>Ready gulpers are started most urgent first by {@link Gulper#getPriority()}. A running chunk
+ * is never interrupted, but a more urgent gulper takes the next free slot on its source, so the
+ * focused helicorder fills first when the network is the bottleneck.
+ *
+ * @author Tom Parker
+ */
+public final class GulperScheduler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GulperScheduler.class);
+
+  /** chunks fetched at once across all sources. */
+  public static final int WORKERS = 8;
+
+  /** idle threads are let go after this many seconds. */
+  private static final long KEEP_ALIVE = 60;
+
+  public static final GulperScheduler INSTANCE = new GulperScheduler(WORKERS);
+
+  private final ThreadPoolExecutor executor;
+  private final int maxWorkers;
+
+  // guarded by this
+  private final Deque<Gulper> ready;
+  private final Map<Gulper, ScheduledFuture<?>> waiting;
+  private final Map<String, Integer> activeBySource;
+  private int active;
+
+  /**
+   * Constructor.
+   *
+   * @param maxWorkers chunks fetched at once
+   */
+  GulperScheduler(final int maxWorkers) {
+    this.maxWorkers = maxWorkers;
+    ready = new ArrayDeque<Gulper>();
+    waiting = new HashMap<Gulper, ScheduledFuture<?>>();
+    activeBySource = new HashMap<String, Integer>();
+    executor = new ThreadPoolExecutor(maxWorkers, maxWorkers, KEEP_ALIVE, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Gulper " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Start stepping a gulper.
+   *
+   * @param gulper gulper
+   */
+  public synchronized void add(final Gulper gulper) {
+    ready.addLast(gulper);
+    dispatch();
+  }
+
+  /**
+   * Step a waiting gulper now rather than after its delay, typically because it was killed.
+   *
+   * @param gulper gulper
+   */
+  public synchronized void wake(final Gulper gulper) {
+    final ScheduledFuture<?> wakeup = waiting.remove(gulper);
+    if (wakeup != null && wakeup.cancel(false)) {
+      ready.addLast(gulper);
+      dispatch();
+    }
+  }
+
+  /**
+   * Get the number of gulpers being stepped or waiting for their turn.
+   *
+   * @return gulper count
+   */
+  public synchronized int getGulperCount() {
+    return active + ready.size() + waiting.size();
+  }
+
+  /**
+   * Start as many ready gulpers as the worker and per-source limits allow, most urgent first and
+   * in queue order within a priority. A gulper waiting out its delay holds its place on its
+   * source against less urgent gulpers, so they cannot take every slot while it waits. Caller
+   * must hold the lock.
+   */
+  private void dispatch() {
+    if (active >= maxWorkers || ready.isEmpty()) {
+      return;
+    }
+
+    final Map<String, int[]> held = new HashMap<String, int[]>();
+    for (final Gulper gulper : waiting.keySet()) {
+      final String source = getSourceKey(gulper);
+      int[] counts = held.get(source);
+      if (counts == null) {
+        counts = new int[GulperPriority.values().length];
+        held.put(source, counts);
+      }
+      counts[gulper.getPriority().ordinal()]++;
+    }
+
+    // priorities change as frames are focused and hidden, so take them once per pass
+    final Map<Gulper, GulperPriority> priorities = new HashMap<Gulper, GulperPriority>();
+    for (final Gulper gulper : ready) {
+      priorities.put(gulper, gulper.getPriority());
+    }
+    final List<Gulper> candidates = new ArrayList<Gulper>(ready);
+    Collections.sort(candidates, new Comparator<Gulper>() {
+      public int compare(final Gulper g1, final Gulper g2) {
+        return priorities.get(g1).compareTo(priorities.get(g2));
+      }
+    });
+
+    for (final Gulper gulper : candidates) {
+      if (active >= maxWorkers) {
+        break;
+      }
+      final String source = getSourceKey(gulper);
+      final Integer sourceActive = activeBySource.get(source);
+      final int count = sourceActive == null ? 0 : sourceActive;
+      int reserved = 0;
+      final int[] counts = held.get(source);
+      if (counts != null) {
+        for (int i = 0; i < priorities.get(gulper).ordinal(); i++) {
+          reserved += counts[i];
+        }
+      }
+      if (count + reserved >= Math.min(maxWorkers, gulper.getSource().getMaxConnections())) {
+        continue;
+      }
+
+      ready.remove(gulper);
+      active++;
+      activeBySource.put(source, count + 1);
+      executor.execute(new Runnable() {
+        public void run() {
+          step(gulper, source);
+        }
+      });
+    }
+  }
+
+  private void step(final Gulper gulper, final String source) {
+    long delay = -1;
+    try {
+      delay = gulper.step();
+    } catch (final Throwable e) {
+      LOGGER.error("Gulper for {} failed", gulper.getChannel(), e);
+    }
+
+    synchronized (this) {
+      active--;
+      final int count = activeBySource.get(source) - 1;
+      if (count == 0) {
+        activeBySource.remove(source);
+      } else {
+        activeBySource.put(source, count);
+      }
+
+      if (delay == 0) {
+        ready.addLast(gulper);
+      } else if (delay > 0) {
+        waiting.put(gulper, DataExecutor.schedule(new Runnable() {
+          public void run() {
+            synchronized (GulperScheduler.this) {
+              if (waiting.remove(gulper) != null) {
+                ready.addLast(gulper);
+                dispatch();
+              }
+            }
+          }
+        }, delay));
+      }
+      dispatch();
+    }
+
+    if (delay < 0) {
+      gulper.finish();
+    }
+  }
+
+  private static String getSourceKey(final Gulper gulper) {
+    // wave server gulpers work on copies of their source, so go by name
+    return gulper.getSource().getClass().getName() + ":" + gulper.getSource().getName();
+  }
+
+  /**
+   * Compare backfill time and thread count of a thread per gulper against the shared scheduler,
+   * using a source which answers after a fixed latency.
+   *
+   * @param args channels, chunks per channel, latency ms and gulp delay ms, all optional
+   * @throws InterruptedException if interrupted
+   */
+  public static void main(final String[] args) throws InterruptedException {
+    final int channels = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+    final int chunks = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    final long latency = args.length > 2 ? Long.parseLong(args[2]) : 50;
+    final int gulpDelay = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+    final int gulpSize = 600;
+
+    final SeismicDataSource source = new SeismicDataSource() {
+      public List<String> getChannels() {
+        return null;
+      }
+
+      public void parse(final String params) {}
+
+      public Wave getWave(final String station, final double t1, final double t2) {
+        try {
+          Thread.sleep(latency);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return null;
+      }
+
+      public HelicorderData getHelicorder(final String station, final double t1,
+          final double t2, final GulperListener gl) {
+        return null;
+      }
+
+      public String toConfigString() {
+        return "benchmark:";
+      }
+    };
+    source.setName("benchmark");
+
+    final int baseThreads = Thread.activeCount();
+
+    // the old design, one sleeping thread per channel
+    long start = System.nanoTime();
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < channels; i++) {
+      final Thread thread = new Thread(new Runnable() {
+        public void run() {
+          for (int chunk = 0; chunk < chunks; chunk++) {
+            source.getWave("BENCH", 0, gulpSize);
+            try {
+              Thread.sleep(gulpDelay);
+            } catch (final InterruptedException e) {
+              return;
+            }
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    final int threadPeakThreads = Thread.activeCount() - baseThreads;
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    final long threadMillis = (System.nanoTime() - start) / 1000000;
+
+    // the shared scheduler, with fixed chunks so the two are comparable
+    GulpSizer.setBounds(false, gulpSize, gulpSize, gulpDelay, gulpDelay);
+    final GulperScheduler scheduler = new GulperScheduler(WORKERS);
+    final CountDownLatch done = new CountDownLatch(channels);
+    final double end = J2kSec.now();
+    start = System.nanoTime();
+    int schedulerPeakThreads = 0;
+    for (int i = 0; i < channels; i++) {
+      final Gulper gulper = new Gulper(GulperList.INSTANCE, "bench" + i, source, "BENCH" + i,
+          end - chunks * (gulpSize - 10), end, gulpSize, gulpDelay) {
+        @Override
+        public boolean isKilled() {
+          return false;
+        }
+
+        @Override
+        void finish() {
+          done.countDown();
+        }
+      };
+      gulper.update(end - chunks * (gulpSize - 10), end);
+      scheduler.add(gulper);
+    }
+    while (!done.await(10, TimeUnit.MILLISECONDS)) {
+      schedulerPeakThreads = Math.max(schedulerPeakThreads, Thread.activeCount() - baseThreads);
+    }
+    final long schedulerMillis = (System.nanoTime() - start) / 1000000;
+
+    System.out.println(channels + " channels, " + chunks + " chunks, " + latency
+        + " ms latency, " + gulpDelay + " ms delay");
+    System.out.println("thread per gulper: " + threadMillis + " ms, " + threadPeakThreads
+        + " threads");
+    System.out.println("shared scheduler:  " + schedulerMillis + " ms, " + schedulerPeakThreads
+        + " threads");
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+
+/**
+ * Coarse min/max summaries of one channel's helicorder data.
+ *
+ * <p>One second helicorder rows are folded into levels of {@link #LEVELS} second bins as they
+ * arrive, so a long span can be drawn from a few thousand rows without the one second data, which
+ * may long since have been evicted. Bins are stored as floats in fixed size chunks; a month of ten
+ * second bins takes about 2 MB.
+ *
+ * <p>The pyramid also remembers which spans it has seen data for, so callers can tell a quiet
+ * channel from one that was never fetched.
+ *
+ * @author Tom Parker
+ */
+public class HelicorderPyramid {
+
+  /** bin sizes in seconds, finest first. */
+  public static final int[] LEVELS = new int[] {10, 60, 600};
+
+  private static final int CHUNK_BINS = 1024;
+
+  /** rough bytes per chunk beyond its bins: array header, map entry and key. */
+  private static final int CHUNK_OVERHEAD = 64;
+
+  /** rough bytes per coverage span. */
+  private static final int ENTRY_OVERHEAD = 80;
+
+  /** fed spans closer than this many seconds are treated as one. */
+  private static final double MERGE_GAP = 2;
+
+  // per level, chunk index to interleaved min/max, NaN where empty
+  private final Map<Long, float[]>[] levels;
+
+  // start to end of spans fed, non-overlapping
+  private final TreeMap<Double, Double> coverage;
+
+  /**
+   * Constructor.
+   */
+  @SuppressWarnings("unchecked")
+  public HelicorderPyramid() {
+    levels = new Map[LEVELS.length];
+    for (int i = 0; i < LEVELS.length; i++) {
+      levels[i] = new TreeMap<Long, float[]>();
+    }
+    coverage = new TreeMap<Double, Double>();
+  }
+
+  /**
+   * Fold one second helicorder rows into every level.
+   *
+   * @param hd helicorder data
+   */
+  public synchronized void add(final HelicorderData hd) {
+    final DoubleMatrix2D data = hd.getData();
+    if (data == null || data.rows() == 0) {
+      return;
+    }
+
+    for (int row = 0; row < data.rows(); row++) {
+      final double t = data.getQuick(row, 0);
+      final float min = (float) data.getQuick(row, 1);
+      final float max = (float) data.getQuick(row, 2);
+      for (int level = 0; level < LEVELS.length; level++) {
+        final long bin = (long) Math.floor(t / LEVELS[level]);
+        final float[] chunk = getChunk(level, floorDiv(bin, CHUNK_BINS), true);
+        final int i = (int) (bin - floorDiv(bin, CHUNK_BINS) * CHUNK_BINS) * 2;
+        if (Float.isNaN(chunk[i]) || min < chunk[i]) {
+          chunk[i] = min;
+        }
+        if (Float.isNaN(chunk[i + 1]) || max > chunk[i + 1]) {
+          chunk[i + 1] = max;
+        }
+      }
+    }
+    addCoverage(hd.getStartTime(), hd.getEndTime());
+  }
+
+  /**
+   * Check whether data has been seen for a whole span.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return true if covered
+   */
+  public synchronized boolean covers(final double t1, final double t2) {
+    final Map.Entry<Double, Double> span = coverage.floorEntry(t1);
+    return span != null && span.getValue() >= t2;
+  }
+
+  /**
+   * Get the end of the covered span containing a time.
+   *
+   * @param t time
+   * @return end of coverage or NaN if t is not covered
+   */
+  public synchronized double getCoverageEnd(final double t) {
+    final Map.Entry<Double, Double> span = coverage.floorEntry(t);
+    return span != null && span.getValue() >= t ? span.getValue() : Double.NaN;
+  }
+
+  /**
+   * Get the approximate memory used.
+   *
+   * @return size in bytes
+   */
+  public synchronized int getMemorySize() {
+    int chunks = 0;
+    for (final Map<Long, float[]> level : levels) {
+      chunks += level.size();
+    }
+    return chunks * (CHUNK_BINS * 2 * 4 + CHUNK_OVERHEAD) + coverage.size() * ENTRY_OVERHEAD;
+  }
+
+  /**
+   * Choose the coarsest level no coarser than a resolution.
+   *
+   * @param resolution seconds per row wanted
+   * @return level index or -1 if even the finest level is too coarse
+   */
+  public static int getLevel(final double resolution) {
+    int level = -1;
+    while (level + 1 < LEVELS.length && LEVELS[level + 1] <= resolution) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Get summary rows for a span.
+   *
+   * @param level level index
+   * @param t1 start time
+   * @param t2 end time
+   * @return helicorder data, null if there is none
+   */
+  public synchronized HelicorderData getHelicorder(final int level, final double t1,
+      final double t2) {
+    final int binSize = LEVELS[level];
+    final long first = (long) Math.floor(t1 / binSize);
+    final long last = (long) Math.floor(t2 / binSize);
+
+    int rows = 0;
+    final int maxRows = (int) Math.min(Integer.MAX_VALUE / 3, last - first + 1);
+    final double[] buffer = new double[maxRows * 3];
+    for (long bin = first; bin <= last && rows * 3 < buffer.length; bin++) {
+      final float[] chunk = getChunk(level, floorDiv(bin, CHUNK_BINS), false);
+      if (chunk == null) {
+        // skip the rest of a missing chunk
+        bin = (floorDiv(bin, CHUNK_BINS) + 1) * CHUNK_BINS - 1;
+        continue;
+      }
+      final int i = (int) (bin - floorDiv(bin, CHUNK_BINS) * CHUNK_BINS) * 2;
+      if (!Float.isNaN(chunk[i])) {
+        buffer[rows * 3] = bin * binSize;
+        buffer[rows * 3 + 1] = chunk[i];
+        buffer[rows * 3 + 2] = chunk[i + 1];
+        rows++;
+      }
+    }
+
+    if (rows == 0) {
+      return null;
+    }
+
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 3);
+    for (int row = 0; row < rows; row++) {
+      data.setQuick(row, 0, buffer[row * 3]);
+      data.setQuick(row, 1, buffer[row * 3 + 1]);
+      data.setQuick(row, 2, buffer[row * 3 + 2]);
+    }
+    final HelicorderData hd = new HelicorderData();
+    hd.setData(data);
+    return hd;
+  }
+
+  private float[] getChunk(final int level, final long index, final boolean create) {
+    float[] chunk = levels[level].get(index);
+    if (chunk == null && create) {
+      chunk = new float[CHUNK_BINS * 2];
+      Arrays.fill(chunk, Float.NaN);
+      levels[level].put(index, chunk);
+    }
+    return chunk;
+  }
+
+  private static long floorDiv(final long a, final long b) {
+    final long q = a / b;
+    return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+  }
+
+  private void addCoverage(double t1, double t2) {
+    final Map.Entry<Double, Double> before = coverage.floorEntry(t1);
+    if (before != null && before.getValue() >= t1 - MERGE_GAP) {
+      t1 = before.getKey();
+      t2 = Math.max(t2, before.getValue());
+    }
+
+    Map.Entry<Double, Double> after = coverage.ceilingEntry(t1);
+    while (after != null && after.getKey() <= t2 + MERGE_GAP) {
+      t2 = Math.max(t2, after.getValue());
+      coverage.remove(after.getKey());
+      after = coverage.ceilingEntry(t1);
+    }
+    coverage.put(t1, t2);
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.concurrent.Future;
+
+/**
+ * Holds the latest of a series of asynchronous requests. Each new request supersedes, and
+ * cancels, the one before it, so a panel only ever sees the result of what it asked for last.
+ * Owners cancel the last request when they close.
+ *
+ * @author Tom Parker
+ */
+public class LatestRequest {
+  private Future<?> current;
+
+  /**
+   * Make a request the latest, cancelling the previous one.
+   *
+   * @param request new request
+   * @return request
+   */
+  public synchronized <T> Future<T> supersede(final Future<T> request) {
+    if (current != null) {
+      current.cancel(false);
+    }
+    current = request;
+    return request;
+  }
+
+  /**
+   * Check whether the latest request is still running.
+   *
+   * @return true if a request is outstanding
+   */
+  public synchronized boolean isPending() {
+    return current != null && !current.isDone();
+  }
+
+  /**
+   * Cancel the latest request.
+   */
+  public synchronized void cancel() {
+    if (current != null) {
+      current.cancel(false);
+      current = null;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+/**
+ * A gulper listener which says how urgently it wants its data. Listeners which do not implement
+ * this are treated as {@link GulperPriority#VISIBLE}.
+ *
+ * @author Tom Parker
+ */
+public interface PrioritizedGulperListener extends GulperListener {
+
+  /**
+   * Get the current priority. This is asked often and from gulper threads, so it must be quick,
+   * must not block and must not read Swing state; a frame should work its priority out on the
+   * event dispatch thread as its state changes and return the last value published.
+   *
+   * @return priority
+   */
+  public GulperPriority getGulperPriority();
+}
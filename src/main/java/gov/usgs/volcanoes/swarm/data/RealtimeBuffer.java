@@ -0,0 +1,276 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * The last few minutes of one realtime channel, held as a ring of fixed length chunks of samples.
+ *
+ * <p>Samples are placed by time, so appending a packet copies it straight into place without
+ * joining anything, and a late or repeated packet simply overwrites. When the newest chunk moves
+ * on, the chunks behind it are complete and are handed back to be spilled into the general cache.
+ * A fully written chunk is spilled without copying: the wave takes the chunk's array and the ring
+ * only copies it again if a late packet has to be written into it. Reads copy the requested
+ * window out of the chunks once. After a hole in the data the buffer only answers for what
+ * follows the hole; what came before has been spilled.
+ *
+ * <p>Times are mapped to samples at a fixed sampling rate; a channel whose rate changes needs a new
+ * buffer, see {@link #accepts(Wave)}.
+ *
+ * @author Tom Parker
+ */
+public class RealtimeBuffer {
+
+  /** length of a chunk in seconds. */
+  public static final int CHUNK_SECONDS = 60;
+
+  /** number of chunks held. */
+  public static final int CHUNKS = 10;
+
+  private final double samplingRate;
+  private final int chunkSamples;
+  private final int[][] chunks;
+  private final long[] chunkIds;
+  private final boolean[] written;
+  private final boolean[] shared;
+
+  private long headId;
+  private long firstIndex;
+  private long lastIndex;
+  private long lastAppend;
+
+  /**
+   * Constructor.
+   *
+   * @param samplingRate sampling rate of the channel
+   */
+  public RealtimeBuffer(final double samplingRate) {
+    this.samplingRate = samplingRate;
+    chunkSamples = Math.max(1, (int) Math.round(samplingRate * CHUNK_SECONDS));
+    chunks = new int[CHUNKS][];
+    chunkIds = new long[CHUNKS];
+    Arrays.fill(chunkIds, Long.MIN_VALUE);
+    written = new boolean[CHUNKS];
+    shared = new boolean[CHUNKS];
+    headId = Long.MIN_VALUE;
+    firstIndex = Long.MAX_VALUE;
+    lastIndex = Long.MIN_VALUE;
+  }
+
+  /**
+   * Check whether a wave can be appended, which it can if it has this buffer's sampling rate.
+   *
+   * @param wave wave
+   * @return true if the wave fits this buffer
+   */
+  public boolean accepts(final Wave wave) {
+    return Math.abs(wave.getSamplingRate() - samplingRate) < 1E-6 * samplingRate;
+  }
+
+  /**
+   * Append a wave.
+   *
+   * @param wave wave with this buffer's sampling rate
+   * @param completed chunks completed by this append, and any part of the wave older than the
+   *     ring holds, are added here for the caller to cache
+   * @return false if the wave is older than anything held and was not appended
+   */
+  public synchronized boolean append(final Wave wave, final List<Wave> completed) {
+    final long start = Math.round(wave.getStartTime() * samplingRate);
+    final long end = start + wave.numSamples();
+    if (end <= start) {
+      return true;
+    }
+
+    final long endId = floorDiv(end - 1, chunkSamples);
+    if (headId != Long.MIN_VALUE && endId <= headId - CHUNKS) {
+      return false;
+    }
+    if (lastIndex != Long.MIN_VALUE && start > lastIndex + 1) {
+      // a hole; the cache gets what came before it, so the hole is not read as a gap in the data
+      drain(completed);
+      firstIndex = Long.MAX_VALUE;
+    }
+    if (endId > headId) {
+      advance(endId, completed);
+    }
+
+    final long oldest = (headId - CHUNKS + 1) * chunkSamples;
+    if (start < oldest) {
+      // the ring cannot hold the head of a long wave, hand it back for the cache
+      final int[] head = Arrays.copyOfRange(wave.buffer, 0, (int) (Math.min(end, oldest) - start));
+      final Wave headWave = new Wave(head, start / samplingRate, samplingRate);
+      headWave.register();
+      completed.add(headWave);
+    }
+    long index = Math.max(start, oldest);
+    while (index < end) {
+      final long id = floorDiv(index, chunkSamples);
+      final int slot = slot(id);
+      final int offset = (int) (index - id * chunkSamples);
+      final int count = (int) Math.min(end - index, chunkSamples - offset);
+      if (shared[slot]) {
+        // a spilled chunk is owned by the cache now, write to a copy
+        chunks[slot] = chunks[slot].clone();
+        shared[slot] = false;
+      }
+      System.arraycopy(wave.buffer, (int) (index - start), chunks[slot], offset, count);
+      written[slot] = true;
+      index += count;
+    }
+
+    firstIndex = Math.max(Math.min(firstIndex, Math.max(start, oldest)), oldest);
+    lastIndex = Math.max(lastIndex, end);
+    lastAppend = System.currentTimeMillis();
+
+    // late data for a completed chunk goes to the cache again
+    for (int slot = 0; slot < CHUNKS; slot++) {
+      if (chunkIds[slot] < headId && written[slot] && !shared[slot]) {
+        spill(slot, completed);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Move the head to a new chunk, spilling the chunks it leaves behind and reusing the oldest
+   * slots.
+   */
+  private void advance(final long newHead, final List<Wave> completed) {
+    for (int slot = 0; slot < CHUNKS; slot++) {
+      if (chunkIds[slot] != Long.MIN_VALUE && written[slot] && !shared[slot]) {
+        spill(slot, completed);
+      }
+    }
+
+    final long from = Math.max(headId + 1, newHead - CHUNKS + 1);
+    for (long id = from; id <= newHead; id++) {
+      final int slot = slot(id);
+      // never reuse an array the cache may hold
+      if (chunks[slot] == null || shared[slot]) {
+        chunks[slot] = new int[chunkSamples];
+      }
+      Arrays.fill(chunks[slot], Wave.NO_DATA);
+      chunkIds[slot] = id;
+      written[slot] = false;
+      shared[slot] = false;
+    }
+    for (int slot = 0; slot < CHUNKS; slot++) {
+      if (chunkIds[slot] <= newHead - CHUNKS) {
+        chunkIds[slot] = Long.MIN_VALUE;
+        written[slot] = false;
+      }
+    }
+    headId = newHead;
+  }
+
+  /**
+   * Make a wave of a chunk for the cache. Caller must hold the lock.
+   */
+  private void spill(final int slot, final List<Wave> completed) {
+    final long chunkStart = chunkIds[slot] * chunkSamples;
+    final long from = Math.max(chunkStart, firstIndex);
+    final long to = Math.min(chunkStart + chunkSamples, lastIndex);
+    if (to <= from) {
+      written[slot] = false;
+      return;
+    }
+    final int[] buffer;
+    if (from == chunkStart && to == chunkStart + chunkSamples) {
+      buffer = chunks[slot];
+      shared[slot] = true;
+    } else {
+      // do not claim the unwritten ends of the chunk as a gap in the data
+      buffer = Arrays.copyOfRange(chunks[slot], (int) (from - chunkStart),
+          (int) (to - chunkStart));
+      written[slot] = false;
+    }
+    final Wave wave = new Wave(buffer, from / samplingRate, samplingRate);
+    wave.register();
+    completed.add(wave);
+  }
+
+  /**
+   * Hand over every chunk not yet spilled, for instance before the buffer is dropped.
+   *
+   * @param completed chunks are added here
+   */
+  public synchronized void drain(final List<Wave> completed) {
+    for (int slot = 0; slot < CHUNKS; slot++) {
+      if (chunkIds[slot] != Long.MIN_VALUE && written[slot] && !shared[slot]) {
+        spill(slot, completed);
+      }
+    }
+  }
+
+  /**
+   * Get part of the data held.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return the part of the span held, or null if none of it is
+   */
+  public synchronized Wave getWave(final double t1, final double t2) {
+    final long from = Math.max(Math.round(t1 * samplingRate), firstIndex);
+    final long to = Math.min(Math.round(t2 * samplingRate), lastIndex);
+    if (to <= from) {
+      return null;
+    }
+
+    final int[] buffer = new int[(int) (to - from)];
+    long index = from;
+    while (index < to) {
+      final long id = floorDiv(index, chunkSamples);
+      final int slot = slot(id);
+      final int offset = (int) (index - id * chunkSamples);
+      final int count = (int) Math.min(to - index, chunkSamples - offset);
+      System.arraycopy(chunks[slot], offset, buffer, (int) (index - from), count);
+      index += count;
+    }
+    return new Wave(buffer, from / samplingRate, samplingRate);
+  }
+
+  /**
+   * Get the time of the first sample held.
+   *
+   * @return start time or NaN if empty
+   */
+  public synchronized double getStartTime() {
+    return lastIndex > firstIndex ? firstIndex / samplingRate : Double.NaN;
+  }
+
+  /**
+   * Get the time after the last sample held.
+   *
+   * @return end time or NaN if empty
+   */
+  public synchronized double getEndTime() {
+    return lastIndex > firstIndex ? lastIndex / samplingRate : Double.NaN;
+  }
+
+  /**
+   * Get the wall clock time of the last append.
+   *
+   * @return time in ms
+   */
+  public synchronized long getLastAppend() {
+    return lastAppend;
+  }
+
+  private int slot(final long id) {
+    return (int) (((id % CHUNKS) + CHUNKS) % CHUNKS);
+  }
+
+  private static long floorDiv(final long x, final long y) {
+    final long q = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+}
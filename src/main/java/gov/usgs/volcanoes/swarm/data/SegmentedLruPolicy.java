@@ -0,0 +1,417 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource.CacheEntry;
+
+/**
+ * Size-aware segmented LRU eviction.
+ *
+ * <p>New entries start in a probation segment. An entry hit again is promoted to the protected
+ * segment, which may hold up to {@value #PROTECTED_FRACTION} of the cached bytes; the least recent
+ * protected entries are demoted back to probation when it overflows. Victims come from probation
+ * first, so a one-off burst such as a large clipboard load churns through probation without
+ * pushing out helicorders that are redrawn every few seconds.
+ *
+ * <p>Each entry also carries a small, periodically halved hit count. Among the few least recent
+ * entries of a segment the one with the fewest hits per byte is evicted first, so large entries
+ * that are rarely used go before small ones that are used often. Entries rebuilt from merged data
+ * keep the hit count of the entries they replace.
+ *
+ * @author Tom Parker
+ */
+public class SegmentedLruPolicy implements EvictionPolicy {
+
+  /** share of cached bytes the protected segment may hold. */
+  public static final double PROTECTED_FRACTION = 0.8;
+
+  /** number of least recent entries considered when choosing a victim. */
+  private static final int SAMPLE_SIZE = 4;
+
+  /** hit count at which a new entry goes straight to the protected segment. */
+  private static final int PROMOTE_FREQUENCY = 2;
+
+  /** hit counts are capped to keep a once popular entry from living forever. */
+  private static final int MAX_FREQUENCY = 15;
+
+  /** accesses per tracked entry between halvings of all hit counts. */
+  private static final int AGING_PERIOD = 10;
+
+  // iteration order is least to most recent
+  private final LinkedHashSet<CacheEntry> probation;
+  private final LinkedHashSet<CacheEntry> protect;
+  private long probationBytes;
+  private long protectBytes;
+  private long accesses;
+
+  /**
+   * Constructor.
+   */
+  public SegmentedLruPolicy() {
+    probation = new LinkedHashSet<CacheEntry>();
+    protect = new LinkedHashSet<CacheEntry>();
+  }
+
+  @Override
+  public synchronized void onAdd(final CacheEntry entry) {
+    onRemove(entry);
+    if (entry.frequency >= PROMOTE_FREQUENCY) {
+      addProtected(entry);
+      balance();
+    } else {
+      probation.add(entry);
+      probationBytes += entry.accountedSize;
+    }
+  }
+
+  @Override
+  public synchronized void onAccess(final CacheEntry entry) {
+    if (entry.frequency < MAX_FREQUENCY) {
+      entry.frequency++;
+    }
+    age();
+
+    if (probation.remove(entry)) {
+      probationBytes -= entry.accountedSize;
+      addProtected(entry);
+      balance();
+    } else if (protect.remove(entry)) {
+      protect.add(entry);
+    }
+  }
+
+  @Override
+  public synchronized void onRemove(final CacheEntry entry) {
+    if (probation.remove(entry)) {
+      probationBytes -= entry.accountedSize;
+    } else if (protect.remove(entry)) {
+      protectBytes -= entry.accountedSize;
+    }
+  }
+
+  @Override
+  public synchronized CacheEntry nextVictim() {
+    if (!probation.isEmpty()) {
+      final CacheEntry victim = sample(probation);
+      probation.remove(victim);
+      probationBytes -= victim.accountedSize;
+      return victim;
+    } else if (!protect.isEmpty()) {
+      final CacheEntry victim = sample(protect);
+      protect.remove(victim);
+      protectBytes -= victim.accountedSize;
+      return victim;
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized void clear() {
+    probation.clear();
+    protect.clear();
+    probationBytes = 0;
+    protectBytes = 0;
+    accesses = 0;
+  }
+
+  private void addProtected(final CacheEntry entry) {
+    protect.add(entry);
+    protectBytes += entry.accountedSize;
+  }
+
+  /**
+   * Demote least recent protected entries until the protected segment is within its share.
+   */
+  private void balance() {
+    final double limit = PROTECTED_FRACTION * (probationBytes + protectBytes);
+    final Iterator<CacheEntry> it = protect.iterator();
+    while (protectBytes > limit && protect.size() > 1) {
+      final CacheEntry entry = it.next();
+      it.remove();
+      protectBytes -= entry.accountedSize;
+      probation.add(entry);
+      probationBytes += entry.accountedSize;
+    }
+  }
+
+  /**
+   * Halve every hit count once enough accesses have gone by, so old popularity fades.
+   */
+  private void age() {
+    accesses++;
+    if (accesses < AGING_PERIOD * (long) Math.max(1, probation.size() + protect.size())) {
+      return;
+    }
+
+    accesses = 0;
+    for (final CacheEntry entry : probation) {
+      entry.frequency >>= 1;
+    }
+    for (final CacheEntry entry : protect) {
+      entry.frequency >>= 1;
+    }
+  }
+
+  /**
+   * Pick the entry with the fewest hits per byte from the least recent few of a segment.
+   */
+  private static CacheEntry sample(final LinkedHashSet<CacheEntry> segment) {
+    CacheEntry victim = null;
+    double victimScore = Double.MAX_VALUE;
+    int i = 0;
+    for (final CacheEntry entry : segment) {
+      if (i++ >= SAMPLE_SIZE) {
+        break;
+      }
+      final double score = (entry.frequency + 1.0) / Math.max(1, entry.accountedSize);
+      if (score < victimScore) {
+        victim = entry;
+        victimScore = score;
+      }
+    }
+    return victim;
+  }
+
+  /**
+   * Replay an access trace against this policy, the purge action chain it replaced and a plain
+   * LRU, and print the hit ratio of each.
+   *
+   * <p>A trace file has one access per line: the time in ms, a key, the type (wave, heli or rsam),
+   * the size in bytes and the span in seconds, separated by white space. Without one a synthetic
+   * trace is used: every 30 s a set of helicorders is redrawn and a clipboard of waves looked at
+   * again, and every few rounds a large clipboard load of waves which are each read once.
+   *
+   * @param args cache size in bytes and trace file, both optional
+   * @throws IOException if the trace cannot be read
+   */
+  public static void main(final String[] args) throws IOException {
+    final long capacity = args.length > 0 ? Long.parseLong(args[0]) : 8L * 1024 * 1024;
+    final List<Access> trace = new ArrayList<Access>();
+    if (args.length > 1) {
+      try (BufferedReader in = new BufferedReader(new FileReader(args[1]))) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          final String[] fields = line.trim().split("\\s+");
+          if (fields.length >= 5) {
+            trace.add(new Access(Long.parseLong(fields[0]), fields[1], fields[2],
+                Integer.parseInt(fields[3]), Double.parseDouble(fields[4])));
+          }
+        }
+      }
+    } else {
+      int wave = 0;
+      for (int round = 0; round < 100; round++) {
+        final long time = round * 30 * 1000L;
+        for (int heli = 0; heli < 20; heli++) {
+          trace.add(new Access(time, "heli" + heli, "heli", 200 * 1024, 24 * 60 * 60));
+        }
+        for (int clip = 0; clip < 30; clip++) {
+          trace.add(new Access(time, "clip" + clip, "wave", 100 * 1024, 30 * 60));
+        }
+        if (round % 5 == 4) {
+          for (int i = 0; i < 200; i++) {
+            trace.add(new Access(time, "wave" + wave++, "wave", 50 * 1024, 10 * 60));
+          }
+        }
+      }
+    }
+
+    final EvictionPolicy lru = new EvictionPolicy() {
+      private final LinkedHashSet<CacheEntry> entries = new LinkedHashSet<CacheEntry>();
+
+      public void onAdd(final CacheEntry entry) {
+        entries.add(entry);
+      }
+
+      public void onAccess(final CacheEntry entry) {
+        entries.remove(entry);
+        entries.add(entry);
+      }
+
+      public void onRemove(final CacheEntry entry) {
+        entries.remove(entry);
+      }
+
+      public CacheEntry nextVictim() {
+        final Iterator<CacheEntry> it = entries.iterator();
+        if (!it.hasNext()) {
+          return null;
+        }
+        final CacheEntry victim = it.next();
+        it.remove();
+        return victim;
+      }
+
+      public void clear() {
+        entries.clear();
+      }
+    };
+
+    System.out.println(trace.size() + " accesses, " + capacity + " byte cache");
+    System.out.println("segmented LRU: " + replay(new SegmentedLruPolicy(), trace, capacity));
+    System.out.println("purge chain:   " + replayPurgeChain(trace, capacity));
+    System.out.println("plain LRU:     " + replay(lru, trace, capacity));
+  }
+
+  /**
+   * Replay a trace against a policy.
+   *
+   * @return hit ratios by access and by byte
+   */
+  private static String replay(final EvictionPolicy policy, final List<Access> trace,
+      final long capacity) {
+    final AbstractCachingDataSource source = new AbstractCachingDataSource() {
+      public String toConfigString() {
+        return "replay:";
+      }
+    };
+    final Map<String, CacheEntry> cached = new HashMap<String, CacheEntry>();
+    final Map<CacheEntry, String> names = new HashMap<CacheEntry, String>();
+    long used = 0;
+    int hits = 0;
+    long hitBytes = 0;
+    long totalBytes = 0;
+    for (final Access access : trace) {
+      totalBytes += access.bytes;
+      CacheEntry entry = cached.get(access.key);
+      if (entry != null) {
+        hits++;
+        hitBytes += access.bytes;
+        policy.onAccess(entry);
+        continue;
+      }
+
+      entry = source.new CacheEntry() {
+        public String getInfoString() {
+          return station;
+        }
+
+        public int getMemorySize() {
+          return (int) accountedSize;
+        }
+      };
+      entry.station = access.key;
+      entry.accountedSize = access.bytes;
+      cached.put(access.key, entry);
+      names.put(entry, access.key);
+      policy.onAdd(entry);
+      used += access.bytes;
+      while (used > capacity) {
+        final CacheEntry victim = policy.nextVictim();
+        if (victim == null) {
+          break;
+        }
+        cached.remove(names.remove(victim));
+        used -= victim.accountedSize;
+      }
+    }
+    return format(hits, trace.size(), hitBytes, totalBytes);
+  }
+
+  /**
+   * Replay a trace against the purge actions the cache used before it had an eviction policy.
+   * Whenever the cache is over its size after an access the actions run in turn until enough is
+   * freed: drop anything idle for 5 minutes, halve waves longer than 3 hours and then 1 hour
+   * keeping the latest half, drop every wave and finally drop every helicorder. As then, a halving
+   * counts the bytes it frees as negative, and a halved wave no longer answers a request for its
+   * whole span.
+   *
+   * @return hit ratios by access and by byte
+   */
+  private static String replayPurgeChain(final List<Access> trace, final long capacity) {
+    final long idleLimit = 5 * 60 * 1000;
+    final Map<String, Access> cached = new HashMap<String, Access>();
+    long used = 0;
+    int hits = 0;
+    long hitBytes = 0;
+    long totalBytes = 0;
+    for (final Access access : trace) {
+      totalBytes += access.bytes;
+      final Access entry = cached.get(access.key);
+      if (entry != null && entry.seconds >= access.seconds) {
+        hits++;
+        hitBytes += access.bytes;
+        entry.time = access.time;
+        continue;
+      }
+
+      if (entry != null) {
+        used -= entry.bytes;
+      }
+      cached.put(access.key, new Access(access.time, access.key, access.type, access.bytes,
+          access.seconds));
+      used += access.bytes;
+
+      // the time limit actions for waves, helicorders and RSAM, two halvings and two wipes
+      final String[] types = {"wave", "heli", "rsam", "wave", "wave", "wave", "heli"};
+      final double[] halveOver = {0, 0, 0, 3 * 60 * 60, 60 * 60, 0, 0};
+      long target = used - capacity;
+      for (int action = 0; target > 0 && action < types.length; action++) {
+        long chunk = 0;
+        final Iterator<Access> it = cached.values().iterator();
+        while (it.hasNext()) {
+          final Access e = it.next();
+          if (!types[action].equals(e.type)) {
+            continue;
+          }
+          if (halveOver[action] > 0) {
+            if (e.seconds > halveOver[action]) {
+              final long before = e.bytes;
+              e.bytes /= 2;
+              e.seconds /= 2;
+              used -= before - e.bytes;
+              chunk += e.bytes - before;
+            }
+          } else if (action >= 5 || access.time - e.time > idleLimit) {
+            it.remove();
+            used -= e.bytes;
+            chunk += e.bytes;
+          }
+        }
+        target -= chunk;
+      }
+    }
+    return format(hits, trace.size(), hitBytes, totalBytes);
+  }
+
+  private static String format(final int hits, final int accesses, final long hitBytes,
+      final long totalBytes) {
+    return String.format("%.1f%% of accesses, %.1f%% of bytes", 100.0 * hits / accesses,
+        100.0 * hitBytes / totalBytes);
+  }
+
+  /**
+   * One access of a trace, also used as an entry of the replayed purge chain.
+   */
+  private static class Access {
+    private long time;
+    private final String key;
+    private final String type;
+    private long bytes;
+    private double seconds;
+
+    private Access(final long time, final String key, final String type, final long bytes,
+        final double seconds) {
+      this.time = time;
+      this.key = key;
+      this.type = type;
+      this.bytes = bytes;
+      this.seconds = seconds;
+    }
+  }
+}
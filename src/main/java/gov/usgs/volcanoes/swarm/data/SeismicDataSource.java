@@ -3,16 +3,29 @@ package gov.usgs.volcanoes.swarm.data;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.Wave;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.swing.event.EventListenerList;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Base class for seismic data sources.
  * 
  * @author Dan Cervelli
  */
 public abstract class SeismicDataSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeismicDataSource.class);
+
+  /** channels fetched at once by the default {@link #getWaves(List, double, double)}. */
+  private static final int BULK_PARALLELISM = 4;
+
   protected String name = "Unnamed Data Source";
   protected boolean storeInUserConfig = true;
   protected boolean useCache = true;
@@ -27,6 +40,17 @@ public abstract class SeismicDataSource {
 
   public abstract List<String> getChannels();
 
+  /**
+   * Get the channels found so far while {@link #getChannels()} is still loading them, so a long
+   * channel list can be shown as it arrives. Sources which announce this call
+   * {@link #fireChannelsUpdated()} as channels come in.
+   * 
+   * @return sorted channels or null if this source does not load incrementally
+   */
+  public List<String> getLoadingChannels() {
+    return null;
+  }
+
   public abstract void parse(String params);
 
   /**
@@ -39,9 +63,135 @@ public abstract class SeismicDataSource {
    */
   public abstract Wave getWave(String station, double t1, double t2);
 
+  /**
+   * Get waves for several channels over the same span. The default implementation calls
+   * {@link #getWave(String, double, double)} for up to {@link #getBulkParallelism()} channels at
+   * once through {@link DataExecutor#invokeAll(List, int)}; sources with a native bulk request
+   * should override it.
+   * 
+   * @param channels channel names
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return map of channel to wave in the order of channels, null where there was no wave
+   */
+  public Map<String, Wave> getWaves(final List<String> channels, final double t1,
+      final double t2) {
+    final Wave[] waves = new Wave[channels.size()];
+    final List<Runnable> tasks = new ArrayList<Runnable>(waves.length);
+    for (int i = 0; i < waves.length; i++) {
+      final int index = i;
+      tasks.add(new Runnable() {
+        public void run() {
+          try {
+            waves[index] = getWave(channels.get(index), t1, t2);
+          } catch (final RuntimeException e) {
+            LOGGER.error("Cannot get wave for {}: {}", channels.get(index), e.getMessage());
+          }
+        }
+      });
+    }
+    DataExecutor.invokeAll(tasks, getBulkParallelism());
+
+    final Map<String, Wave> result = new LinkedHashMap<String, Wave>();
+    for (int i = 0; i < waves.length; i++) {
+      result.put(channels.get(i), waves[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Get the number of channels the default {@link #getWaves(List, double, double)} fetches at
+   * once.
+   * 
+   * @return concurrent requests
+   */
+  protected int getBulkParallelism() {
+    return BULK_PARALLELISM;
+  }
+
+  /**
+   * Get the most requests this source's server should be sent at once, for callers such as the
+   * {@link GulperScheduler} which spread work over several threads.
+   * 
+   * @return concurrent connections
+   */
+  public int getMaxConnections() {
+    return getBulkParallelism();
+  }
+
+  /**
+   * Get what decides this source's channel list, such as its server and channel filters, but not
+   * settings like timeouts which leave the list as it is. Used to key the {@link ChannelListCache}.
+   * 
+   * @return the configuration less the name unless overridden
+   */
+  public String getChannelListKey() {
+    final String config = toConfigString();
+    final int i = config.indexOf(';');
+    return i < 0 ? config : config.substring(i + 1);
+  }
+
   public abstract HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl);
 
+  /**
+   * Get a wave without blocking. The default implementation runs
+   * {@link #getWave(String, double, double)} on the {@link DataExecutor}.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param listener receives the wave on the event dispatch thread, may be null
+   * @return future for the wave, cancel it if the result is no longer wanted
+   */
+  public Future<Wave> getWaveAsync(final String station, final double t1, final double t2,
+      final DataListener<Wave> listener) {
+    return DataExecutor.submit(new Callable<Wave>() {
+      public Wave call() {
+        return getWave(station, t1, t2);
+      }
+    }, listener);
+  }
+
+  /**
+   * Get waves for several channels without blocking. The default implementation runs
+   * {@link #getWaves(List, double, double)} on the {@link DataExecutor}.
+   * 
+   * @param channels channel names
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param listener receives the waves on the event dispatch thread, may be null
+   * @return future for the waves, cancel it if the result is no longer wanted
+   */
+  public Future<Map<String, Wave>> getWavesAsync(final List<String> channels, final double t1,
+      final double t2, final DataListener<Map<String, Wave>> listener) {
+    return DataExecutor.submit(new Callable<Map<String, Wave>>() {
+      public Map<String, Wave> call() {
+        return getWaves(channels, t1, t2);
+      }
+    }, listener);
+  }
+
+  /**
+   * Get helicorder data without blocking. The default implementation runs
+   * {@link #getHelicorder(String, double, double, GulperListener)} on the {@link DataExecutor}.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param gl gulper listener, may be null
+   * @param listener receives the data on the event dispatch thread, may be null
+   * @return future for the data, cancel it if the result is no longer wanted
+   */
+  public Future<HelicorderData> getHelicorderAsync(final String station, final double t1,
+      final double t2, final GulperListener gl, final DataListener<HelicorderData> listener) {
+    return DataExecutor.submit(new Callable<HelicorderData>() {
+      public HelicorderData call() {
+        return getHelicorder(station, t1, t2, gl);
+      }
+    }, listener);
+  }
+
   public abstract String toConfigString();
 
   protected SeismicDataSource() {
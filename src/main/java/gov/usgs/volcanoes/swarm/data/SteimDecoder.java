@@ -0,0 +1,169 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import edu.iris.dmc.seedcodec.CodecException;
+
+/**
+ * Decodes Steim1 and Steim2 compressed miniSEED data straight into a caller's sample buffer, so a
+ * record's samples go where they belong without an array of their own.
+ *
+ * <p>Data is a sequence of 64 byte frames of sixteen 32 bit words. The first word of a frame
+ * holds a 2 bit code for each word saying how many differences it packs. The second word of
+ * the first frame is the first sample, and each difference after the first is added to the
+ * sample before it.
+ *
+ * @author Tom Parker
+ */
+public final class SteimDecoder {
+
+  /** SEED encoding format of Steim1 data. */
+  public static final int STEIM1 = 10;
+
+  /** SEED encoding format of Steim2 data. */
+  public static final int STEIM2 = 11;
+
+  private static final int FRAME_WORDS = 16;
+
+  private SteimDecoder() {}
+
+  /**
+   * Check whether an encoding format can be decoded here.
+   *
+   * @param encoding SEED encoding format
+   * @return true for Steim1 and Steim2
+   */
+  public static boolean supports(final int encoding) {
+    return encoding == STEIM1 || encoding == STEIM2;
+  }
+
+  /**
+   * Decode samples.
+   *
+   * @param encoding {@link #STEIM1} or {@link #STEIM2}
+   * @param data compressed data, a whole number of frames
+   * @param numSamples samples in the record
+   * @param swap true if words are little endian
+   * @param dest buffer to decode into
+   * @param offset index in dest of the first sample
+   * @return number of samples decoded
+   * @throws CodecException if the data is not valid
+   */
+  public static int decode(final int encoding, final byte[] data, final int numSamples,
+      final boolean swap, final int[] dest, final int offset) throws CodecException {
+    if (numSamples == 0) {
+      return 0;
+    }
+    if (data.length < FRAME_WORDS * 4) {
+      throw new CodecException("Steim data shorter than one frame");
+    }
+    final boolean steim2 = encoding == STEIM2;
+    final int first = getWord(data, 1, swap);
+
+    int count = 0;
+    int previous = first;
+    boolean firstDifference = true;
+    final int frames = data.length / (FRAME_WORDS * 4);
+    final int[] diffs = new int[7];
+    for (int frame = 0; frame < frames && count < numSamples; frame++) {
+      final int base = frame * FRAME_WORDS;
+      final int nibbles = getWord(data, base, swap);
+      for (int w = frame == 0 ? 3 : 1; w < FRAME_WORDS && count < numSamples; w++) {
+        final int code = (nibbles >>> (30 - 2 * w)) & 0x3;
+        if (code == 0) {
+          continue;
+        }
+        final int word = getWord(data, base + w, swap);
+        final int n = steim2 ? unpackSteim2(code, word, diffs) : unpackSteim1(code, word, diffs);
+        for (int i = 0; i < n && count < numSamples; i++) {
+          if (firstDifference) {
+            // the first difference is from the previous record, the sample is given
+            firstDifference = false;
+            dest[offset + count++] = first;
+            continue;
+          }
+          previous += diffs[i];
+          dest[offset + count++] = previous;
+        }
+      }
+    }
+
+    if (count != numSamples) {
+      throw new CodecException("Steim data holds " + count + " of " + numSamples + " samples");
+    }
+    return count;
+  }
+
+  private static int unpackSteim1(final int code, final int word, final int[] diffs) {
+    switch (code) {
+      case 1:
+        diffs[0] = word >> 24;
+        diffs[1] = (word << 8) >> 24;
+        diffs[2] = (word << 16) >> 24;
+        diffs[3] = (word << 24) >> 24;
+        return 4;
+      case 2:
+        diffs[0] = word >> 16;
+        diffs[1] = (word << 16) >> 16;
+        return 2;
+      default:
+        diffs[0] = word;
+        return 1;
+    }
+  }
+
+  private static int unpackSteim2(final int code, final int word, final int[] diffs)
+      throws CodecException {
+    if (code == 1) {
+      return unpackSteim1(1, word, diffs);
+    }
+    final int dnib = word >>> 30;
+    if (code == 2) {
+      switch (dnib) {
+        case 1:
+          return unpack(word, 30, 1, diffs);
+        case 2:
+          return unpack(word, 15, 2, diffs);
+        case 3:
+          return unpack(word, 10, 3, diffs);
+        default:
+          throw new CodecException("Steim2 invalid dnib 0 for code 2");
+      }
+    }
+    switch (dnib) {
+      case 0:
+        return unpack(word, 6, 5, diffs);
+      case 1:
+        return unpack(word, 5, 6, diffs);
+      case 2:
+        return unpack(word, 4, 7, diffs);
+      default:
+        throw new CodecException("Steim2 invalid dnib 3 for code 3");
+    }
+  }
+
+  /**
+   * Unpack signed differences from the low 30 bits of a word, most significant first.
+   */
+  private static int unpack(final int word, final int bits, final int n, final int[] diffs) {
+    final int shift = 32 - bits;
+    for (int i = 0; i < n; i++) {
+      diffs[i] = (word << (32 - bits * (n - i))) >> shift;
+    }
+    return n;
+  }
+
+  private static int getWord(final byte[] data, final int index, final boolean swap) {
+    final int i = index * 4;
+    if (swap) {
+      return (data[i] & 0xff) | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff) << 16
+          | data[i + 3] << 24;
+    }
+    return data[i] << 24 | (data[i + 1] & 0xff) << 16 | (data[i + 2] & 0xff) << 8
+        | (data[i + 3] & 0xff);
+  }
+}
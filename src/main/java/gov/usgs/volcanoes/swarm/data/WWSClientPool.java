@@ -0,0 +1,251 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.usgs.volcanoes.wwsclient.WWSClient;
+
+/**
+ * A bounded pool of connections to one Winston wave server.
+ *
+ * <p>Callers borrow a client, use it and give it back. At most {@link #getMaxSize()} clients are
+ * out at once; further callers wait, and the time they wait is recorded. Idle clients are reused
+ * most recently returned first and closed once they have been idle too long. A client returned
+ * after a request which threw, returned nothing or timed out is checked with a VERSION request
+ * and closed if the server does not answer.
+ *
+ * @author Tom Parker
+ */
+public class WWSClientPool {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WWSClientPool.class);
+
+  /** clients idle for longer than this are closed, in ms. */
+  private static final long IDLE_TIMEOUT = 60 * 1000;
+
+  /** waits longer than this are logged, in ms. */
+  private static final long SLOW_WAIT = 1000;
+
+  private final String server;
+  private final int port;
+  private final int timeout;
+  private final int maxSize;
+  private final Semaphore permits;
+  private final Deque<IdleClient> idle;
+  private final ScheduledFuture<?> idleTask;
+  private boolean closed;
+
+  private final AtomicLong borrowCount = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+  private final AtomicLong createdCount = new AtomicLong();
+  private final AtomicLong discardedCount = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param server host
+   * @param port port
+   * @param timeout timeout in ms
+   * @param maxSize most clients out at once
+   */
+  public WWSClientPool(final String server, final int port, final int timeout,
+      final int maxSize) {
+    this.server = server;
+    this.port = port;
+    this.timeout = timeout;
+    this.maxSize = Math.max(1, maxSize);
+    permits = new Semaphore(this.maxSize, true);
+    idle = new ArrayDeque<IdleClient>();
+    idleTask = DataExecutor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        evictIdle();
+      }
+    }, IDLE_TIMEOUT, IDLE_TIMEOUT / 2);
+  }
+
+  /**
+   * Borrow a client, waiting if all are in use. Every client borrowed must be given back with
+   * {@link #release(WWSClient, boolean)}.
+   *
+   * @return client
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public WWSClient borrow() throws InterruptedException {
+    final long start = System.nanoTime();
+    permits.acquire();
+    final long waited = System.nanoTime() - start;
+    borrowCount.incrementAndGet();
+    waitNanos.addAndGet(waited);
+    long max = maxWaitNanos.get();
+    while (waited > max && !maxWaitNanos.compareAndSet(max, waited)) {
+      max = maxWaitNanos.get();
+    }
+    if (waited > TimeUnit.MILLISECONDS.toNanos(SLOW_WAIT)) {
+      LOGGER.debug("waited {} ms for a connection to {}:{}",
+          TimeUnit.NANOSECONDS.toMillis(waited), server, port);
+    }
+
+    synchronized (this) {
+      final IdleClient ic = idle.pollFirst();
+      if (ic != null) {
+        return ic.client;
+      }
+    }
+    createdCount.incrementAndGet();
+    return new WWSClient(server, port, timeout);
+  }
+
+  /**
+   * Give a client back.
+   *
+   * @param client client from {@link #borrow()}
+   * @param suspect true if the last request threw, returned null or timed out, so the connection
+   *     should be checked before it is reused; an empty answer is not suspect
+   */
+  public void release(final WWSClient client, final boolean suspect) {
+    try {
+      if (suspect && !isHealthy(client)) {
+        discard(client);
+        return;
+      }
+      synchronized (this) {
+        if (!closed) {
+          idle.addFirst(new IdleClient(client, System.currentTimeMillis()));
+          return;
+        }
+      }
+      client.close();
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Close clients which have been idle too long.
+   */
+  public void evictIdle() {
+    final long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT;
+    synchronized (this) {
+      final Iterator<IdleClient> it = idle.descendingIterator();
+      while (it.hasNext()) {
+        final IdleClient ic = it.next();
+        if (ic.since > cutoff) {
+          break;
+        }
+        it.remove();
+        ic.client.close();
+      }
+    }
+  }
+
+  /**
+   * Close all idle clients and stop pooling. Clients still out are closed when given back.
+   */
+  public void close() {
+    idleTask.cancel(false);
+    synchronized (this) {
+      closed = true;
+      for (final IdleClient ic : idle) {
+        ic.client.close();
+      }
+      idle.clear();
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Get the number of clients in use.
+   *
+   * @return clients borrowed and not yet given back
+   */
+  public int getActiveCount() {
+    return maxSize - permits.availablePermits();
+  }
+
+  public synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  public long getBorrowCount() {
+    return borrowCount.get();
+  }
+
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  public long getDiscardedCount() {
+    return discardedCount.get();
+  }
+
+  /**
+   * Get the total time spent waiting for a client.
+   *
+   * @return wait time in ms
+   */
+  public long getTotalWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+  }
+
+  /**
+   * Get the longest time spent waiting for a client.
+   *
+   * @return wait time in ms
+   */
+  public long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s:%d pool: %d/%d active, %d idle, %d borrows, %d ms waited (max %d ms)",
+        server, port, getActiveCount(), maxSize, getIdleCount(), getBorrowCount(),
+        getTotalWaitMillis(), getMaxWaitMillis());
+  }
+
+  private boolean isHealthy(final WWSClient client) {
+    try {
+      return client.getProtocolVersion() > 0;
+    } catch (final RuntimeException e) {
+      LOGGER.debug("health check of connection to {}:{} failed: {}", server, port,
+          e.getMessage());
+      return false;
+    }
+  }
+
+  private void discard(final WWSClient client) {
+    discardedCount.incrementAndGet();
+    try {
+      client.close();
+    } catch (final RuntimeException e) {
+      LOGGER.debug("error closing connection to {}:{}: {}", server, port, e.getMessage());
+    }
+  }
+
+  private static class IdleClient {
+    private final WWSClient client;
+    private final long since;
+
+    private IdleClient(final WWSClient client, final long since) {
+      this.client = client;
+      this.since = since;
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package gov.usgs.volcanoes.swarm.data;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -23,12 +26,21 @@ import gov.usgs.volcanoes.wwsclient.WWSClient;
  * different helicorder functions. It should probably be made a descendant of
  * WaveServerSource.
  * 
+ * <p>Requests are served by a pool of connections, so a long helicorder fetch does not hold up
+ * wave requests to the same server. The pool size is the optional fifth field of the config
+ * string.
  * 
  * @author Dan Cervelli
  */
 public class WWSSource extends SeismicDataSource implements RsamSource {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WWSSource.class);
+
+  /** connections per server unless the config string says otherwise. */
+  public static final int DEFAULT_POOL_SIZE = 4;
+
   private String params;
-  private WWSClient winstonClient;
+  private volatile WWSClientPool pool;
+  private int poolSize = DEFAULT_POOL_SIZE;
   private int timeout = 2000;
   private boolean compress = false;
   private int protocolVersion = 1;
@@ -38,6 +50,12 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
 
   private boolean established;
 
+  private final CoalescingWaveFetcher waveFetcher = new CoalescingWaveFetcher() {
+    protected Wave fetch(String station, double t1, double t2) {
+      return fetchWave(station, t1, t2);
+    }
+  };
+
   /**
    * Explicit default constructor required for reflection.
    */
@@ -67,8 +85,29 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
     port = Integer.parseInt(ss[1]);
     timeout = Integer.parseInt(ss[2]);
     compress = ss[3].equals("1");
+    if (ss.length > 4) {
+      poolSize = Integer.parseInt(ss[4]);
+    }
 
-    winstonClient = new WWSClient(server, port, timeout);
+    if (pool != null) {
+      pool.close();
+    }
+    pool = new WWSClientPool(server, port, timeout, poolSize);
+    waveFetcher.setParallelism(poolSize);
+  }
+
+  /**
+   * Borrow a connection from the pool.
+   * 
+   * @return client or null if interrupted while waiting
+   */
+  private WWSClient borrowClient() {
+    try {
+      return pool.borrow();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
   }
 
   /**
@@ -86,8 +125,19 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    */
   public void establish() {
     if (!established) {
-      protocolVersion = winstonClient.getProtocolVersion();
-      established = true;
+      WWSClient client = borrowClient();
+      if (client == null) {
+        return;
+      }
+      long start = System.currentTimeMillis();
+      boolean failed = true;
+      try {
+        protocolVersion = client.getProtocolVersion();
+        established = true;
+        failed = isFailed(protocolVersion > 0, start);
+      } finally {
+        pool.release(client, failed);
+      }
     }
   }
 
@@ -97,8 +147,8 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    */
   public String toConfigString() {
     String typeString = DataSourceType.getShortName(this.getClass());
-    return String.format("%s;" + typeString + ":%s:%d:%d:%s", name, server, port, timeout,
-        compress ? "1" : "0");
+    return String.format("%s;" + typeString + ":%s:%d:%d:%s:%d", name, server, port, timeout,
+        compress ? "1" : "0", poolSize);
   }
 
   /**
@@ -106,11 +156,45 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#close()
    */
   public void close() {
-    if (winstonClient != null) {
-      winstonClient.close();
+    if (pool != null) {
+      LOGGER.debug("closing {}", pool);
+      pool.close();
     }
   }
 
+  /**
+   * Fetch as many channels at once as there are connections.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getBulkParallelism()
+   */
+  protected int getBulkParallelism() {
+    return poolSize;
+  }
+
+  /**
+   * One request per pooled connection.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getMaxConnections()
+   */
+  public int getMaxConnections() {
+    return poolSize;
+  }
+
+  /**
+   * The channels depend only on the server.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getChannelListKey()
+   */
+  public String getChannelListKey() {
+    return DataSourceType.getShortName(getClass()) + ":" + server + ":" + port;
+  }
+
+  /**
+   * Get the connection pool, for its metrics.
+   * 
+   * @return pool
+   */
+  public WWSClientPool getPool() {
+    return pool;
+  }
+
   /**
    * Get formatted SCNL.
    * 
@@ -143,33 +227,62 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String,
    *      double, double)
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
-    Wave wave = null;
+  public Wave getWave(String station, double t1, double t2) {
     if (useCache) {
       CachedDataSource cache = CachedDataSource.getInstance();
-      wave = cache.getWave(station, t1, t2);
+      return cache.getWave(station, t1, t2, waveFetcher);
+    } else {
+      return waveFetcher.getWave(station, t1, t2);
     }
-    if (wave == null) {
-      String delimiter = station.indexOf("$") == -1 ? " " : "$";
-      Scnl scnl;
+  }
+
+  /**
+   * Fetch wave data from the server and cache it. Concurrent requests are coalesced by
+   * waveFetcher before they get here. A reply without samples is remembered as empty unless the
+   * request failed. WWSClient answers null on connect and I/O errors, so no reply at all is an
+   * error, not an answer.
+   */
+  private Wave fetchWave(String station, double t1, double t2) {
+    Wave wave = null;
+    boolean failed = true;
+    String delimiter = station.indexOf("$") == -1 ? " " : "$";
+    Scnl scnl;
+    try {
+      scnl = Scnl.parse(station, delimiter);
+      TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
+      WWSClient client = borrowClient();
+      if (client == null) {
+        return null;
+      }
+      long start = System.currentTimeMillis();
       try {
-        scnl = Scnl.parse(station, delimiter);
-        TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        wave = winstonClient.getWave(scnl, timeSpan, compress);
-      } catch (UtilException e) {
-        System.err.println("WWSSource.getWave: Cannot parse station " + station);
+        wave = client.getWave(scnl, timeSpan, compress);
+        failed = isFailed(wave != null, start);
+      } finally {
+        pool.release(client, failed);
       }
+    } catch (UtilException e) {
+      System.err.println("WWSSource.getWave: Cannot parse station " + station);
+    }
 
-      if (wave == null) {
-        return null;
+    CachedDataSource cache = CachedDataSource.getInstance();
+    if (wave == null || wave.numSamples() == 0) {
+      if (wave != null && !failed && useCache) {
+        cache.putEmpty(station, t1, t2);
       }
+      return null;
+    }
 
-      wave.register();
-      if (useCache) {
-        CachedDataSource cache = CachedDataSource.getInstance();
+    wave.register();
+    if (useCache) {
+      // short tails polled by monitors go to the realtime buffer rather than being joined on
+      if (t2 > J2kSec.now() - RealtimeBuffer.CHUNK_SECONDS
+          && t2 - t1 <= RealtimeBuffer.CHUNK_SECONDS * RealtimeBuffer.CHUNKS / 2) {
+        cache.putRealtimeWave(station, wave);
+      } else {
         cache.putWave(station, wave);
       }
-    } 
+    }
     return wave;
   }
 
@@ -178,7 +291,7 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.RsamSource#getRsam(java.lang.String,
    *      double, double, int)
    */
-  public synchronized RSAMData getRsam(String station, double t1, double t2, int period) {
+  public RSAMData getRsam(String station, double t1, double t2, int period) {
     RSAMData rsamData = null;
     if (useCache) {
       CachedDataSource cache = CachedDataSource.getInstance();
@@ -193,8 +306,18 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
       try {
         Scnl scnl = Scnl.parse(station, delimiter);
         TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        rsamData =
-            winstonClient.getRSAMData(scnl, timeSpan, period, compress);
+        WWSClient client = borrowClient();
+        if (client == null) {
+          return null;
+        }
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+          rsamData = client.getRSAMData(scnl, timeSpan, period, compress);
+          failed = isFailed(rsamData != null, start);
+        } finally {
+          pool.release(client, failed);
+        }
       } catch (UtilException e) {
         System.err.println("WWSSource.getRsam: Cannot parse station " + station);
       }
@@ -217,12 +340,13 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder(java.lang.String,
    *      double, double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(final String station, double t1, double t2,
+  public HelicorderData getHelicorder(final String station, double t1, double t2,
       GulperListener gl) {
     CachedDataSource cache = CachedDataSource.getInstance();
 
     HelicorderData hd = cache.getHelicorder(station, t1, t2, this);
-    if (hd == null) {
+    if (hd == null && !cache.isKnownEmpty(station, t1, t2)) {
+      boolean failed = true;
       String delimiter = station.indexOf("$") == -1 ? " " : "$";
      
       Scnl scnl;
@@ -235,7 +359,17 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
         // }
         // });
         TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        hd = winstonClient.getHelicorder(scnl, timeSpan, compress);
+        WWSClient client = borrowClient();
+        if (client == null) {
+          return null;
+        }
+        long start = System.currentTimeMillis();
+        try {
+          hd = client.getHelicorder(scnl, timeSpan, compress);
+          failed = isFailed(hd != null, start);
+        } finally {
+          pool.release(client, failed);
+        }
         // winstonClient.setReadListener(null);
         fireHelicorderProgress(station, 1.0);
       } catch (UtilException e) {
@@ -248,18 +382,50 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
           cache.putHelicorder(station, noLatest);
         }
       } else {
+        // null is an error rather than an answer, only an empty reply means no data
+        if (hd != null && !failed) {
+          cache.putEmpty(station, t1, t2);
+        }
         hd = null;
       }
     }
     return hd;
   }
 
+  /**
+   * Check whether a request failed, so the connection should be checked before reuse and an empty
+   * reply not taken as no data. WWSClient answers null on connect and I/O errors, and a reply
+   * after the client timeout more likely means the server did not answer.
+   *
+   * @param replied true if the request returned a reply
+   * @param start time the request was sent, in ms
+   * @return true if there was no reply or the client timeout has passed since
+   */
+  private boolean isFailed(boolean replied, long start) {
+    return !replied || System.currentTimeMillis() - start >= timeout;
+  }
+
   /**
    * Get list of channels.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getChannels()
    */
-  public synchronized List<String> getChannels() {
-    List<Channel> channels = winstonClient.getChannels(true);
+  public List<String> getChannels() {
+    WWSClient client = borrowClient();
+    if (client == null) {
+      return null;
+    }
+    List<Channel> channels = null;
+    long start = System.currentTimeMillis();
+    boolean failed = true;
+    try {
+      channels = client.getChannels(true);
+      failed = isFailed(channels != null, start);
+    } finally {
+      pool.release(client, failed);
+    }
+    if (channels == null) {
+      return null;
+    }
     List<String> channelNames = new ArrayList<String>(channels.size());
     SwarmConfig swarmConfig = SwarmConfig.getInstance();
 
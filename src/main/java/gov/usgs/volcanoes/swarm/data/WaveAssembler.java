@@ -0,0 +1,156 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Builds the wave of one channel from records as they arrive, decoding each record's samples
+ * straight onto the end of one growing buffer rather than into a wave of its own.
+ *
+ * <p>Records which follow on from the samples held, within half a sample, extend the current
+ * segment. A gap, an overlap or a change of sampling rate starts a new segment, and segments are
+ * joined at the end. The first segment's buffer is sized for the expected end time, so an
+ * unbroken stream is normally held in one array which is copied at most once, to trim it. Later
+ * segments start no larger than the samples seen so far and grow as needed, so a gappy stream
+ * does not allocate the whole span again for every gap.
+ *
+ * @author Tom Parker
+ */
+public class WaveAssembler {
+
+  /** never guess more samples than this for one segment. */
+  private static final int MAX_GUESS = 1 << 24;
+
+  private final double expectedEnd;
+  private final List<Wave> segments;
+
+  private int[] buffer;
+  private int count;
+  private long seen;
+  private double startTime;
+  private double samplingRate;
+
+  /**
+   * Constructor.
+   *
+   * @param expectedEnd time the data is expected to end, used to size the buffer, or NaN
+   */
+  public WaveAssembler(final double expectedEnd) {
+    this.expectedEnd = expectedEnd;
+    segments = new ArrayList<Wave>();
+  }
+
+  /**
+   * Make room for samples. Write them to {@link #getBuffer()} from the returned index and then
+   * call {@link #commit(int)}.
+   *
+   * @param t time of the first sample
+   * @param rate sampling rate
+   * @param n number of samples
+   * @return index of the first sample in the buffer
+   */
+  public int reserve(final double t, final double rate, final int n) {
+    if (buffer != null && (Math.abs(rate - samplingRate) > 1E-6 * rate
+        || Math.abs(t - (startTime + count / samplingRate)) > 0.5 / rate)) {
+      finishSegment();
+    }
+    if (buffer == null) {
+      int guess = n;
+      if (!Double.isNaN(expectedEnd) && expectedEnd > t) {
+        // a record's worth over, as the last record usually runs past the end
+        guess = (int) Math.min(MAX_GUESS, Math.ceil((expectedEnd - t) * rate) + n);
+        if (seen > 0) {
+          // after a gap the rest may well be gappy too
+          guess = (int) Math.min(guess, seen);
+        }
+      }
+      buffer = new int[Math.max(n, guess)];
+      count = 0;
+      startTime = t;
+      samplingRate = rate;
+    } else if (count + n > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(count + n, buffer.length + buffer.length / 2));
+    }
+    return count;
+  }
+
+  /**
+   * Get the buffer to write reserved samples to.
+   *
+   * @return the buffer
+   */
+  public int[] getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Keep samples written after {@link #reserve(double, double, int)}.
+   *
+   * @param n number of samples written
+   */
+  public void commit(final int n) {
+    count += n;
+    seen += n;
+  }
+
+  /**
+   * Append samples which are already decoded.
+   *
+   * @param t time of the first sample
+   * @param rate sampling rate
+   * @param samples the samples
+   */
+  public void append(final double t, final double rate, final int[] samples) {
+    final int index = reserve(t, rate, samples.length);
+    System.arraycopy(samples, 0, buffer, index, samples.length);
+    commit(samples.length);
+  }
+
+  /**
+   * Get the segments assembled so far. The current segment is finished.
+   *
+   * @return the segments in the order they were started
+   */
+  public List<Wave> getWaves() {
+    finishSegment();
+    return segments;
+  }
+
+  /**
+   * Get everything assembled as one wave.
+   *
+   * @return the wave or null if no samples were added
+   */
+  public Wave getWave() {
+    final List<Wave> waves = getWaves();
+    if (waves.isEmpty()) {
+      return null;
+    } else if (waves.size() == 1) {
+      return waves.get(0);
+    }
+    return Wave.join(waves);
+  }
+
+  private void finishSegment() {
+    if (buffer == null) {
+      return;
+    }
+    if (count > 0) {
+      final int[] samples = count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+      final Wave wave = new Wave(samples, startTime, samplingRate);
+      wave.register();
+      segments.add(wave);
+    }
+    buffer = null;
+    count = 0;
+  }
+}
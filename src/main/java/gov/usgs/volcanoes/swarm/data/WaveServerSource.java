@@ -40,6 +40,12 @@ public class WaveServerSource extends SeismicDataSource {
 
   private TimeZone timeZone;
 
+  private final CoalescingWaveFetcher waveFetcher = new CoalescingWaveFetcher() {
+    protected Wave fetch(String station, double t1, double t2) {
+      return fetchWave(station, t1, t2);
+    }
+  };
+
 
   private static Map<String, Boolean> scnlSources = new HashMap<String, Boolean>();
 
@@ -120,33 +126,50 @@ public class WaveServerSource extends SeismicDataSource {
     return list;
   }
 
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(String station, double t1, double t2) {
     CachedDataSource cache = CachedDataSource.getInstance();
-    Wave sw = null;
     if (useCache)
-      sw = cache.getWave(station, t1, t2);
+      return cache.getWave(station, t1, t2, waveFetcher);
+    else
+      return waveFetcher.getWave(station, t1, t2);
+  }
+
+  /**
+   * Fetch wave data from the server and cache it. Concurrent requests are coalesced by
+   * waveFetcher before they get here.
+   */
+  private synchronized Wave fetchWave(String station, double t1, double t2) {
+    CachedDataSource cache = CachedDataSource.getInstance();
+    String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
+    String[] ss = station.split(seperator);
+    String loc = null;
+    if (isSCNL(params)) {
+      loc = "--";
+      if (ss.length == 4)
+        loc = ss[3];
+    }
+    double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
+    double at1 = Time.j2kToEw(t1) + offset / 1000.0;
+    double at2 = Time.j2kToEw(t2) + offset / 1000.0;
+    long start = System.currentTimeMillis();
+    Wave sw = waveServer.getRawData(ss[0], ss[1], ss[2], loc, at1, at2);
     if (sw == null) {
-      String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
-      String[] ss = station.split(seperator);
-      String loc = null;
-      if (isSCNL(params)) {
-        loc = "--";
-        if (ss.length == 4)
-          loc = ss[3];
-      }
-      double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
-      double at1 = Time.j2kToEw(t1) + offset / 1000.0;
-      double at2 = Time.j2kToEw(t2) + offset / 1000.0;
-      sw = waveServer.getRawData(ss[0], ss[1], ss[2], loc, at1, at2);
-      if (sw == null)
-        return null;
-      sw.convertToJ2K();
-      sw.setStartTime(sw.getStartTime() - offset / 1000.0);
-      sw.register();
-      if (useCache) {
-        cache.cacheWaveAsHelicorder(station, sw);
-        cache.putWave(station, sw);
+      // the wave server answers null on connect and I/O errors too, so null is never no data
+      return null;
+    }
+    if (sw.numSamples() == 0) {
+      // a quick empty reply is the server saying it has nothing, a slow one may be a timeout
+      if (useCache && System.currentTimeMillis() - start < timeout) {
+        cache.putEmpty(station, t1, t2);
       }
+      return null;
+    }
+    sw.convertToJ2K();
+    sw.setStartTime(sw.getStartTime() - offset / 1000.0);
+    sw.register();
+    if (useCache) {
+      cache.cacheWaveAsHelicorder(station, sw);
+      cache.putWave(station, sw);
     }
     return sw;
   }
@@ -185,6 +208,22 @@ public class WaveServerSource extends SeismicDataSource {
     GulperList.INSTANCE.killGulper("ws:" + station, gl);
   }
 
+  /**
+   * A wave server gets one request at a time, whichever copy of the source sends it.
+   */
+  @Override
+  public int getMaxConnections() {
+    return 1;
+  }
+
+  /**
+   * The channels depend only on the server.
+   */
+  @Override
+  public String getChannelListKey() {
+    return DataSourceType.getShortName(getClass()) + ":" + server + ":" + port;
+  }
+
   public synchronized boolean isActiveSource() {
     return true;
   }
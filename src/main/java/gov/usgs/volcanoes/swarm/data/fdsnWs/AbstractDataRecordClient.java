@@ -6,7 +6,13 @@
 
 package gov.usgs.volcanoes.swarm.data.fdsnWs;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -24,10 +30,13 @@ import edu.sc.seis.seisFile.mseed.Blockette1000;
 import edu.sc.seis.seisFile.mseed.Btime;
 import edu.sc.seis.seisFile.mseed.DataHeader;
 import edu.sc.seis.seisFile.mseed.DataRecord;
+import edu.sc.seis.seisFile.mseed.SeedRecord;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.SteimDecoder;
+import gov.usgs.volcanoes.swarm.data.WaveAssembler;
 
 public abstract class AbstractDataRecordClient {
   private final SeismicDataSource source;
@@ -60,6 +69,42 @@ public abstract class AbstractDataRecordClient {
     return waves;
   }
 
+  /**
+   * Decode the samples of a data record onto the end of a wave being assembled. Steim1 and
+   * Steim2 data is decoded straight into the assembler's buffer.
+   * 
+   * @param assembler the wave assembler.
+   * @param dr the data record.
+   * @throws UnsupportedCompressionType
+   * @throws CodecException
+   */
+  public static void addSamples(final WaveAssembler assembler, final DataRecord dr)
+      throws UnsupportedCompressionType, CodecException {
+    for (Blockette blockette : dr.getBlockettes(1000)) {
+      if (blockette instanceof Blockette1000) {
+        addSamples(assembler, dr, (Blockette1000) blockette);
+      }
+    }
+  }
+
+  private static void addSamples(WaveAssembler assembler, DataRecord dr, Blockette1000 b1000)
+      throws UnsupportedCompressionType, CodecException {
+    final DataHeader dh = dr.getHeader();
+    final int type = b1000.getEncodingFormat();
+    final int numSamples = dh.getNumSamples();
+    final boolean swapNeeded = b1000.getWordOrder() == 0;
+    final double startTime = getStartTime(dh);
+    if (SteimDecoder.supports(type)) {
+      final int index = assembler.reserve(startTime, dh.getSampleRate(), numSamples);
+      assembler.commit(SteimDecoder.decode(type, dr.getData(), numSamples, swapNeeded,
+          assembler.getBuffer(), index));
+    } else {
+      final DecompressedData decomp =
+          new Codec().decompress(type, dr.getData(), numSamples, swapNeeded);
+      assembler.append(startTime, dh.getSampleRate(), decomp.getAsInt());
+    }
+  }
+
   private static Wave createWave(DataRecord dr, Blockette1000 b1000)
       throws UnsupportedCompressionType, CodecException {
     final DataHeader dh = dr.getHeader();
@@ -71,7 +116,19 @@ public abstract class AbstractDataRecordClient {
         codec.decompress(type, data, dr.getHeader().getNumSamples(), swapNeeded);
     final Wave wave = new Wave();
     wave.setSamplingRate(dh.getSampleRate());
+    wave.setStartTime(getStartTime(dh));
+    wave.buffer = decomp.getAsInt();
+    wave.register();
+    return wave;
+  }
 
+  /**
+   * Get the start time of a data record.
+   * 
+   * @param dh the data header.
+   * @return the start time.
+   */
+  private static double getStartTime(DataHeader dh) {
     Btime btime = dh.getStartBtime();
 
     Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
@@ -82,12 +139,7 @@ public abstract class AbstractDataRecordClient {
     cal.set(Calendar.SECOND, btime.getSec());
     cal.set(Calendar.MILLISECOND, btime.getTenthMilli() / 10);
     Date date = cal.getTime();
-    double j2k = J2kSec.fromDate(date);
-
-    wave.setStartTime(j2k);
-    wave.buffer = decomp.getAsInt();
-    wave.register();
-    return wave;
+    return J2kSec.fromDate(date);
   }
 
   /**
@@ -174,4 +226,68 @@ public abstract class AbstractDataRecordClient {
     // TODO ensure index is good and no gaps?
     return Wave.join(waves);
   }
+
+  /**
+   * Compare decoding a miniSEED file of one channel record by record into waves which are then
+   * joined, against decoding it straight into one buffer.
+   * 
+   * @param args the miniSEED file and optionally the number of passes
+   * @throws Exception if the file cannot be read or decoded
+   */
+  public static void main(String[] args) throws Exception {
+    final byte[] bytes = Files.readAllBytes(Paths.get(args[0]));
+    final int passes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    final List<DataRecord> records = readRecords(bytes);
+
+    Wave joined = null;
+    Wave assembled = null;
+    long joinNanos = 0;
+    long assembleNanos = 0;
+    for (int pass = 0; pass < passes; pass++) {
+      // the first pass warms up
+      long start = System.nanoTime();
+      final List<Wave> waves = createWaves();
+      for (DataRecord dr : records) {
+        addWaves(waves, dr);
+      }
+      joined = join(waves);
+      if (pass > 0) {
+        joinNanos += System.nanoTime() - start;
+      }
+
+      start = System.nanoTime();
+      final WaveAssembler assembler = new WaveAssembler(Double.NaN);
+      for (DataRecord dr : records) {
+        addSamples(assembler, dr);
+      }
+      assembled = assembler.getWave();
+      if (pass > 0) {
+        assembleNanos += System.nanoTime() - start;
+      }
+    }
+
+    final int runs = Math.max(1, passes - 1);
+    System.out.println(args[0] + ": " + bytes.length + " bytes, "
+        + records.size() + " records, " + (joined == null ? 0 : joined.numSamples()) + " samples");
+    System.out.println("record waves + join: " + joinNanos / runs / 1000000 + " ms");
+    System.out.println("assembled:           " + assembleNanos / runs / 1000000 + " ms");
+    System.out.println("same samples: " + (joined != null && assembled != null
+        && Arrays.equals(joined.buffer, assembled.buffer)));
+  }
+
+  private static List<DataRecord> readRecords(byte[] bytes) throws Exception {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    final List<DataRecord> records = new ArrayList<DataRecord>();
+    while (true) {
+      try {
+        SeedRecord sr = SeedRecord.read(in);
+        if (sr instanceof DataRecord) {
+          records.add((DataRecord) sr);
+        }
+      } catch (EOFException e) {
+        break;
+      }
+    }
+    return records;
+  }
 }
@@ -9,10 +9,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -97,8 +95,8 @@ public abstract class AbstractWebServiceStationClient {
   /** The reader. */
   private BufferedReader reader;
 
-  /** The HTTP URL Connection. */
-  protected HttpURLConnection conn;
+  /** The HTTP response. */
+  protected WebServiceHttpClient.Response response;
   /** The error message. */
   protected final StringBuilder error = new StringBuilder();
   /** The base URL text. */
@@ -224,17 +222,11 @@ public abstract class AbstractWebServiceStationClient {
    * Close the connection.
    */
   public void close() {
-    if (reader != null) {
-      try {
-        reader.close();
-      } catch (Exception ex) {
-        //
-      }
-      reader = null;
-    }
-    if (conn != null) {
-      conn.disconnect();
-      conn = null;
+    // the response closes the stream under the reader, keeping the connection for reuse
+    reader = null;
+    if (response != null) {
+      response.close();
+      response = null;
     }
   }
 
@@ -297,32 +289,18 @@ public abstract class AbstractWebServiceStationClient {
    */
   protected void fetch() throws Exception {
     final URL url = getUrl();
-    final URLConnection urlConn = url.openConnection();
-    if (urlConn instanceof HttpURLConnection) {
-      conn = (HttpURLConnection) urlConn;
-      if (conn.getResponseCode() != 200) { // if response not OK
-        /*
-         * final BufferedReader errorReader =
-         * new BufferedReader(new InputStreamReader(conn.getErrorStream()));
-         * error.append("Error in connection with url: " + url + "\n");
-         * for (String line; (line = readLine(errorReader)) != null;) {
-         * error.append(line + "\n");
-         */
-        error.append("Error in connection with url: " + url);
-        InputStream in = conn.getErrorStream();
-        if (in != null) {
-          final BufferedReader errorReader = new BufferedReader(new InputStreamReader(in));
-          for (String line; (line = readLine(errorReader)) != null;) {
-            error.append("\n" + line);
-          }
-          errorReader.close();
-
+    response = WebServiceHttpClient.get(url, true, 0, null);
+    if (response.getResponseCode() != 200) { // if response not OK
+      error.append("Error in connection with url: " + url);
+      InputStream in = response.getInputStream();
+      if (in != null) {
+        final BufferedReader errorReader = new BufferedReader(new InputStreamReader(in));
+        for (String line; (line = readLine(errorReader)) != null;) {
+          error.append("\n" + line);
         }
-        // errorReader.close();
-        return;
-      } else {
-        fetch(url);
       }
+    } else {
+      fetch(url);
     }
   }
 
@@ -443,12 +421,36 @@ public abstract class AbstractWebServiceStationClient {
   public BufferedReader getReader() throws IOException {
     BufferedReader reader = this.reader;
     if (reader == null) {
-      reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+      reader = new BufferedReader(new InputStreamReader(getInputStream()));
       this.reader = reader;
     }
     return reader;
   }
 
+  /**
+   * Get how much of the response has been read.
+   * 
+   * @return the fraction read or -1 if not known.
+   */
+  public double getProgress() {
+    final WebServiceHttpClient.Response r = response;
+    if (r == null) {
+      return -1;
+    }
+    final long length = r.getContentLength();
+    return length > 0 ? Math.min(1., (double) r.getBytesRead() / length) : -1;
+  }
+
+  /**
+   * Get the response body, decompressed if the server compressed it.
+   * 
+   * @return the input stream.
+   * @throws IOException if an I/O Exception occurs.
+   */
+  protected InputStream getInputStream() throws IOException {
+    return response.getInputStream();
+  }
+
   /**
    * Get the station list.
    * 
@@ -13,7 +13,6 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -122,6 +121,29 @@ public class DataSelectReader extends StringMSeedQueryReader {
     return query;
   }
 
+  /**
+   * Create one line of a bulk POST query. All arguments must be provided.
+   * 
+   * @param network the network.
+   * @param station the station.
+   * @param location the location or empty for the empty location code.
+   * @param channel the channel.
+   * @param begin the begin date.
+   * @param end the end date.
+   * @return the line, without a line separator.
+   * @see #readPost(String, List)
+   */
+  public String createBulkLine(String network, String station, String location, String channel,
+      Date begin, Date end) {
+    if (location == null || location.trim().length() == 0) {
+      location = WebServiceUtils.EMPTY_LOC_CODE;
+    }
+    SimpleDateFormat longFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    longFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return network + " " + station + " " + location + " " + channel + " "
+        + longFormat.format(begin) + " " + longFormat.format(end);
+  }
+
   /**
    * Get the timeout in milliseconds.
    * 
@@ -186,22 +208,62 @@ public class DataSelectReader extends StringMSeedQueryReader {
   public List<DataRecord> read(String query, List<DataRecord> records)
       throws IOException, SeisFileException {
     URL requestURL = new URL(urlBase + "?" + query);
-    HttpURLConnection conn = (HttpURLConnection) requestURL.openConnection();
-    if (timeoutMillis != 0) {
-      conn.setReadTimeout(timeoutMillis);
+    WebServiceHttpClient.Response response =
+        WebServiceHttpClient.get(requestURL, false, timeoutMillis, userAgent);
+    try {
+      return read(response, requestURL, records);
+    } finally {
+      response.close();
     }
-    conn.setRequestProperty("User-Agent", userAgent);
-    conn.connect();
-    if (conn.getResponseCode() != 200) {
-      if (conn.getResponseCode() == 404) {
-        LOGGER.info("reponse code 404, no data");
+  }
+
+  /**
+   * Read the data records of a bulk query, one line per channel and span, in a single POST
+   * request. Records of all channels arrive in one stream, so {@link #processRecord(DataRecord)}
+   * should sort them by their header.
+   * 
+   * @param body the query lines.
+   * @param records the data record list or null if none.
+   * @return the data record list.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK repsonse code.
+   * @see #createBulkLine(String, String, String, String, Date, Date)
+   */
+  public List<DataRecord> readPost(String body, List<DataRecord> records)
+      throws IOException, SeisFileException {
+    URL requestURL = new URL(urlBase);
+    WebServiceHttpClient.Response response =
+        WebServiceHttpClient.post(requestURL, body, false, timeoutMillis, userAgent);
+    try {
+      return read(response, requestURL, records);
+    } finally {
+      response.close();
+    }
+  }
+
+  /**
+   * Read the data records from a response.
+   * 
+   * @param response the response.
+   * @param requestURL the URL for messages.
+   * @param records the data record list or null if none.
+   * @return the data record list.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK repsonse code.
+   */
+  private List<DataRecord> read(WebServiceHttpClient.Response response, URL requestURL,
+      List<DataRecord> records) throws IOException, SeisFileException {
+    if (response.getResponseCode() != 200) {
+      if (response.getResponseCode() == 404 || response.getResponseCode() == 204) {
+        LOGGER.info("reponse code {}, no data", response.getResponseCode());
         return records;
       } else {
         throw new SeisFileException("Did not get an OK repsonse code (code="
-            + conn.getResponseCode() + ", url=" + requestURL + "\"");
+            + response.getResponseCode() + ", url=" + requestURL + "\"");
       }
     }
-    BufferedInputStream bif = new BufferedInputStream(conn.getInputStream());
+    // not closed here, the response is closed by the caller so the connection can be reused
+    BufferedInputStream bif = new BufferedInputStream(response.getInputStream());
     DataInputStream in = new DataInputStream(bif);
     while (true) {
       try {
@@ -219,7 +281,6 @@ public class DataSelectReader extends StringMSeedQueryReader {
         break;
       }
     }
-    in.close();
     return records;
   }
 
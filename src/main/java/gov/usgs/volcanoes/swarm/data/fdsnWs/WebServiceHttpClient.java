@@ -0,0 +1,385 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.fdsnWs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.usgs.volcanoes.swarm.Version;
+
+/**
+ * The HTTP layer shared by the web services clients.
+ *
+ * <p>Connections are kept alive and reused: a response is always read to the end and closed,
+ * never disconnected, so the JVM can hand its connection to the next request to the same host
+ * rather than paying TCP and TLS setup again. Station queries ask for gzip or deflate, dataselect
+ * does not as miniSEED is already compressed. No more than {@link #getMaxPerHost()} requests go to
+ * one host at once and each request is timed per host, see {@link #getStatistics()}.
+ *
+ * <p>To change the limit per host add "-DSWARM_WS_MAX_PER_HOST=n" to the Java command line.
+ *
+ * @author Tom Parker
+ */
+public final class WebServiceHttpClient {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WebServiceHttpClient.class);
+
+  /** The most requests sent to one host at once. */
+  private static final int maxPerHost = Math.max(1, Integer.parseInt(WebServiceUtils
+      .getProperty(WebServiceUtils.SWARM_WS_PROP_KEY_PREFIX + "MAX_PER_HOST", "4")));
+
+  /** requests allowed per host. */
+  private static final ConcurrentMap<String, Semaphore> hostPermits =
+      new ConcurrentHashMap<String, Semaphore>();
+
+  /** timing per host. */
+  private static final ConcurrentMap<String, HostStatistics> hostStatistics =
+      new ConcurrentHashMap<String, HostStatistics>();
+
+  /** read at most this much of an abandoned body to keep its connection, in bytes. */
+  private static final int MAX_DRAIN = 64 * 1024;
+
+  /** The user agent. */
+  private static final String USER_AGENT = "Swarm/" + Version.POM_VERSION;
+
+  static {
+    // keep as many idle connections per host as may be busy at once
+    if (System.getProperty("http.maxConnections") == null) {
+      System.setProperty("http.maxConnections", String.valueOf(maxPerHost));
+    }
+  }
+
+  private WebServiceHttpClient() {}
+
+  /**
+   * Get the most requests sent to one host at once.
+   *
+   * @return the limit.
+   */
+  public static int getMaxPerHost() {
+    return maxPerHost;
+  }
+
+  /**
+   * Send a GET request. The caller must close the response.
+   *
+   * @param url the URL.
+   * @param compressed true to accept a gzip or deflate response.
+   * @param timeoutMillis the read timeout in milliseconds or 0 for none.
+   * @param userAgent the user agent or null for the default.
+   * @return the response.
+   * @throws IOException if an I/O exception occurs.
+   */
+  public static Response get(URL url, boolean compressed, int timeoutMillis, String userAgent)
+      throws IOException {
+    return open(url, null, compressed, timeoutMillis, userAgent);
+  }
+
+  /**
+   * Send a POST request with a plain text body. The caller must close the response.
+   *
+   * @param url the URL.
+   * @param body the body.
+   * @param compressed true to accept a gzip or deflate response.
+   * @param timeoutMillis the read timeout in milliseconds or 0 for none.
+   * @param userAgent the user agent or null for the default.
+   * @return the response.
+   * @throws IOException if an I/O exception occurs.
+   */
+  public static Response post(URL url, String body, boolean compressed, int timeoutMillis,
+      String userAgent) throws IOException {
+    return open(url, body, compressed, timeoutMillis, userAgent);
+  }
+
+  private static Response open(URL url, String body, boolean compressed, int timeoutMillis,
+      String userAgent) throws IOException {
+    final String host = url.getHost();
+    final Semaphore permits = getPermits(host);
+    try {
+      permits.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted waiting for " + host);
+    }
+
+    final long start = System.currentTimeMillis();
+    HttpURLConnection conn = null;
+    try {
+      conn = (HttpURLConnection) url.openConnection();
+      if (timeoutMillis != 0) {
+        conn.setReadTimeout(timeoutMillis);
+      }
+      conn.setRequestProperty("User-Agent", userAgent == null ? USER_AGENT : userAgent);
+      if (compressed) {
+        conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+      }
+      if (body != null) {
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", "text/plain");
+        conn.setDoOutput(true);
+        final OutputStream out = conn.getOutputStream();
+        try {
+          out.write(body.getBytes("US-ASCII"));
+        } finally {
+          out.close();
+        }
+      }
+      final int code = conn.getResponseCode();
+      return new Response(conn, host, permits, code, start);
+    } catch (IOException ex) {
+      permits.release();
+      getStatistics(host).record(System.currentTimeMillis() - start, 0, false);
+      if (conn != null) {
+        conn.disconnect();
+      }
+      throw ex;
+    } catch (RuntimeException ex) {
+      permits.release();
+      throw ex;
+    }
+  }
+
+  private static Semaphore getPermits(String host) {
+    Semaphore permits = hostPermits.get(host);
+    if (permits == null) {
+      final Semaphore newPermits = new Semaphore(maxPerHost, true);
+      permits = hostPermits.putIfAbsent(host, newPermits);
+      if (permits == null) {
+        permits = newPermits;
+      }
+    }
+    return permits;
+  }
+
+  private static HostStatistics getStatistics(String host) {
+    HostStatistics statistics = hostStatistics.get(host);
+    if (statistics == null) {
+      final HostStatistics newStatistics = new HostStatistics();
+      statistics = hostStatistics.putIfAbsent(host, newStatistics);
+      if (statistics == null) {
+        statistics = newStatistics;
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Get the request timing for every host, one line per host.
+   *
+   * @return the statistics text.
+   */
+  public static String getStatistics() {
+    final StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, HostStatistics> entry : new TreeMap<String, HostStatistics>(
+        hostStatistics).entrySet()) {
+      sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Request counts and times for one host.
+   */
+  private static class HostStatistics {
+    private long requests;
+    private long failures;
+    private long millis;
+    private long bytes;
+
+    private synchronized void record(long elapsed, long count, boolean ok) {
+      requests++;
+      if (!ok) {
+        failures++;
+      }
+      millis += elapsed;
+      bytes += count;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return requests + " requests, " + failures + " failed, "
+          + (requests == 0 ? 0 : millis / requests) + " ms average, " + bytes + " bytes";
+    }
+  }
+
+  /**
+   * A response. Close it once done so its connection can be reused.
+   */
+  public static class Response {
+    private final HttpURLConnection conn;
+    private final String host;
+    private final Semaphore permits;
+    private final int responseCode;
+    private final long start;
+    private CountingInputStream counter;
+    private InputStream in;
+    private boolean closed;
+
+    private Response(HttpURLConnection conn, String host, Semaphore permits, int responseCode,
+        long start) {
+      this.conn = conn;
+      this.host = host;
+      this.permits = permits;
+      this.responseCode = responseCode;
+      this.start = start;
+    }
+
+    /**
+     * Get the response code.
+     *
+     * @return the response code.
+     */
+    public int getResponseCode() {
+      return responseCode;
+    }
+
+    /**
+     * Get the length of the body as sent, which may be compressed.
+     *
+     * @return the length or -1 if not known.
+     */
+    public long getContentLength() {
+      final String length = conn.getHeaderField("Content-Length");
+      try {
+        return length == null ? -1 : Long.parseLong(length.trim());
+      } catch (NumberFormatException ex) {
+        return -1;
+      }
+    }
+
+    /**
+     * Get the bytes of the body read so far, as sent.
+     *
+     * @return the byte count.
+     */
+    public synchronized long getBytesRead() {
+      return counter == null ? 0 : counter.count;
+    }
+
+    /**
+     * Get the body, decompressed if the server compressed it. For an error response this is the
+     * error body and may be null.
+     *
+     * @return the input stream or null if none.
+     * @throws IOException if an I/O exception occurs.
+     */
+    public synchronized InputStream getInputStream() throws IOException {
+      if (in == null) {
+        final InputStream raw = responseCode >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        if (raw == null) {
+          return null;
+        }
+        counter = new CountingInputStream(raw);
+        final String encoding = conn.getContentEncoding();
+        if ("gzip".equalsIgnoreCase(encoding)) {
+          in = new GZIPInputStream(counter);
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+          in = new InflaterInputStream(counter);
+        } else {
+          in = counter;
+        }
+      }
+      return in;
+    }
+
+    /**
+     * Read what is left of the body so the connection can be reused, close it and record the
+     * request.
+     */
+    public synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      boolean reusable = true;
+      try {
+        final InputStream raw;
+        if (counter != null) {
+          raw = counter;
+        } else {
+          raw = responseCode >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        }
+        if (raw != null) {
+          final byte[] buffer = new byte[8192];
+          int drained = 0;
+          int n;
+          while ((n = raw.read(buffer)) >= 0) {
+            drained += n;
+            if (drained > MAX_DRAIN) {
+              // cheaper to open a new connection than to read the rest
+              reusable = false;
+              break;
+            }
+          }
+          raw.close();
+        }
+      } catch (IOException ex) {
+        reusable = false;
+      } finally {
+        permits.release();
+      }
+      if (!reusable) {
+        conn.disconnect();
+      }
+
+      final long elapsed = System.currentTimeMillis() - start;
+      final long count = counter == null ? 0 : counter.count;
+      getStatistics(host).record(elapsed, count, responseCode < 400);
+      LOGGER.debug("{} {} {} in {} ms, {} bytes", conn.getRequestMethod(), conn.getURL(),
+          responseCode, elapsed, count);
+    }
+  }
+
+  /**
+   * Counts the bytes read from the wire.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    private CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      final int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      final long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+}
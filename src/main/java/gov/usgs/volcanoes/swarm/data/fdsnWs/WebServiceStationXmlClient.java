@@ -1,12 +1,5 @@
 package gov.usgs.volcanoes.swarm.data.fdsnWs;
 
-import edu.sc.seis.seisFile.fdsnws.stationxml.Channel;
-import edu.sc.seis.seisFile.fdsnws.stationxml.FDSNStationXML;
-import edu.sc.seis.seisFile.fdsnws.stationxml.Network;
-import edu.sc.seis.seisFile.fdsnws.stationxml.NetworkIterator;
-import edu.sc.seis.seisFile.fdsnws.stationxml.Station;
-import edu.sc.seis.seisFile.fdsnws.stationxml.StationIterator;
-import edu.sc.seis.seisFile.fdsnws.stationxml.StationXMLException;
 import edu.sc.seis.seisFile.fdsnws.stationxml.StationXMLTagNames;
 
 import org.slf4j.Logger;
@@ -17,9 +10,10 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import gov.usgs.volcanoes.swarm.StationInfo;
 
@@ -27,6 +21,18 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
 
   private final static Logger LOGGER = LoggerFactory.getLogger(WebServiceStationXmlClient.class);
 
+  private static final String NETWORK = "Network";
+  private static final String STATION = "Station";
+  private static final String CHANNEL = "Channel";
+  private static final String DESCRIPTION = "Description";
+  private static final String LATITUDE = "Latitude";
+  private static final String LONGITUDE = "Longitude";
+  private static final String ELEVATION = "Elevation";
+  private static final String SITE = "Site";
+  private static final String NAME = "Name";
+  private static final String CODE = "code";
+  private static final String LOCATION_CODE = "locationCode";
+
   /**
    * Create the web service station client.
    * 
@@ -96,21 +102,16 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
   /**
    * Check the schema version.
    * 
-   * @param staMessage
-   *          the station message.
+   * @param schemaVersion the schema version of the document or null if none.
    * @return true if match, false otherwise.
    */
-  protected boolean checkSchemaVersion(FDSNStationXML staMessage) {
-    try {
-      if (staMessage.checkSchemaVersion()) {
-        return true;
-      }
-    } catch (Exception ex) {
-      //
+  protected boolean checkSchemaVersion(String schemaVersion) {
+    if (StationXMLTagNames.CURRENT_SCHEMA_VERSION.equals(schemaVersion)) {
+      return true;
     }
     LOGGER.warn(
         "XM schema of this document ({}) does not match this code ({}) , results may be incorrect.",
-        staMessage.getXmlSchemaLocation(), StationXMLTagNames.CURRENT_SCHEMA_VERSION);
+        schemaVersion, StationXMLTagNames.CURRENT_SCHEMA_VERSION);
     return false;
   }
 
@@ -124,87 +125,7 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
    *           if an error occurs.
    */
   protected void fetch(URL url) throws Exception {
-    // likely not an error in the http layer, so assume XML is returned
-    XMLInputFactory factory = XMLInputFactory.newInstance();
-    XMLEventReader r = factory.createXMLEventReader(url.toString(), conn.getInputStream());
-    XMLEvent e = r.peek();
-    while (!e.isStartElement()) {
-      e = r.nextEvent(); // eat this one
-      e = r.peek(); // peek at the next
-    }
-    FDSNStationXML staMessage = new FDSNStationXML(r);
-    checkSchemaVersion(staMessage);
-    final NetworkIterator it = staMessage.getNetworks();
-    if (it != null) {
-      while (it.hasNext()) {
-        final Network n = it.next();
-        final StationIterator sit = n.getStations();
-        if (sit != null) {
-          while (sit.hasNext()) {
-            final Station s = sit.next();
-            // if (!n.toString().equals(s.getNetworkCode())) {
-            if (!n.getCode().equals(s.getCode())) {
-              throw new StationXMLException("Station in wrong network: " + n.getCode() + " != "
-                  + s.getCode() + "  " + r.peek().getLocation());
-
-            }
-            // List<StationEpoch> staEpochs = s.getStationEpochs();
-            // for (StationEpoch stationEpoch : staEpochs) {
-            // String network = n.toString();
-            // String station = s.getCode();
-            // FloatType latitude = s.getLatitude();
-            // FloatType longitude = s.getLongitude();
-            // String siteName = null;
-            // if (s.getSite() != null) {
-            // siteName = s.getSite().getName();
-            // }
-            // switch (getLevel()) {
-            // case STATION:
-            // processStation(createStationInfo(station, network, latitude.getValue(),
-            String network = n.getCode();
-            String station = s.getCode();
-            double latitude = s.getLatitude().getValue();
-            double longitude = s.getLongitude().getValue();
-            double elevation = s.getElevation().getValue();
-          
-            String siteName = null;
-            if (s.getSite() != null) {
-              siteName = s.getSite().getName();
-            }
-            switch (getLevel()) {
-              case STATION:
-                processStation(createStationInfo(station,
-                    network, latitude, longitude, elevation, siteName));
-                // break;
-                // case CHANNEL:
-                // List<Channel> chanList = s.getChannelList();
-                // for (Channel chan : chanList) {
-                // String location = chan.getLocCode();
-                // String channel = chan.getCode();
-                // processChannel(createChannelInfo(station,
-                break;
-              case CHANNEL:
-                List<Channel> chanList = s.getChannelList();
-                for (Channel chan : chanList) {
-                  String location = chan.getLocCode();
-                  String channel = chan.getCode();
-                  processChannel(createChannelInfo(station,
-                      channel, network, location, latitude, longitude, elevation, siteName, groupsType));
-                }
-                // break;
-                // default:
-                // break;
-                break;
-              default:
-                break;
-
-            }
-            // }
-          }
-        }
-      }
-    }
-    staMessage.closeReader();
+    parse(url, null);
   }
 
   /**
@@ -217,26 +138,140 @@ public class WebServiceStationXmlClient extends AbstractWebServiceStationClient
    *           if an error occurs.
    */
   protected void fetchNetworks(URL url) throws Exception {
+    List<String> networks = new ArrayList<String>();
+    parse(url, networks);
+    setNetworkList(networks);
+  }
+
+  /**
+   * Parse the response with a pull parser, handing out each station or channel as soon as it has
+   * been read. Only the network and station being read are held, everything else in the document
+   * is skipped, so memory does not grow with the size of the response.
+   * 
+   * @param url the URL.
+   * @param networks the list to add networks to or null to process stations or channels.
+   * @throws Exception if an error occurs.
+   */
+  private void parse(URL url, List<String> networks) throws Exception {
     // likely not an error in the http layer, so assume XML is returned
     XMLInputFactory factory = XMLInputFactory.newInstance();
-    XMLEventReader r = factory.createXMLEventReader(url.toString(), conn.getInputStream());
-    XMLEvent e = r.peek();
-    while (!e.isStartElement()) {
-      e = r.nextEvent(); // eat this one
-      e = r.peek(); // peek at the next
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XMLStreamReader r = factory.createXMLStreamReader(url.toString(), getInputStream());
+    try {
+      r.nextTag();
+      checkSchemaVersion(r.getAttributeValue(null, "schemaVersion"));
+      while (nextChild(r)) {
+        if (NETWORK.equals(r.getLocalName())) {
+          parseNetwork(r, networks);
+        } else {
+          skip(r);
+        }
+      }
+    } finally {
+      r.close();
     }
-    FDSNStationXML staMessage = new FDSNStationXML(r);
-    checkSchemaVersion(staMessage);
-    List<String> networks = new ArrayList<String>();
-    final NetworkIterator it = staMessage.getNetworks();
-    if (it != null) {
-      while (it.hasNext()) {
-        final Network n = it.next();
-        networks.add(n.getCode() + "," + n.getDescription());
+  }
+
+  private void parseNetwork(XMLStreamReader r, List<String> networks) throws Exception {
+    String network = r.getAttributeValue(null, CODE);
+    String description = null;
+    while (nextChild(r)) {
+      String name = r.getLocalName();
+      if (DESCRIPTION.equals(name)) {
+        description = r.getElementText();
+      } else if (STATION.equals(name) && networks == null) {
+        parseStation(r, network);
+      } else {
+        skip(r);
       }
     }
-    staMessage.closeReader();
-    setNetworkList(networks);
+    if (networks != null) {
+      networks.add(network + "," + description);
+    }
   }
 
+  private void parseStation(XMLStreamReader r, String network) throws Exception {
+    String station = r.getAttributeValue(null, CODE);
+    double latitude = Double.NaN;
+    double longitude = Double.NaN;
+    double elevation = Double.NaN;
+    String siteName = null;
+    while (nextChild(r)) {
+      String name = r.getLocalName();
+      if (LATITUDE.equals(name)) {
+        latitude = parseDouble(r.getElementText());
+      } else if (LONGITUDE.equals(name)) {
+        longitude = parseDouble(r.getElementText());
+      } else if (ELEVATION.equals(name)) {
+        elevation = parseDouble(r.getElementText());
+      } else if (SITE.equals(name)) {
+        while (nextChild(r)) {
+          if (NAME.equals(r.getLocalName())) {
+            siteName = r.getElementText();
+          } else {
+            skip(r);
+          }
+        }
+      } else if (CHANNEL.equals(name) && getLevel() == OutputLevel.CHANNEL) {
+        // station location and site come before its channels in the schema
+        String location = r.getAttributeValue(null, LOCATION_CODE);
+        String channel = r.getAttributeValue(null, CODE);
+        skip(r);
+        processChannel(createChannelInfo(station, channel, network,
+            location == null ? "" : location, latitude, longitude, elevation, siteName,
+            groupsType));
+      } else {
+        skip(r);
+      }
+    }
+    if (getLevel() == OutputLevel.STATION) {
+      processStation(
+          createStationInfo(station, network, latitude, longitude, elevation, siteName));
+    }
+  }
+
+  /**
+   * Move to the next child element of the current element.
+   * 
+   * @param r the reader, at a start tag or the end tag of a previous child.
+   * @return true if at the start tag of a child, false if at the end tag of the element.
+   * @throws XMLStreamException if the XML is not valid.
+   */
+  private static boolean nextChild(XMLStreamReader r) throws XMLStreamException {
+    while (r.hasNext()) {
+      int event = r.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Skip the current element and everything in it.
+   * 
+   * @param r the reader, at a start tag.
+   * @throws XMLStreamException if the XML is not valid.
+   */
+  private static void skip(XMLStreamReader r) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0 && r.hasNext()) {
+      int event = r.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static double parseDouble(String text) {
+    try {
+      return Double.parseDouble(text.trim());
+    } catch (NumberFormatException ex) {
+      return Double.NaN;
+    }
+  }
 }
@@ -1,17 +1,26 @@
 package gov.usgs.volcanoes.swarm.data.fdsnWs;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.sc.seis.seisFile.mseed.DataHeader;
 import edu.sc.seis.seisFile.mseed.DataRecord;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.ChannelUtil;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
+import gov.usgs.volcanoes.swarm.data.DataExecutor;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveAssembler;
 
 public class WebServicesClient extends AbstractDataRecordClient {
   private static final Logger LOGGER = LoggerFactory.getLogger(WebServicesClient.class);
@@ -24,6 +33,16 @@ public class WebServicesClient extends AbstractDataRecordClient {
   private static boolean useXmlClientFlag = Boolean
       .valueOf(WebServiceUtils.getProperty(WebServiceUtils.SWARM_WS_PROP_KEY_PREFIX + "USE_XML"));
 
+  /**
+   * Requests longer than this many seconds are split into chunks of this length which are
+   * fetched concurrently. Set "-DSWARM_WS_CHUNK_SECONDS=0" to always send one request.
+   */
+  private static final int chunkSeconds = Integer.parseInt(WebServiceUtils
+      .getProperty(WebServiceUtils.SWARM_WS_PROP_KEY_PREFIX + "CHUNK_SECONDS", "7200"));
+
+  /** update the channel tree this often while channels load, in ms. */
+  private static final long UPDATE_INTERVAL = 1000;
+
   /**
    * Get the default web services data select URL text.
    * 
@@ -48,10 +67,11 @@ public class WebServicesClient extends AbstractDataRecordClient {
   /** The web services data select URL text. */
   private final String wsDataSelectUrl;
 
-  private String lastStation = "";
-  private int numStations = 0;
-  private int stationCount = 0;
   private final String progressId = "channels";
+  /** The channels added so far, to find duplicates without searching the list. */
+  private final Set<String> channelSet = new HashSet<String>();
+  /** When the channel tree was last updated while loading, in ms. */
+  private long lastUpdate;
 
   /**
    * Creates the web services client.
@@ -86,31 +106,13 @@ public class WebServicesClient extends AbstractDataRecordClient {
     if (useXmlClientFlag) {
       stationClient = new WebServiceStationXmlClient(wsStationUrl, net, sta, loc, chan, date) {
         public void processChannel(ChannelInfo ch) {
-          WebServiceUtils.addChannel(channelList, ch, source);
-          if (lastStation.compareTo(ch.getStation()) != 0) {
-            lastStation = ch.getStation();
-            if (numStations > 0) {
-              getSource().fireChannelsProgress(progressId,
-                  (double) stationCount / (double) numStations);
-            }
-            stationCount++;
-          }
-
+          addChannel(channelList, ch, this);
         }
       };
     } else {
       stationClient = new WebServiceStationTextClient(wsStationUrl, net, sta, loc, chan, date) {
         public void processChannel(ChannelInfo ch) {
-          WebServiceUtils.addChannel(channelList, ch, source);
-          if (lastStation.compareTo(ch.getStation()) != 0) {
-            lastStation = ch.getStation();
-            if (numStations > 0) {
-              getSource().fireChannelsProgress(progressId,
-                  (double) stationCount / (double) numStations);
-            }
-            stationCount++;
-          }
-
+          addChannel(channelList, ch, this);
         }
       };
     }
@@ -131,43 +133,11 @@ public class WebServicesClient extends AbstractDataRecordClient {
     } else {
       String error = null;
       long start = System.currentTimeMillis();
-      if (stationClient.isAllNetworks()) {
-        stationClient.setCurrentStation(null);
-        // error = stationClient.fetchChannels();
-        error = stationClient.fetchStations();
-        if (error == null) {
-          getSource().fireChannelsProgress(progressId, 0.);
-          numStations = stationClient.getStationList().size();
-          error = stationClient.fetchChannels();
-        }
-
-      } else {
-        // final String id = "channels";
-        getSource().fireChannelsProgress(progressId, 0.);
-        // getSource().fireChannelsProgress(id, 0.);
-        error = stationClient.fetchStations();
-        numStations = stationClient.getStationList().size();
-        if (error == null) {
-          /*
-           * final List<StationInfo> stationList = stationClient.getStationList();
-           * final int ns = stationList.size();
-           * for (StationInfo station : stationList) {
-           * getSource().fireChannelsProgress(id, (double) cnt / (double) ns);
-           * cnt++;
-           * stationClient.setCurrentStation(station);
-           * error = stationClient.fetchChannels();
-           * if (error != null) {
-           * break;
-           * }
-           * }
-           */
-          stationClient.setCurrentStation(null);
-          error = stationClient.fetchChannels();
-
-        }
-        // getSource().fireChannelsProgress(id, 1.);
-        getSource().fireChannelsProgress(progressId, 1.);
-      }
+      // one channel level request for everything, progress comes from the bytes read
+      getSource().fireChannelsProgress(progressId, 0.);
+      stationClient.setCurrentStation(null);
+      error = stationClient.fetchChannels();
+      getSource().fireChannelsProgress(progressId, 1.);
       long end = System.currentTimeMillis();
       if (WebServiceUtils.isDebug()) {
         LOGGER.debug("getChannels({}): {} seconds", (useXmlClientFlag ? "XML" : "Text"),
@@ -182,7 +152,50 @@ public class WebServicesClient extends AbstractDataRecordClient {
   }
 
   /**
-   * Get the raw data.
+   * Add a channel as it is parsed, reporting progress and updating the channel tree every so
+   * often.
+   * 
+   * @param channelList the channel list.
+   * @param ch the channel.
+   * @param client the station client reading the channels.
+   */
+  private void addChannel(List<String> channelList, ChannelInfo ch,
+      AbstractWebServiceStationClient client) {
+    synchronized (channelList) {
+      if (!channelSet.add(ch.getFormattedSCNL())) {
+        return;
+      }
+      ChannelUtil.addNewChannel(channelList, ch, getSource());
+    }
+    final long now = System.currentTimeMillis();
+    if (now - lastUpdate >= UPDATE_INTERVAL) {
+      lastUpdate = now;
+      final double progress = client.getProgress();
+      if (progress >= 0) {
+        getSource().fireChannelsProgress(progressId, progress);
+      }
+      getSource().fireChannelsUpdated();
+    }
+  }
+
+  /**
+   * Get the channels read so far while {@link #getChannels()} is loading them.
+   * 
+   * @return a sorted copy of the channels.
+   */
+  public List<String> getLoadingChannels() {
+    final List<String> channelList = stationClient.getChannelList();
+    final List<String> channels;
+    synchronized (channelList) {
+      channels = new ArrayList<String>(channelList);
+    }
+    Collections.sort(channels);
+    return channels;
+  }
+
+  /**
+   * Get the raw data. Long spans are split into chunks which are fetched concurrently, up to the
+   * per host limit of {@link WebServiceHttpClient}, and stitched back together in time order.
    * 
    * @param channelInfo the channel information.
    * @param t1 the start time.
@@ -190,9 +203,196 @@ public class WebServicesClient extends AbstractDataRecordClient {
    * @return the raw data.
    */
   public Wave getRawData(final ChannelInfo channelInfo, final double t1, final double t2) {
+    return getRawData(channelInfo, t1, t2, null);
+  }
+
+  /**
+   * Get the raw data, noting the spans the server answered with no data. A span whose request
+   * failed is not noted, so it may be asked for again.
+   * 
+   * @param channelInfo the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @param empty list the spans without data are added to, or null if not wanted.
+   * @return the raw data.
+   */
+  public Wave getRawData(final ChannelInfo channelInfo, final double t1, final double t2,
+      final List<double[]> empty) {
+    final List<Wave> waves = getRawWaves(channelInfo, t1, t2, empty, null);
+    Wave wave = waves.size() == 1 ? waves.get(0) : join(waves);
+    if (wave != null && WebServiceUtils.isDebug()) {
+      LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
+          getDateText(wave.getEndTime()) + ")");
+    }
+    return wave;
+  }
+
+  /**
+   * Get the raw data as unbroken segments, noting the spans the server answered with no data and
+   * the spans whose request failed. Joining the segments would fill a failed span with no data
+   * as if the server had none, so callers which keep the data should keep the segments apart when
+   * any request failed.
+   * 
+   * @param channelInfo the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @param empty list the spans without data are added to, or null if not wanted.
+   * @param failed list the spans whose request failed are added to, or null if not wanted.
+   * @return the segments in time order, possibly empty.
+   */
+  public List<Wave> getRawWaves(final ChannelInfo channelInfo, final double t1, final double t2,
+      final List<double[]> empty, final List<double[]> failed) {
+    if (chunkSeconds <= 0 || t2 - t1 <= chunkSeconds * 1.5) {
+      return fetchWaves(channelInfo, t1, t2, empty, failed);
+    } else {
+      return fetchChunks(channelInfo, t1, t2, empty, failed);
+    }
+  }
+
+  /**
+   * Get the raw data for several channels over the same span in one bulk POST request. The
+   * records come back in one stream and are sorted into waves by channel as they arrive.
+   * 
+   * @param stations the channels.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return map of channel to raw data in the order of stations, null where there was none.
+   */
+  public Map<String, Wave> getRawData(final List<String> stations, final double t1,
+      final double t2) {
     final Date begin = getDate(t1);
     final Date end = getDate(t2);
+    final Map<String, WaveAssembler> wavesByKey = new LinkedHashMap<String, WaveAssembler>();
+    final DataSelectReader reader = new DataSelectReader(wsDataSelectUrl) {
+      /**
+       * Process a data record.
+       * 
+       * @param dr the data record.
+       * @return true if data record should be added to the list, false
+       *         otherwise.
+       */
+      public boolean processRecord(DataRecord dr) {
+        final DataHeader dh = dr.getHeader();
+        final WaveAssembler assembler = wavesByKey.get(getKey(dh.getNetworkCode(),
+            dh.getStationIdentifier(), dh.getLocationIdentifier(), dh.getChannelIdentifier()));
+        if (assembler == null) {
+          LOGGER.debug("skipping record for unrequested channel {}", dh);
+          return false;
+        }
+        try {
+          addSamples(assembler, dr);
+        } catch (Exception ex) {
+          LOGGER.warn("could not get web service raw data ({}): {}", dh, ex.getMessage());
+        }
+        return true;
+      }
+    };
+
+    final StringBuilder body = new StringBuilder();
+    for (final String station : stations) {
+      final ChannelInfo channelInfo = new ChannelInfo(station);
+      final String key = getKey(channelInfo.getNetwork(), channelInfo.getStation(),
+          channelInfo.getLocation(), channelInfo.getChannel());
+      if (!wavesByKey.containsKey(key)) {
+        wavesByKey.put(key, new WaveAssembler(t2));
+        body.append(reader.createBulkLine(channelInfo.getNetwork(), channelInfo.getStation(),
+            channelInfo.getLocation(), channelInfo.getChannel(), begin, end)).append('\n');
+      }
+    }
+    try {
+      reader.readPost(body.toString(), (List<DataRecord>) null);
+    } catch (Exception ex) {
+      LOGGER.warn("could not get web service raw data ({} channels): {}", stations.size(),
+          ex.getMessage());
+    }
+
+    final Map<String, Wave> result = new LinkedHashMap<String, Wave>();
+    for (final String station : stations) {
+      final ChannelInfo channelInfo = new ChannelInfo(station);
+      result.put(station, wavesByKey.get(getKey(channelInfo.getNetwork(),
+          channelInfo.getStation(), channelInfo.getLocation(), channelInfo.getChannel()))
+          .getWave());
+    }
+    return result;
+  }
+
+  /**
+   * Get the key matching a requested channel to the header of a data record.
+   * 
+   * @param network the network.
+   * @param station the station.
+   * @param location the location, empty or the empty location code if none.
+   * @param channel the channel.
+   * @return the key.
+   */
+  private static String getKey(String network, String station, String location,
+      String channel) {
+    location = location == null ? "" : location.trim();
+    if (WebServiceUtils.EMPTY_LOC_CODE.equals(location)) {
+      location = "";
+    }
+    return network.trim() + "." + station.trim() + "." + location + "." + channel.trim();
+  }
+
+  /**
+   * Fetch a long span as chunk requests, no more at once than are allowed to one host.
+   * 
+   * @param channelInfo the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @param empty list the spans without data are added to, or null if not wanted.
+   * @param failed list the spans whose request failed are added to, or null if not wanted.
+   * @return the waves of all chunks in time order.
+   */
+  private List<Wave> fetchChunks(final ChannelInfo channelInfo, final double t1,
+      final double t2, final List<double[]> empty, final List<double[]> failed) {
+    final int count = (int) Math.ceil((t2 - t1) / chunkSeconds);
+    final List<List<Wave>> chunks = new ArrayList<List<Wave>>(count);
+    final List<Runnable> tasks = new ArrayList<Runnable>(count);
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      final double chunkStart = t1 + (double) i * chunkSeconds;
+      final double chunkEnd = Math.min(t2, chunkStart + chunkSeconds);
+      chunks.add(null);
+      tasks.add(new Runnable() {
+        public void run() {
+          final List<Wave> chunk =
+              fetchWaves(channelInfo, chunkStart, chunkEnd, empty, failed);
+          synchronized (chunks) {
+            chunks.set(index, chunk);
+          }
+        }
+      });
+    }
+    DataExecutor.invokeAll(tasks, WebServiceHttpClient.getMaxPerHost());
+
     final List<Wave> waves = createWaves();
+    synchronized (chunks) {
+      for (final List<Wave> chunk : chunks) {
+        if (chunk != null) {
+          waves.addAll(chunk);
+        }
+      }
+    }
+    return waves;
+  }
+
+  /**
+   * Fetch the waves for a span in one request. Records are decoded as they arrive, onto the end
+   * of the samples before them.
+   * 
+   * @param channelInfo the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @param empty list the span is added to if the server has no data for it, or null.
+   * @param failed list the span is added to if the request failed, or null.
+   * @return the waves, one for each unbroken segment.
+   */
+  private List<Wave> fetchWaves(final ChannelInfo channelInfo, final double t1,
+      final double t2, final List<double[]> empty, final List<double[]> failed) {
+    final Date begin = getDate(t1);
+    final Date end = getDate(t2);
+    final WaveAssembler assembler = new WaveAssembler(t2);
     final DataSelectReader reader = new DataSelectReader(wsDataSelectUrl) {
       /**
        * Process a data record.
@@ -203,7 +403,7 @@ public class WebServicesClient extends AbstractDataRecordClient {
        */
       public boolean processRecord(DataRecord dr) {
         try {
-          addWaves(waves, dr);
+          addSamples(assembler, dr);
         } catch (Exception ex) {
           LOGGER.warn("could not get web service raw data ({}): {}", channelInfo, ex.getMessage());
         }
@@ -216,13 +416,20 @@ public class WebServicesClient extends AbstractDataRecordClient {
       reader.read(query, (List<DataRecord>) null);
     } catch (Exception ex) {
       LOGGER.warn("could not get web service raw data ({}): {}", channelInfo, ex.getMessage());
+      if (failed != null) {
+        synchronized (failed) {
+          failed.add(new double[] {t1, t2});
+        }
+      }
+      return assembler.getWaves();
     }
-    Wave wave = join(waves);
-    if (wave != null && WebServiceUtils.isDebug()) {
-      LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
-          getDateText(wave.getEndTime()) + ")");
+    final List<Wave> waves = assembler.getWaves();
+    if (waves.isEmpty() && empty != null) {
+      synchronized (empty) {
+        empty.add(new double[] {t1, t2});
+      }
     }
-    return wave;
+    return waves;
   }
 
   /**
@@ -238,7 +445,7 @@ public class WebServicesClient extends AbstractDataRecordClient {
   public static Wave getWave(final String code, final double t1, final double t2) {
     final Date begin = getDate(t1);
     final Date end = getDate(t2);
-    final List<Wave> waves = new ArrayList<Wave>();
+    final WaveAssembler assembler = new WaveAssembler(t2);
     final DataSelectReader reader =
         new DataSelectReader(SwarmConfig.getInstance().fdsnDataselectURL) {
           /**
@@ -250,7 +457,7 @@ public class WebServicesClient extends AbstractDataRecordClient {
            */
           public boolean processRecord(DataRecord dr) {
             try {
-              addWaves(waves, dr);
+              addSamples(assembler, dr);
             } catch (Exception ex) {
               LOGGER.warn("could not get web service raw data ({}): {}", code, ex.getMessage());
             }
@@ -265,7 +472,7 @@ public class WebServicesClient extends AbstractDataRecordClient {
     } catch (Exception ex) {
       LOGGER.warn("could not get web service raw data ({}): {}", code, ex.getMessage());
     }
-    Wave wave = join(waves);
+    Wave wave = assembler.getWave();
     if (wave != null && WebServiceUtils.isDebug()) {
       LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
           getDateText(wave.getEndTime()) + ")");
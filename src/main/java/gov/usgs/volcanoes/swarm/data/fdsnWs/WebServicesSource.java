@@ -1,7 +1,10 @@
 package gov.usgs.volcanoes.swarm.data.fdsnWs;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,6 +15,7 @@ import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelGroupInfo;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.CoalescingWaveFetcher;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.GulperList;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
@@ -44,6 +48,12 @@ public class WebServicesSource extends SeismicDataSource {
   private int gulpDelay;
   /** The gulp size. */
   private int gulpSize;
+  /** Shares concurrent dataselect requests for the same channel. */
+  private final CoalescingWaveFetcher waveFetcher = new CoalescingWaveFetcher() {
+    protected Wave fetch(String station, double t1, double t2) {
+      return fetchWave(station, t1, t2);
+    }
+  };
   // /** The channel. */
   // private String chan;
   // /** The location. */
@@ -58,6 +68,7 @@ public class WebServicesSource extends SeismicDataSource {
   // private String wsStationUrl;
 
   private String configString;
+  private String channelListKey;
 
   static {
     typeString = DataSourceType.getShortName(WebServicesSource.class);
@@ -116,6 +127,8 @@ public class WebServicesSource extends SeismicDataSource {
     gulpDelay = Integer.parseInt(ss[ssIndex++]);
     String wsDataSelectUrl = ss[ssIndex++];
     String wsStationUrl = ss[ssIndex++];
+    channelListKey = String.format("%s:%s:%s:%s:%s:%s", typeString, net, sta, loc, chan,
+        wsStationUrl);
     configString = String.format("%s;%s:" + PARAM_FMT_TEXT, name, typeString, net, sta, loc, chan,
         gulpSize, gulpDelay, wsDataSelectUrl, wsStationUrl);
     client = new WebServicesClient(this, net, sta, loc, chan, wsDataSelectUrl, wsStationUrl);
@@ -156,6 +169,18 @@ public class WebServicesSource extends SeismicDataSource {
     return Collections.unmodifiableList(channels);
   }
 
+  /**
+   * Get the channels read so far while the channel list loads. Not synchronized, so it can be
+   * called while {@link #getChannels()} is running.
+   * 
+   * @return the channels read so far.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getLoadingChannels()
+   */
+  @Override
+  public List<String> getLoadingChannels() {
+    return client.getLoadingChannels();
+  }
+
   /**
    * Get a copy of this data source.
    * 
@@ -222,27 +247,107 @@ public class WebServicesSource extends SeismicDataSource {
    * @param t2 the end time.
    * @return the wave or null if none.
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(String station, double t1, double t2) {
     CachedDataSource cache = CachedDataSource.getInstance();
 
-    Wave sw = null;
     if (useCache) {
-      sw = cache.getWave(station, t1, t2);
+      return cache.getWave(station, t1, t2, waveFetcher);
+    } else {
+      return waveFetcher.getWave(station, t1, t2);
     }
-    if (sw == null) {
-      ChannelInfo channelInfo = new ChannelGroupInfo(station);
-      sw = client.getRawData(channelInfo, t1, t2);
-      if (sw == null) {
-        return null;
+  }
+
+  /**
+   * Get waves for several channels over the same span. Channels the cache cannot serve in full
+   * are fetched together in one bulk POST request rather than one request each.
+   * 
+   * @param channels the channels.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return map of channel to wave in the order of channels, null where there was no wave.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWaves(List, double, double)
+   */
+  @Override
+  public Map<String, Wave> getWaves(List<String> channels, double t1, double t2) {
+    CachedDataSource cache = CachedDataSource.getInstance();
+    Map<String, Wave> result = new LinkedHashMap<String, Wave>();
+    List<String> missing = new ArrayList<String>();
+    for (String channel : channels) {
+      Wave wave = useCache ? cache.getWave(channel, t1, t2) : null;
+      result.put(channel, wave);
+      if (wave == null) {
+        missing.add(channel);
+      }
+    }
+    if (missing.size() == 1) {
+      result.put(missing.get(0), getWave(missing.get(0), t1, t2));
+    } else if (!missing.isEmpty()) {
+      Map<String, Wave> fetched = client.getRawData(missing, t1, t2);
+      for (Map.Entry<String, Wave> entry : fetched.entrySet()) {
+        Wave wave = entry.getValue();
+        if (wave != null && useCache) {
+          cache.cacheWaveAsHelicorder(entry.getKey(), wave);
+          cache.putWave(entry.getKey(), wave);
+        }
+        result.put(entry.getKey(), wave);
       }
-      if (useCache) {
+    }
+    return result;
+  }
+
+  /**
+   * Fetch a wave from the web service and cache it. Concurrent requests are coalesced by
+   * waveFetcher before they get here, so fetches of different channels run at once, up to
+   * {@link #getMaxConnections()}. If a chunk of a long request failed, the segments that did
+   * arrive are cached apart so the failed span is asked for again rather than cached as a gap.
+   * 
+   * @param station the station.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the wave or null if none.
+   */
+  private Wave fetchWave(String station, double t1, double t2) {
+    CachedDataSource cache = CachedDataSource.getInstance();
+    ChannelInfo channelInfo = new ChannelGroupInfo(station);
+    List<double[]> empty = new ArrayList<double[]>();
+    List<double[]> failed = new ArrayList<double[]>();
+    List<Wave> waves = client.getRawWaves(channelInfo, t1, t2, empty, failed);
+    if (useCache) {
+      for (double[] span : empty) {
+        cache.putEmpty(station, span[0], span[1]);
+      }
+    }
+    if (waves.isEmpty()) {
+      return null;
+    }
+    Wave sw = waves.size() == 1 ? waves.get(0) : WebServicesClient.join(waves);
+    if (sw == null) {
+      return null;
+    }
+    if (useCache) {
+      if (failed.isEmpty()) {
         cache.cacheWaveAsHelicorder(station, sw);
         cache.putWave(station, sw);
+      } else {
+        for (Wave wave : waves) {
+          cache.cacheWaveAsHelicorder(station, wave);
+          cache.putWave(station, wave);
+        }
       }
     }
     return sw;
   }
 
+  /**
+   * Get the most requests sent to the web service host at once.
+   * 
+   * @return the per host limit of {@link WebServiceHttpClient}.
+   */
+  @Override
+  public int getMaxConnections() {
+    return WebServiceHttpClient.getMaxPerHost();
+  }
+
   /**
    * Is this data source active; that is, is new data being added in real-time
    * to this data source?
@@ -266,5 +371,13 @@ public class WebServicesSource extends SeismicDataSource {
   public String toConfigString() {
     return configString;
   }
+
+  /**
+   * The channels depend only on the station service and the channel filters.
+   */
+  @Override
+  public String getChannelListKey() {
+    return channelListKey;
+  }
   
 }
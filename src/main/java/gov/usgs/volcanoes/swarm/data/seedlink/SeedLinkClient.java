@@ -17,13 +17,12 @@ import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.Swarm;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveAssembler;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
 import java.util.TimeZone;
 
 import nl.knmi.orfeus.seedlink.SLLog;
@@ -78,6 +77,45 @@ public class SeedLinkClient implements Runnable {
   }
 
 
+  /**
+   * Convert a data blockette to a wave (also done in gov.usgs.swarm.data.FileDataSource).
+   * 
+   * @param blockette the FSDH blockette.
+   * @param waveform the waveform.
+   * @return the wave.
+   * @throws Exception if the waveform cannot be decoded.
+   */
+  static Wave createWave(Blockette blockette, Waveform waveform) throws Exception {
+    final Wave wave = new Wave();
+    wave.setSamplingRate(getSampleRate(blockette));
+    wave.setStartTime(getStartTime(blockette));
+    wave.buffer = waveform.getDecodedIntegers();
+    wave.register();
+    return wave;
+  }
+
+  /**
+   * Get the start time of a data blockette.
+   * 
+   * @param blockette the FSDH blockette.
+   * @return the start time.
+   * @throws Exception if the field cannot be read.
+   */
+  private static double getStartTime(Blockette blockette) throws Exception {
+    return J2kSec.fromDate(btimeToDate(getBtime(blockette, 8)));
+  }
+
+  /**
+   * Get the sampling rate of a data blockette.
+   * 
+   * @param blockette the FSDH blockette.
+   * @return the sampling rate.
+   * @throws Exception if the fields cannot be read.
+   */
+  private static double getSampleRate(Blockette blockette) throws Exception {
+    return getSampleRate(getDouble(blockette, 10), getDouble(blockette, 11));
+  }
+
   /**
    * Converts a j2ksec to a SeedLink date string
    * ("year,month,day,hour,minute,second").
@@ -85,7 +123,7 @@ public class SeedLinkClient implements Runnable {
    * @param j the j2ksec or NaN if none.
    * @return a SeedLink date string or null if none.
    */
-  private static String j2kToSeedLinkDateString(double j) {
+  static String j2kToSeedLinkDateString(double j) {
     if (Double.isNaN(j)) {
       return null;
     }
@@ -101,8 +139,8 @@ public class SeedLinkClient implements Runnable {
   /** The thread or null if none. */
   private Thread thread;
 
-  /** The wave list or null if none. */
-  private List<Wave> waveList;
+  /** The wave being assembled or null if none. */
+  private WaveAssembler assembler;
 
   // parameters
   /** BaseSLConnection object for communicating with the BaseSLConnection over a socket. */
@@ -222,11 +260,13 @@ public class SeedLinkClient implements Runnable {
    * @return the wave.
    */
   public Wave getWave(String scnl, double t1, double t2) {
-    waveList = new ArrayList<Wave>();
+    assembler = new WaveAssembler(t2);
     init(scnl, t1, t2);
     run();
-    final Wave wave = Wave.join(waveList);
-    waveList = null;
+    final Wave wave = assembler.getWave();
+    assembler = null;
+    // cached once whole rather than packet by packet
+    cacheWave(scnl, wave);
     return wave;
   }
 
@@ -385,27 +425,15 @@ public class SeedLinkClient implements Runnable {
     // if waveform and FSDH
     if (waveform != null && blockette.getType() == 999
         && Swarm.getApplicationFrame() != null) {
-      // convert waveform to wave (also done in
-      // gov.usgs.swarm.data.FileDataSource)
       try {
-        final Btime bTime = getBtime(blockette, 8);
-        final double factor = getDouble(blockette, 10);
-        final double multiplier = getDouble(blockette, 11);
-        final double startTime = J2kSec.fromDate(btimeToDate(bTime));
-        final double samplingRate = getSampleRate(factor,
-            multiplier);
-        final Wave wave = new Wave();
-        wave.setSamplingRate(samplingRate);
-        wave.setStartTime(startTime);
-        wave.buffer = waveform.getDecodedIntegers();
-        wave.register();
-        cacheWave(scnl, wave);
-        if (waveList != null) {
-          waveList.add(wave);
+        if (assembler != null) {
+          assembler.append(getStartTime(blockette), getSampleRate(blockette),
+              waveform.getDecodedIntegers());
         } else {
-          final double endTime = wave.getEndTime();
+          final Wave wave = createWave(blockette, waveform);
+          cacheWave(scnl, wave);
           synchronized (startEndTime) {
-            startEndTime.update(startTime, endTime);
+            startEndTime.update(wave.getStartTime(), wave.getEndTime());
           }
         }
       } catch (Exception ex) {
@@ -419,7 +447,7 @@ public class SeedLinkClient implements Runnable {
   /*
    * taken from Robert Casey's PDCC seed code.
    */
-  private float getSampleRate(double factor, double multiplier) {
+  private static float getSampleRate(double factor, double multiplier) {
     float sampleRate = (float) 10000.0; // default (impossible) value;
     if ((factor * multiplier) != 0.0) { // in the case of log records
       sampleRate = (float) (java.lang.Math.pow(java.lang.Math.abs(factor),
@@ -430,7 +458,7 @@ public class SeedLinkClient implements Runnable {
     return sampleRate;
   }
 
-  private Date btimeToDate(Btime btime) {
+  private static Date btimeToDate(Btime btime) {
     Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
     cal.set(Calendar.YEAR, btime.getYear());
     cal.set(Calendar.DAY_OF_YEAR, btime.getDayOfYear());
@@ -9,8 +9,8 @@ import gov.usgs.volcanoes.swarm.data.GulperList;
  * @author Kevin Frechette (ISTI)
  */
 public class SeedLinkGulper extends Gulper {
-  /** The SeedLink client. */
-  private final SeedLinkClient client;
+  /** The channel's subscription to the shared SeedLink session. */
+  private final SeedLinkSession.Subscription subscription;
 
   /** The start end time. */
   private final StartEndTime startEndTime;
@@ -31,10 +31,8 @@ public class SeedLinkGulper extends Gulper {
       String ch, double t1, double t2, int size, int delay) {
     super(gl, k, source, ch, t1, t2, size, delay);
     startEndTime = new StartEndTime();
-    // start client with no end time to keep getting updates
-    client = source.createClient();
-    client.init(ch, t1, Double.NaN);
-    client.start();
+    // subscribe with no end time to keep getting updates
+    subscription = source.subscribe(ch, t1);
   }
 
   /**
@@ -43,30 +41,28 @@ public class SeedLinkGulper extends Gulper {
    * @return true if the gulper has been killed or was never started.
    */
   public boolean isKilled() {
-    return super.isKilled() || client.isKilled();
+    return super.isKilled() || subscription.isClosed();
   }
 
   /**
    * Kill this gulper.
    */
   protected void kill() {
-    client.kill();
+    subscription.close();
     super.kill();
   }
 
   /**
-   * This is the run loop.
+   * Pass on whatever the session has received since the last step. Runs until killed.
    */
-  protected void runLoop() {
-    while (!isKilled()) {
-      client.getStartEndTime(startEndTime);
-      if (!Double.isNaN(startEndTime.getEndTime())) {
-        fireGulped(startEndTime.getStartTime(),
-            startEndTime.getEndTime(), true);
-        startEndTime.clear();
-      }
-      delay();
+  protected long gulp() {
+    subscription.getStartEndTime(startEndTime);
+    if (!Double.isNaN(startEndTime.getEndTime())) {
+      fireGulped(startEndTime.getStartTime(),
+          startEndTime.getEndTime(), true);
+      startEndTime.clear();
     }
+    return getGulpDelay();
   }
 
   public void update(double t1, double t2) {
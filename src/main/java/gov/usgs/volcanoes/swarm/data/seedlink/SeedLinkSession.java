@@ -0,0 +1,522 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.seedlink;
+
+import edu.iris.Fissures.seed.container.Blockette;
+import edu.iris.Fissures.seed.container.BlocketteDecoratorFactory;
+import edu.iris.Fissures.seed.container.Waveform;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.Swarm;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.RealtimeBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import nl.knmi.orfeus.seedlink.SLLog;
+import nl.knmi.orfeus.seedlink.SLPacket;
+import nl.knmi.orfeus.seedlink.client.SeedLinkConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One multi-station SeedLink session per server, shared by every channel streamed from it.
+ *
+ * <p>Channels are added with {@link #subscribe(String, double)} and dropped by closing the
+ * returned {@link Subscription}. Incoming packets are demultiplexed by channel, appended to the
+ * channel's realtime buffer in the cache and recorded in each subscription's received span. The
+ * stream list of a SeedLink session is fixed once it is connected, so a change of channels
+ * reconnects with the new list, batching changes that arrive close together and resuming each
+ * channel from the last data it received.
+ *
+ * <p>A session has one begin time for all its streams, so a subscription's own start is never
+ * asked of the session. The session resumes from the earliest point its channels have reached,
+ * counting a new channel as having reached the time it was subscribed, and a channel quiet for
+ * longer than the realtime buffer resumes from the start of the buffer. The data before a new
+ * subscription is fetched by a one-off request for that channel alone, so opening a day long
+ * helicorder does not make every other channel on the server replay that day. The session and its
+ * thread go away with the last subscription.
+ *
+ * @author Tom Parker
+ */
+public class SeedLinkSession implements Runnable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedLinkSession.class);
+
+  /** wait this long for more channel changes before reconnecting, in ms. */
+  private static final long RECONNECT_DELAY = 500;
+
+  /** wait this long before reconnecting after the server drops the session, in ms. */
+  private static final long RETRY_DELAY = 10 * 1000;
+
+  /** never resume further back than the realtime buffer holds, in seconds. */
+  private static final double MAX_RESUME =
+      RealtimeBuffer.CHUNKS * RealtimeBuffer.CHUNK_SECONDS;
+
+  private static final Map<String, SeedLinkSession> sessions =
+      new HashMap<String, SeedLinkSession>();
+
+  private final String address;
+
+  // guarded by this
+  private final Map<String, List<Subscription>> subscriptions;
+  private SeedLinkConnection slconn;
+  private boolean dirty;
+  private boolean closed;
+
+  private SeedLinkSession(final String host, final int port) {
+    address = host + ":" + port;
+    subscriptions = new LinkedHashMap<String, List<Subscription>>();
+  }
+
+  /**
+   * Start streaming a channel, from the session for its server.
+   *
+   * @param host server host
+   * @param port server port
+   * @param scnl channel
+   * @param t1 time to stream from or NaN for new data only
+   * @return the subscription
+   */
+  public static Subscription subscribe(final String host, final int port, final String scnl,
+      final double t1) {
+    synchronized (sessions) {
+      final String key = host + ":" + port;
+      SeedLinkSession session = sessions.get(key);
+      if (session == null) {
+        session = new SeedLinkSession(host, port);
+        sessions.put(key, session);
+        final Thread thread = new Thread(session, "SeedLink " + key);
+        thread.setDaemon(true);
+        thread.start();
+      }
+      return session.subscribe(scnl, t1);
+    }
+  }
+
+  /**
+   * Get the number of channels being streamed.
+   *
+   * @return channel count
+   */
+  public synchronized int getChannelCount() {
+    return subscriptions.size();
+  }
+
+  private synchronized Subscription subscribe(final String scnl, final double t1) {
+    final double now = J2kSec.now();
+    final Subscription subscription =
+        new Subscription(this, scnl, Double.isNaN(t1) ? Double.NaN : now);
+    List<Subscription> list = subscriptions.get(subscription.key);
+    if (list == null) {
+      list = new ArrayList<Subscription>();
+      subscriptions.put(subscription.key, list);
+      changed();
+    }
+    list.add(subscription);
+    if (t1 < now) {
+      backfill(subscription, t1, now);
+    }
+    LOGGER.debug("{} subscribed on {}, {} channels", scnl, address, subscriptions.size());
+    return subscription;
+  }
+
+  private void unsubscribe(final Subscription subscription) {
+    synchronized (sessions) {
+      synchronized (this) {
+        final List<Subscription> list = subscriptions.get(subscription.key);
+        if (list == null || !list.remove(subscription)) {
+          return;
+        }
+        if (list.isEmpty()) {
+          subscriptions.remove(subscription.key);
+          changed();
+        }
+        LOGGER.debug("{} unsubscribed from {}, {} channels", subscription.scnl, address,
+            subscriptions.size());
+        if (subscriptions.isEmpty()) {
+          closed = true;
+          sessions.remove(address);
+          if (slconn != null) {
+            slconn.terminate();
+          }
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Note the channel list has changed and stop the current connection. Caller must hold the
+   * lock.
+   */
+  private void changed() {
+    dirty = true;
+    if (slconn != null) {
+      slconn.terminate();
+    }
+    notifyAll();
+  }
+
+  /**
+   * Connect, stream until the channel list changes or the session closes, and repeat.
+   */
+  public void run() {
+    while (true) {
+      final SeedLinkConnection conn;
+      synchronized (this) {
+        while (!dirty && !closed) {
+          try {
+            wait();
+          } catch (final InterruptedException e) {
+            return;
+          }
+        }
+        if (closed) {
+          return;
+        }
+      }
+
+      // let a burst of views opening or closing settle into one reconnect
+      try {
+        Thread.sleep(RECONNECT_DELAY);
+      } catch (final InterruptedException e) {
+        return;
+      }
+
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        dirty = false;
+        conn = connect();
+        slconn = conn;
+      }
+      if (conn == null) {
+        synchronized (this) {
+          try {
+            wait(RETRY_DELAY);
+          } catch (final InterruptedException e) {
+            return;
+          }
+          dirty = true;
+        }
+        continue;
+      }
+
+      final boolean dropped = collect(conn);
+      conn.close();
+      synchronized (this) {
+        if (slconn == conn) {
+          slconn = null;
+        }
+        if (dropped && !closed && !dirty) {
+          LOGGER.debug("SeedLink session to {} dropped, retrying", address);
+          try {
+            wait(RETRY_DELAY);
+          } catch (final InterruptedException e) {
+            return;
+          }
+          dirty = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Fetch the data before a subscription started with a one-off request for its channel alone.
+   *
+   * @param subscription subscription
+   * @param t1 start time
+   * @param t2 end time, where the session takes over
+   */
+  private void backfill(final Subscription subscription, final double t1, final double t2) {
+    final ChannelInfo channelInfo = new ChannelInfo(subscription.scnl);
+    final SeedLinkConnection conn = new SeedLinkConnection(new SLLog());
+    conn.setSLAddress(address);
+    try {
+      conn.parseStreamlist(getStation(channelInfo) + ":" + getSelector(channelInfo), null);
+      conn.setBeginTime(SeedLinkClient.j2kToSeedLinkDateString(t1));
+      conn.setEndTime(SeedLinkClient.j2kToSeedLinkDateString(t2));
+    } catch (final Exception e) {
+      LOGGER.warn("Cannot set up SeedLink backfill of {} from {}", subscription.scnl, address, e);
+      return;
+    }
+    if (!subscription.backfilling(conn)) {
+      return;
+    }
+
+    final Thread thread = new Thread(new Runnable() {
+      public void run() {
+        collect(conn);
+        conn.close();
+        subscription.backfilling(null);
+        LOGGER.debug("SeedLink backfill of {} from {} done", subscription.scnl, address);
+      }
+    }, "SeedLink backfill " + subscription.scnl);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Create a connection for the current channels. Caller must hold the lock.
+   *
+   * @return connection or null if it could not be set up
+   */
+  private SeedLinkConnection connect() {
+    final Map<String, Set<String>> selectors = new LinkedHashMap<String, Set<String>>();
+    double begin = Double.NaN;
+    for (final List<Subscription> list : subscriptions.values()) {
+      final ChannelInfo channelInfo = new ChannelInfo(list.get(0).scnl);
+      final String station = getStation(channelInfo);
+      Set<String> stationSelectors = selectors.get(station);
+      if (stationSelectors == null) {
+        stationSelectors = new TreeSet<String>();
+        selectors.put(station, stationSelectors);
+      }
+      stationSelectors.add(getSelector(channelInfo));
+
+      final double resume = getResumeTime(list);
+      if (!Double.isNaN(resume) && !(resume >= begin)) {
+        begin = resume;
+      }
+      for (final Subscription subscription : list) {
+        subscription.requested();
+      }
+    }
+
+    final StringBuilder multiselect = new StringBuilder();
+    for (final Map.Entry<String, Set<String>> entry : selectors.entrySet()) {
+      if (multiselect.length() > 0) {
+        multiselect.append(',');
+      }
+      multiselect.append(entry.getKey()).append(':');
+      boolean first = true;
+      for (final String selector : entry.getValue()) {
+        if (!first) {
+          multiselect.append(' ');
+        }
+        multiselect.append(selector);
+        first = false;
+      }
+    }
+
+    final SeedLinkConnection conn = new SeedLinkConnection(new SLLog());
+    conn.setSLAddress(address);
+    try {
+      conn.parseStreamlist(multiselect.toString(), null);
+      final String beginTime = SeedLinkClient.j2kToSeedLinkDateString(begin);
+      if (beginTime != null) {
+        conn.setBeginTime(beginTime);
+      }
+    } catch (final Exception e) {
+      LOGGER.warn("Cannot set up SeedLink session to {}", address, e);
+      return null;
+    }
+    LOGGER.debug("SeedLink session to {}: {}", address, multiselect);
+    return conn;
+  }
+
+  /**
+   * Hand out packets until the connection is stopped.
+   *
+   * @return true if the connection ended without being asked to
+   */
+  private boolean collect(final SeedLinkConnection conn) {
+    try {
+      SLPacket slpack;
+      while ((slpack = conn.collect()) != null) {
+        if (slpack == SLPacket.SLTERMINATE) {
+          return false;
+        }
+        if (slpack == SLPacket.SLNOPACKET || slpack == SLPacket.SLERROR) {
+          continue;
+        }
+        final int type = slpack.getType();
+        if (type == SLPacket.TYPE_SLINF || type == SLPacket.TYPE_SLINFT) {
+          continue;
+        }
+        // reset the volume counter
+        BlocketteDecoratorFactory.reset();
+        handle(slpack.getBlockette());
+      }
+    } catch (final Exception e) {
+      LOGGER.debug("error in SeedLink session to {}", address, e);
+    }
+    return true;
+  }
+
+  private void handle(final Blockette blockette) throws Exception {
+    final Waveform waveform = blockette.getWaveform();
+    if (waveform == null || blockette.getType() != 999 || Swarm.getApplicationFrame() == null) {
+      return;
+    }
+
+    final String key = getKey(String.valueOf(blockette.getFieldVal(7)),
+        String.valueOf(blockette.getFieldVal(4)), String.valueOf(blockette.getFieldVal(5)),
+        String.valueOf(blockette.getFieldVal(6)));
+    final List<Subscription> list;
+    synchronized (this) {
+      final List<Subscription> subscribed = subscriptions.get(key);
+      if (subscribed == null) {
+        return;
+      }
+      list = new ArrayList<Subscription>(subscribed);
+    }
+
+    final Wave wave;
+    try {
+      wave = SeedLinkClient.createWave(blockette, waveform);
+    } catch (final Exception e) {
+      LOGGER.warn("Cannot decode SeedLink packet for {}", key, e);
+      return;
+    }
+
+    final List<String> cached = new ArrayList<String>();
+    for (final Subscription subscription : list) {
+      if (!cached.contains(subscription.scnl)) {
+        CachedDataSource.getInstance().putRealtimeWave(subscription.scnl, wave);
+        CachedDataSource.getInstance().cacheWaveAsHelicorder(subscription.scnl, wave);
+        cached.add(subscription.scnl);
+      }
+      subscription.received(wave.getStartTime(), wave.getEndTime());
+    }
+  }
+
+  /**
+   * Get the earliest time the subscriptions to one channel need data from.
+   */
+  private static double getResumeTime(final List<Subscription> list) {
+    double resume = Double.NaN;
+    for (final Subscription subscription : list) {
+      final double t = subscription.getResumeTime();
+      if (!Double.isNaN(t) && !(t >= resume)) {
+        resume = t;
+      }
+    }
+    return resume;
+  }
+
+  private static String getStation(final ChannelInfo channelInfo) {
+    return channelInfo.getNetwork() + "_" + channelInfo.getStation();
+  }
+
+  private static String getSelector(final ChannelInfo channelInfo) {
+    return channelInfo.getLocation() + channelInfo.getChannel() + "."
+        + SeedLinkChannelInfo.DATA_TYPE;
+  }
+
+  private static String getKey(final String network, final String station,
+      final String location, final String channel) {
+    String loc = location.trim();
+    if ("--".equals(loc)) {
+      loc = "";
+    }
+    return network.trim() + "_" + station.trim() + ":" + loc + "." + channel.trim();
+  }
+
+  /**
+   * One channel streamed for one gulper.
+   */
+  public static class Subscription {
+    private final SeedLinkSession session;
+    private final String scnl;
+    private final String key;
+    private final double since;
+    private final StartEndTime received;
+    private double lastTime = Double.NaN;
+    private boolean requested;
+    private SeedLinkConnection backfill;
+    private volatile boolean closed;
+
+    private Subscription(final SeedLinkSession session, final String scnl, final double since) {
+      this.session = session;
+      this.scnl = scnl;
+      this.since = since;
+      received = new StartEndTime();
+      final ChannelInfo channelInfo = new ChannelInfo(scnl);
+      key = getKey(channelInfo.getNetwork(), channelInfo.getStation(), channelInfo.getLocation(),
+          channelInfo.getChannel());
+    }
+
+    private synchronized void received(final double t1, final double t2) {
+      received.update(t1, t2);
+      if (!(t2 <= lastTime)) {
+        lastTime = t2;
+      }
+    }
+
+    private synchronized void requested() {
+      requested = true;
+    }
+
+    /**
+     * Note the one-off request fetching data before this subscription, or its end.
+     *
+     * @param conn the request's connection or null once it is done
+     * @return false if this subscription is already closed
+     */
+    private synchronized boolean backfilling(final SeedLinkConnection conn) {
+      if (closed && conn != null) {
+        return false;
+      }
+      backfill = conn;
+      return true;
+    }
+
+    /**
+     * Get the time to resume streaming from: the end of the last data received but no earlier
+     * than the realtime buffer reaches, or the time the subscription was made if nothing has
+     * arrived and it has not been asked for yet.
+     *
+     * @return the time or NaN for new data only
+     */
+    private synchronized double getResumeTime() {
+      if (Double.isNaN(lastTime)) {
+        return requested ? Double.NaN : since;
+      }
+      return Math.max(lastTime, J2kSec.now() - MAX_RESUME);
+    }
+
+    /**
+     * Get the span received since the last call and clear it.
+     *
+     * @param o the start end time to set
+     * @return o
+     */
+    public synchronized StartEndTime getStartEndTime(final StartEndTime o) {
+      o.set(received);
+      received.clear();
+      return o;
+    }
+
+    /**
+     * Stop streaming this channel for this subscriber.
+     */
+    public void close() {
+      synchronized (this) {
+        closed = true;
+        if (backfill != null) {
+          backfill.terminate();
+        }
+      }
+      session.unsubscribe(this);
+    }
+
+    public boolean isClosed() {
+      return closed;
+    }
+  }
+}
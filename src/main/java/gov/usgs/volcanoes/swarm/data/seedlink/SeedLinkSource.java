@@ -21,6 +21,7 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -63,6 +64,9 @@ public class SeedLinkSource extends SeismicDataSource {
   /** SeedLink client list. */
   private final List<SeedLinkClient> seedLinkClientList;
 
+  /** Channels streamed through the shared session for this source. */
+  private final List<SeedLinkSession.Subscription> subscriptions;
+
   /** time of last gulped data access. */
   private Map<String, SeedLinkGulperListener> gulperListeners;
 
@@ -72,6 +76,7 @@ public class SeedLinkSource extends SeismicDataSource {
   public SeedLinkSource() {
     LOGGER.debug("Constructing new seedlink source");
     seedLinkClientList = new ArrayList<SeedLinkClient>();
+    subscriptions = new ArrayList<SeedLinkSession.Subscription>();
     gulperListeners = new HashMap<String, SeedLinkGulperListener>();
 
   }
@@ -117,6 +122,12 @@ public class SeedLinkSource extends SeismicDataSource {
         seedLinkClientList.clear();
       }
     }
+    synchronized (subscriptions) {
+      for (SeedLinkSession.Subscription subscription : subscriptions) {
+        subscription.close();
+      }
+      subscriptions.clear();
+    }
   }
 
 
@@ -331,6 +342,28 @@ public class SeedLinkSource extends SeismicDataSource {
   }
 
 
+  /**
+   * Start streaming a channel through the session shared by all channels from this server.
+   * 
+   * @param scnl the scnl.
+   * @param t1 the start time or NaN for new data only.
+   * @return the subscription.
+   */
+  protected SeedLinkSession.Subscription subscribe(String scnl, double t1) {
+    final SeedLinkSession.Subscription subscription =
+        SeedLinkSession.subscribe(host, port, scnl, t1);
+    synchronized (subscriptions) {
+      for (Iterator<SeedLinkSession.Subscription> it = subscriptions.iterator(); it.hasNext();) {
+        if (it.next().isClosed()) {
+          it.remove();
+        }
+      }
+      subscriptions.add(subscription);
+    }
+    return subscription;
+  }
+
+
   /**
    * Remove the client.
    * 
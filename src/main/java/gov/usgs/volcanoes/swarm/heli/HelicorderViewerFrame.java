@@ -19,7 +19,11 @@ import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.SwingWorker;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
+import gov.usgs.volcanoes.swarm.data.GulperPriority;
+import gov.usgs.volcanoes.swarm.data.PrioritizedGulperListener;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSourceListener;
 import gov.usgs.volcanoes.swarm.internalFrame.SwarmInternalFrames;
@@ -148,6 +152,9 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
 
   public GulperListener gulperListener;
 
+  /** priority of this frame's gulper, published from the event dispatch thread. */
+  private volatile GulperPriority gulperPriority = GulperPriority.VISIBLE;
+
   private SeismicDataSourceListener dataListener;
 
   /**
@@ -500,6 +507,17 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
         if (settings.channel != null) {
           DataChooser.getInstance().setNearest(settings.channel);
         }
+        updateGulperPriority();
+      }
+
+      @Override
+      public void internalFrameDeactivated(final InternalFrameEvent e) {
+        updateGulperPriority();
+      }
+
+      @Override
+      public void internalFrameIconified(final InternalFrameEvent e) {
+        updateGulperPriority();
       }
 
       @Override
@@ -519,10 +537,21 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
         helicorderViewPanel.setResized(true);
         repaintHelicorder();
         repaint();
+        updateGulperPriority();
       }
     });
 
     this.addComponentListener(new ComponentAdapter() {
+      @Override
+      public void componentShown(final ComponentEvent e) {
+        updateGulperPriority();
+      }
+
+      @Override
+      public void componentHidden(final ComponentEvent e) {
+        updateGulperPriority();
+      }
+
       @Override
       public void componentResized(final ComponentEvent e) {
         if (getWidth() < 530) {
@@ -537,7 +566,11 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
       }
     });
 
-    gulperListener = new GulperListener() {
+    gulperListener = new PrioritizedGulperListener() {
+      public GulperPriority getGulperPriority() {
+        return gulperPriority;
+      }
+
       public void gulperStarted() {
         gulperWorking = true;
         throbber.increment();
@@ -757,6 +790,31 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
     helicorderViewPanel.invalidateImage();
   }
 
+  /**
+   * Work out how urgently this frame wants its data and publish it for the gulper scheduler,
+   * which must not touch Swing state. Runs on the event dispatch thread.
+   */
+  private void updateGulperPriority() {
+    if (!SwingUtilities.isEventDispatchThread()) {
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          updateGulperPriority();
+        }
+      });
+      return;
+    }
+
+    final double bottom = settings.getBottomTime();
+    if (isSelected()) {
+      gulperPriority = GulperPriority.FOCUSED;
+    } else if (isIcon() || !isShowing()
+        || (!Double.isNaN(bottom) && J2kSec.now() - bottom > settings.span * 60)) {
+      gulperPriority = GulperPriority.HIDDEN;
+    } else {
+      gulperPriority = GulperPriority.VISIBLE;
+    }
+  }
+
   /**
    * Scroll forward or backward in time.
    * @param units positive time units to go forward; negative to go backwards
@@ -779,6 +837,8 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
    * Get and draw helicorder. 
    */
   public void getHelicorder() {
+    // the view may have scrolled or gone stale since the last pass
+    updateGulperPriority();
     if (noData) {
       return;
     }
@@ -806,8 +866,17 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
           }
 
           if (!HelicorderViewerFrame.this.isClosed) {
-            hd = dataSource.getHelicorder(settings.channel.replace(' ', '$'), before - tc, end + tc,
-                gulperListener);
+            final String channel = settings.channel.replace(' ', '$');
+            // long chunks can be drawn from the cache's coarse summaries
+            if (helicorderViewPanel != null && helicorderViewPanel.getWidth() > 0
+                && !(dataSource instanceof AbstractCachingDataSource)) {
+              final double resolution = (double) tc / helicorderViewPanel.getWidth();
+              hd = CachedDataSource.getInstance().getHelicorder(channel, before - tc, end + tc,
+                  resolution);
+            }
+            if (hd == null) {
+              hd = dataSource.getHelicorder(channel, before - tc, end + tc, gulperListener);
+            }
             success = true;
           } else {
             success = false;
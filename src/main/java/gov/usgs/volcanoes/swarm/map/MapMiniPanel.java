@@ -44,6 +44,8 @@ import gov.usgs.volcanoes.swarm.Metadata;
 import gov.usgs.volcanoes.swarm.SCNL;
 import gov.usgs.volcanoes.swarm.Swarm;
 import gov.usgs.volcanoes.swarm.SwingWorker;
+import gov.usgs.volcanoes.swarm.data.ChannelIndex;
+import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.heli.HelicorderViewerFrame;
 import gov.usgs.volcanoes.swarm.map.MapPanel.LabelSetting;
 import gov.usgs.volcanoes.swarm.wave.WaveViewPanel;
@@ -157,6 +159,15 @@ public class MapMiniPanel extends JComponent
     return activeMetadata;
   }
 
+  /**
+   * Get the source of the active channel, resolved through the channel index so a source which
+   * has since been removed is not used.
+   * @return data source or null if none serves the channel
+   */
+  public SeismicDataSource getSource() {
+    return ChannelIndex.getSource(activeMetadata.getChannel(), activeMetadata.source);
+  }
+
   /**
    * Add metadata.
    * @param md metadata
@@ -263,7 +274,7 @@ public class MapMiniPanel extends JComponent
     });
     wavePanel.setUseFilterLabel(false);
     wavePanel.setDisplayTitle(false);
-    wavePanel.setDataSource(activeMetadata.source);
+    wavePanel.setDataSource(getSource());
     wavePanel.setChannel(activeMetadata.getChannel());
   }
 
@@ -366,7 +377,9 @@ public class MapMiniPanel extends JComponent
    */
   public boolean updateWave(final double st, final double et, boolean reenter,
       final boolean repaint) {
-    if (!waveVisible || activeMetadata.source == null) {
+    // resolve once, the source may be removed while the worker runs
+    final SeismicDataSource source = getSource();
+    if (!waveVisible || source == null) {
       return false;
     }
 
@@ -385,15 +398,15 @@ public class MapMiniPanel extends JComponent
       public Object construct() {
         MapFrame.getInstance().getThrobber().increment();
         wavePanel.setWorking(true);
-        wavePanel.setDataSource(activeMetadata.source);
+        wavePanel.setDataSource(source);
         wavePanel.setChannel(activeMetadata.getChannel());
         Wave cw = wavePanel.getWave();
         // TODO: unify this and the monitor code
         if (cw != null && cw.numSamples() > 0 && cw.overlaps(st, et)) {
-          activeMetadata.source.setUseCache(false);
+          source.setUseCache(false);
 
           if (cw.getEndTime() < et) {
-            Wave w2 = activeMetadata.source.getWave(activeMetadata.getChannel(),
+            Wave w2 = source.getWave(activeMetadata.getChannel(),
                 cw.getEndTime() - 10, et);
             if (w2 != null) {
               cw = cw.combine(w2);
@@ -401,7 +414,7 @@ public class MapMiniPanel extends JComponent
           }
 
           if (cw.getStartTime() > st) {
-            Wave w2 = activeMetadata.source.getWave(activeMetadata.getChannel(), st,
+            Wave w2 = source.getWave(activeMetadata.getChannel(), st,
                 cw.getStartTime() + 10);
             if (w2 != null) {
               cw = cw.combine(w2);
@@ -410,14 +423,14 @@ public class MapMiniPanel extends JComponent
 
           cw = cw.subset(st, Math.min(et, cw.getEndTime()));
 
-          boolean before = activeMetadata.source.isUseCache();
-          activeMetadata.source.setUseCache(before);
+          boolean before = source.isUseCache();
+          source.setUseCache(before);
         } else {
           cw = null;
         }
 
         if (cw == null) {
-          cw = activeMetadata.source.getWave(activeMetadata.getChannel(), st, et);
+          cw = source.getWave(activeMetadata.getChannel(), st, et);
         }
 
         wavePanel.setWave(cw, st, et);
@@ -444,6 +457,76 @@ public class MapMiniPanel extends JComponent
     return true;
   }
 
+  /**
+   * Claim this panel for a bulk update by its map.
+   * @return false if the panel has no source or is busy and must be updated on its own
+   */
+  boolean startBulkUpdate() {
+    final SeismicDataSource source = getSource();
+    synchronized (this) {
+      if (!waveVisible || source == null || working) {
+        return false;
+      }
+      working = true;
+    }
+    wavePanel.setWorking(true);
+    wavePanel.setDataSource(source);
+    wavePanel.setChannel(activeMetadata.getChannel());
+    return true;
+  }
+
+  /**
+   * Get the start of the span this panel needs fetched for a time window: just after its current
+   * wave if that can be extended, otherwise the whole window.
+   * @param st start time
+   * @param et end time
+   * @return start of the span to fetch, et or later if nothing is needed
+   */
+  double getFetchStart(final double st, final double et) {
+    final Wave cw = wavePanel.getWave();
+    if (cw != null && cw.numSamples() > 0 && cw.overlaps(st, et) && cw.getStartTime() <= st) {
+      return cw.getEndTime() < et ? cw.getEndTime() - 10 : et;
+    }
+    return st;
+  }
+
+  /**
+   * Finish a bulk update with the data fetched for this panel.
+   * @param fetched wave from getFetchStart to et, or null
+   * @param st start time
+   * @param et end time
+   * @param repaint true to repaint
+   */
+  void finishBulkUpdate(final Wave fetched, final double st, final double et,
+      final boolean repaint) {
+    Wave cw = wavePanel.getWave();
+    if (cw != null && cw.numSamples() > 0 && cw.overlaps(st, et) && cw.getStartTime() <= st) {
+      if (fetched != null && (cw.overlaps(fetched) || cw.adjacent(fetched))) {
+        final Wave joined = cw.combine(fetched);
+        if (joined != null) {
+          cw = joined;
+        }
+      }
+    } else {
+      cw = fetched;
+    }
+    if (cw != null) {
+      cw = cw.subset(Math.max(st, cw.getStartTime()), Math.min(et, cw.getEndTime()));
+    }
+    wavePanel.setWave(cw, st, et);
+
+    double[] pr = getPendingRequest();
+    if (pr != null) {
+      updateWave(pr[0], pr[1], true, repaint);
+    } else {
+      setWorking(false);
+    }
+    wavePanel.setWorking(false);
+    if (repaint) {
+      wavePanel.repaint();
+    }
+  }
+
   /**
    * Toggle wave visibility on/off.
    */
@@ -563,9 +646,10 @@ public class MapMiniPanel extends JComponent
     Point pt = getLocation();
     manualPositionXy = new Point2D.Double(pt.x, pt.y);
     if (e.getClickCount() == 2) {
-      if (activeMetadata.source != null) {
+      final SeismicDataSource source = getSource();
+      if (source != null) {
         HelicorderViewerFrame hvf =
-            Swarm.openHelicorder(activeMetadata.source, activeMetadata.getChannel(), Double.NaN);
+            Swarm.openHelicorder(source, activeMetadata.getChannel(), Double.NaN);
         if (Swarm.isFullScreenMode()) {
           hvf.setPinned(true);
         }
@@ -52,6 +52,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
+import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.legacy.plot.Plot;
 import gov.usgs.volcanoes.core.legacy.plot.map.GeoImageSet;
 import gov.usgs.volcanoes.core.legacy.plot.map.GeoLabelSet;
@@ -69,6 +70,7 @@ import gov.usgs.volcanoes.swarm.Icons;
 import gov.usgs.volcanoes.swarm.Metadata;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.SwingWorker;
+import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.map.MapMiniPanel.Position;
 import gov.usgs.volcanoes.swarm.time.TimeListener;
 import gov.usgs.volcanoes.swarm.time.WaveViewTime;
@@ -613,17 +615,75 @@ public class MapPanel extends JPanel {
     startTime = st;
     endTime = et;
     boolean updated = false;
+    final Map<SeismicDataSource, List<MapMiniPanel>> bySource =
+        new HashMap<SeismicDataSource, List<MapMiniPanel>>();
     synchronized (visiblePanels) {
       for (final MapMiniPanel panel : visiblePanels) {
         if (panel.isWaveVisible()) {
           updated = true;
-          panel.updateWave(startTime, endTime, false, repaint);
+          if (panel.startBulkUpdate()) {
+            final SeismicDataSource source = panel.getSource();
+            List<MapMiniPanel> sourcePanels = bySource.get(source);
+            if (sourcePanels == null) {
+              sourcePanels = new ArrayList<MapMiniPanel>();
+              bySource.put(source, sourcePanels);
+            }
+            sourcePanels.add(panel);
+          } else {
+            panel.updateWave(startTime, endTime, false, repaint);
+          }
         }
       }
       if (updated) {
         repaint();
       }
     }
+    if (!bySource.isEmpty()) {
+      updateWaves(bySource, st, et, repaint);
+    }
+  }
+
+  /**
+   * Update panels with one bulk request per data source.
+   * @param bySource panels claimed for a bulk update, by data source
+   * @param st start time
+   * @param et end time
+   * @param repaint true to repaint
+   */
+  private void updateWaves(final Map<SeismicDataSource, List<MapMiniPanel>> bySource,
+      final double st, final double et, final boolean repaint) {
+    final Map<MapMiniPanel, Wave> fetched = new HashMap<MapMiniPanel, Wave>();
+    final SwingWorker worker = new SwingWorker() {
+      public Object construct() {
+        MapFrame.getInstance().getThrobber().increment();
+        for (final Map.Entry<SeismicDataSource, List<MapMiniPanel>> entry
+            : bySource.entrySet()) {
+          double fetchStart = et;
+          final List<String> channels = new ArrayList<String>();
+          for (final MapMiniPanel panel : entry.getValue()) {
+            fetchStart = Math.min(fetchStart, panel.getFetchStart(st, et));
+            channels.add(panel.getActiveMetadata().getChannel());
+          }
+          if (fetchStart < et) {
+            final Map<String, Wave> waves = entry.getKey().getWaves(channels, fetchStart, et);
+            for (final MapMiniPanel panel : entry.getValue()) {
+              fetched.put(panel, waves.get(panel.getActiveMetadata().getChannel()));
+            }
+          }
+        }
+        return null;
+      }
+
+      public void finished() {
+        for (final List<MapMiniPanel> panels : bySource.values()) {
+          for (final MapMiniPanel panel : panels) {
+            panel.finishBulkUpdate(fetched.get(panel), st, et, repaint);
+          }
+        }
+        MapFrame.getInstance().getThrobber().decrement();
+      }
+    };
+    worker.start();
   }
 
   public Point2D.Double getCenter() {
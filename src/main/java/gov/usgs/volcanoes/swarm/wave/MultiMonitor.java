@@ -22,6 +22,7 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +59,8 @@ import gov.usgs.volcanoes.swarm.SwarmFrame;
 import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
+import gov.usgs.volcanoes.swarm.data.DataExecutor;
+import gov.usgs.volcanoes.swarm.data.LatestRequest;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.wave.WaveViewSettings.ViewType;
 
@@ -72,6 +75,9 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
 
   public static final int[] SPANS = new int[] {15, 30, 60, 120, 180, 240, 300, 600, 15 * 60,
       20 * 60, 30 * 60, 60 * 60, 2 * 60 * 60};
+
+  /** tails starting within this many seconds of each other are fetched in one request. */
+  private static final double TAIL_GROUP_SECONDS = 30;
   private int span = 15;
   private final List<WaveViewPanel> panels;
   private SeismicDataSource dataSource;
@@ -102,6 +108,7 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
   private long refreshInterval = 1000;
   private SlideTask slideTask;
   private RefreshTask refreshTask;
+  private final LatestRequest refreshRequest = new LatestRequest();
 
   private int labelFontSize;
   private Font font;
@@ -488,6 +495,7 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
         throbber.close();
         selectedIndex = -1;
         timer.cancel();
+        refreshRequest.cancel();
         dataSource.close();
         panels.clear();
         wavePanel.removeAll();
@@ -749,8 +757,8 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
       }
     };
 
-    final Thread worker = new Thread(r);
-    worker.start();
+    // only rearranges waves already fetched, cheap enough for the timer thread
+    r.run();
   }
 
   /**
@@ -781,6 +789,48 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
         final double[] times = getTimeWindow();
         final double now = times[1];
         final double start = times[0];
+
+        // fetch whole windows in one bulk request and tails in one per group of channels whose
+        // tails start close together, so a lagging channel does not widen every tail
+        final List<String> tailChannels = new ArrayList<String>();
+        final List<String> wholeChannels = new ArrayList<String>();
+        final Map<String, Double> tailStarts = new HashMap<String, Double>();
+        for (int i = 0; i < panels.size(); i++) {
+          channel = panels.get(i).getChannel();
+          final Wave sw = waveMap.get(channel);
+          if (sw == null || !sw.overlaps(start, now)) {
+            wholeChannels.add(channel);
+          } else if (sw.getEndTime() < now && !tailStarts.containsKey(channel)) {
+            tailChannels.add(channel);
+            tailStarts.put(channel, sw.getEndTime() - 10);
+          }
+        }
+        Collections.sort(tailChannels, new Comparator<String>() {
+          public int compare(final String c1, final String c2) {
+            return Double.compare(tailStarts.get(c1), tailStarts.get(c2));
+          }
+        });
+        final Map<String, Wave> tails = new HashMap<String, Wave>();
+        final Map<String, Wave> wholes = new HashMap<String, Wave>();
+        try {
+          int first = 0;
+          while (first < tailChannels.size()) {
+            final double tailStart = tailStarts.get(tailChannels.get(first));
+            int last = first + 1;
+            while (last < tailChannels.size()
+                && tailStarts.get(tailChannels.get(last)) - tailStart <= TAIL_GROUP_SECONDS) {
+              last++;
+            }
+            tails.putAll(dataSource.getWaves(tailChannels.subList(first, last), tailStart, now));
+            first = last;
+          }
+          if (!wholeChannels.isEmpty()) {
+            wholes.putAll(dataSource.getWaves(wholeChannels, start, now));
+          }
+        } catch (final Throwable t) {
+          t.printStackTrace();
+        }
+
         for (int i = 0; i < panels.size(); i++) {
           final WaveViewPanel wvp = panels.get(i);
           wvp.setWorking(true);
@@ -790,7 +840,7 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
             if (sw != null) {
               if (sw.overlaps(start, now)) { // runaway monitor bug fix
                 if (sw.getEndTime() < now) {
-                  final Wave w2 = dataSource.getWave(channel, sw.getEndTime() - 10, now);
+                  final Wave w2 = tails.get(channel);
                   if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
                     sw = sw.combine(w2);
                   }
@@ -809,7 +859,8 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
 
             // something bad happened above, just get the whole wave
             if (sw == null) {
-              sw = dataSource.getWave(channel, start, now);
+              sw = wholes.containsKey(channel) ? wholes.get(channel)
+                  : dataSource.getWave(channel, start, now);
             }
             if (sw != null) {
               waveMap.put(channel, sw);
@@ -824,8 +875,7 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
       }
     };
 
-    final Thread worker = new Thread(r);
-    worker.start();
+    refreshRequest.supersede(DataExecutor.submit(r));
   }
 
   /**
@@ -23,6 +23,8 @@ import gov.usgs.volcanoes.swarm.SwingWorker;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.ChannelIndex;
+import gov.usgs.volcanoes.swarm.data.ChannelListCache;
 import gov.usgs.volcanoes.swarm.data.FileDataSource;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.data.fdsnWs.WebServicesSource;
@@ -56,6 +58,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -973,13 +976,30 @@ public class WaveClipboardFrame extends SwarmFrame {
         synchronized (WaveClipboardFrame.this) {
           copy = new ArrayList<WaveViewPanel>(waves);
         }
+        // one bulk request per data source
+        final Map<SeismicDataSource, List<WaveViewPanel>> bySource =
+            new LinkedHashMap<SeismicDataSource, List<WaveViewPanel>>();
         for (final WaveViewPanel wvp : copy) {
-          if (wvp != p) {
-            if (wvp.getDataSource() != null) {
-              addHistory(wvp, new double[] {wvp.getStartTime(), wvp.getEndTime()});
-              final Wave sw = wvp.getDataSource().getWave(wvp.getChannel(), st, et);
-              wvp.setWave(sw, st, et);
+          if (wvp != p && wvp.getDataSource() != null) {
+            List<WaveViewPanel> sourcePanels = bySource.get(wvp.getDataSource());
+            if (sourcePanels == null) {
+              sourcePanels = new ArrayList<WaveViewPanel>();
+              bySource.put(wvp.getDataSource(), sourcePanels);
             }
+            sourcePanels.add(wvp);
+          }
+        }
+
+        for (final Map.Entry<SeismicDataSource, List<WaveViewPanel>> entry
+            : bySource.entrySet()) {
+          final List<String> channels = new ArrayList<String>();
+          for (final WaveViewPanel wvp : entry.getValue()) {
+            channels.add(wvp.getChannel());
+          }
+          final Map<String, Wave> sourceWaves = entry.getKey().getWaves(channels, st, et);
+          for (final WaveViewPanel wvp : entry.getValue()) {
+            addHistory(wvp, new double[] {wvp.getStartTime(), wvp.getEndTime()});
+            wvp.setWave(sourceWaves.get(wvp.getChannel()), st, et);
           }
         }
         return null;
@@ -1426,6 +1446,7 @@ public class WaveClipboardFrame extends SwarmFrame {
 
         // create wave view panels 
         HashMap<String, WaveViewPanel> panels = new HashMap<String, WaveViewPanel>();
+        HashMap<String, String> pickChannels = new HashMap<String, String>();
         for (Pick pick : event.getPicks().values()) {
           String channel = pick.getChannel().replaceAll("\\$", " ").trim();
           WaveViewPanel wvp = panels.get(channel);
@@ -1434,38 +1455,97 @@ public class WaveClipboardFrame extends SwarmFrame {
             wvp.setChannel(channel);
             wvp.setStartTime(waveStart);
             wvp.setEndTime(waveEnd);
-            boolean foundSource = false;
-            for (SeismicDataSource source : SwarmConfig.getInstance().getSources().values()) {
-              for (String ch : source.getChannels()) {
-                if (ch.equals(channel)) {
-                  wvp.setDataSource(source);
-                  Wave wave = source.getWave(channel, waveStart, waveEnd);
-                  if (wave != null) {
-                    wvp.setWave(wave, waveStart, waveEnd);
-                    foundSource = true;
-                    break;
-                  }
-                }
-              }
-              if (foundSource) {
-                break;
+            panels.put(channel, wvp);
+            pickChannels.put(channel, pick.getChannel());
+          }
+          String phaseHint = pick.getPhaseHint();
+          PickData pickData = wvp.getPickData();
+          pickData.setPick(phaseHint, pick, true);
+        }
+
+        // find the sources of each channel in the channel index, loading the lists of sources
+        // not indexed yet only if some channel has no known source
+        List<String> pending = new ArrayList<String>(panels.keySet());
+        boolean unresolved = false;
+        for (String channel : pending) {
+          if (ChannelIndex.getSource(channel) == null) {
+            unresolved = true;
+            break;
+          }
+        }
+        if (unresolved) {
+          for (SeismicDataSource source : SwarmConfig.getInstance().getSources().values()) {
+            if (!ChannelIndex.isIndexed(source)) {
+              ChannelListCache.getChannels(source, null);
+            }
+          }
+        }
+        Map<String, List<SeismicDataSource>> candidates =
+            new HashMap<String, List<SeismicDataSource>>();
+        for (String channel : pending) {
+          candidates.put(channel, ChannelIndex.getSources(channel));
+        }
+
+        // ask each channel's first source, then its second and so on, one bulk request per source
+        for (int round = 0; !pending.isEmpty(); round++) {
+          Map<SeismicDataSource, List<String>> bySource =
+              new LinkedHashMap<SeismicDataSource, List<String>>();
+          for (String channel : pending) {
+            List<SeismicDataSource> sources = candidates.get(channel);
+            if (round < sources.size()) {
+              List<String> found = bySource.get(sources.get(round));
+              if (found == null) {
+                found = new ArrayList<String>();
+                bySource.put(sources.get(round), found);
               }
+              found.add(channel);
             }
-            // If no data source already available go to IRIS
-            if (wvp.getDataSource() == null) {
-              WebServicesSource source = new WebServicesSource(pick.getChannel());
+          }
+          if (bySource.isEmpty()) {
+            break;
+          }
+          for (Map.Entry<SeismicDataSource, List<String>> entry : bySource.entrySet()) {
+            SeismicDataSource source = entry.getKey();
+            List<String> sourceChannels = new ArrayList<String>();
+            for (String channel : entry.getValue()) {
+              String name = ChannelIndex.getChannel(source, channel);
+              sourceChannels.add(name == null ? channel : name);
+            }
+            Map<String, Wave> sourceWaves = source.getWaves(sourceChannels, waveStart, waveEnd);
+            for (int i = 0; i < sourceChannels.size(); i++) {
+              String channel = entry.getValue().get(i);
+              WaveViewPanel wvp = panels.get(channel);
               wvp.setDataSource(source);
-              Wave wave = source.getWave(channel, waveStart, waveEnd);
+              wvp.setChannel(sourceChannels.get(i));
+              Wave wave = sourceWaves.get(sourceChannels.get(i));
               if (wave != null) {
                 wvp.setWave(wave, waveStart, waveEnd);
+                pending.remove(channel);
               }
             }
-            panels.put(channel, wvp);
           }
-          String phaseHint = pick.getPhaseHint();
-          PickData pickData = wvp.getPickData();
-          pickData.setPick(phaseHint, pick, true);
-          
+        }
+
+        // If no data source already available go to IRIS, all channels in one bulk request
+        List<String> unsourced = new ArrayList<String>();
+        WebServicesSource bulkSource = null;
+        for (String channel : pending) {
+          WaveViewPanel wvp = panels.get(channel);
+          if (wvp.getDataSource() == null) {
+            WebServicesSource source = new WebServicesSource(pickChannels.get(channel));
+            wvp.setDataSource(source);
+            unsourced.add(channel);
+            bulkSource = source;
+          }
+        }
+        if (bulkSource != null) {
+          Map<String, Wave> sourceWaves = bulkSource.getWaves(unsourced, waveStart, waveEnd);
+          for (String channel : unsourced) {
+            Wave wave = sourceWaves.get(channel);
+            if (wave != null) {
+              panels.get(channel).setWave(wave, waveStart, waveEnd);
+            }
+          }
         }
         
         // add wave view panels to clipboard
@@ -9,6 +9,8 @@ import gov.usgs.volcanoes.swarm.SwarmFrame;
 import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
+import gov.usgs.volcanoes.swarm.data.DataListener;
+import gov.usgs.volcanoes.swarm.data.LatestRequest;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.internalFrame.SwarmInternalFrames;
 
@@ -41,6 +43,7 @@ public class WaveViewerFrame extends SwarmFrame implements Runnable {
   private final String channel;
   private final Thread updateThread;
   private boolean kill;
+  private final LatestRequest waveRequest = new LatestRequest();
   private JToolBar toolBar;
 
   private final WaveViewSettings settings;
@@ -175,21 +178,29 @@ public class WaveViewerFrame extends SwarmFrame implements Runnable {
    * Get wave.
    */
   public void getWave() {
+    // a request still running is left alone rather than piling up behind a slow source
+    if (waveRequest.isPending()) {
+      return;
+    }
     throbber.increment();
     final double now = J2kSec.now();
-    final Wave sw = dataSource.getWave(channel, now - SPANS[spanIndex], now);
-    // System.out.println(sw);
+    final double start = now - SPANS[spanIndex];
     waveViewPanel.setWorking(true);
-    waveViewPanel.setWave(sw, now - SPANS[spanIndex], now);
-    waveViewPanel.setChannel(channel);
-    waveViewPanel.setDataSource(dataSource);
-    waveViewPanel.setWorking(false);
-    waveViewPanel.repaint();
-    throbber.decrement();
+    waveRequest.supersede(dataSource.getWaveAsync(channel, start, now, new DataListener<Wave>() {
+      public void dataReceived(final Wave sw) {
+        waveViewPanel.setWave(sw, start, now);
+        waveViewPanel.setChannel(channel);
+        waveViewPanel.setDataSource(dataSource);
+        waveViewPanel.setWorking(false);
+        waveViewPanel.repaint();
+        throbber.decrement();
+      }
+    }));
   }
 
   public void kill() {
     kill = true;
+    waveRequest.cancel();
     updateThread.interrupt();
   }
 